@@ -0,0 +1,47 @@
+import { Game } from './game';
+import { applyDelta, applyPatch } from './game-delta';
+
+describe('Game deltas', () => {
+  const game: Game = {
+    _id: 'kkGameId',
+    joincode: '111',
+    players: ['KK', 'Jeff'],
+    currentRound: 0,
+    version: 2,
+  };
+
+  it('adds a player to the end of the players', () => {
+    const updated = applyPatch(game, [{ op: 'add', path: '/players/-', value: 'Nic' }]);
+    expect(updated.players).toEqual(['KK', 'Jeff', 'Nic']);
+  });
+
+  it('does not change the original game', () => {
+    applyPatch(game, [{ op: 'add', path: '/players/-', value: 'Nic' }]);
+    expect(game.players).toEqual(['KK', 'Jeff']);
+  });
+
+  it('replaces and removes values', () => {
+    const updated = applyPatch(game, [
+      { op: 'replace', path: '/currentRound', value: 1 },
+      { op: 'remove', path: '/players/0' },
+    ]);
+    expect(updated.currentRound).toBe(1);
+    expect(updated.players).toEqual(['Jeff']);
+  });
+
+  it('adds a whole list of players to a game without one', () => {
+    const updated = applyPatch({ ...game, players: null }, [{ op: 'add', path: '/players', value: ['Nic'] }]);
+    expect(updated.players).toEqual(['Nic']);
+  });
+
+  it('moves the game to the version of the delta', () => {
+    const updated = applyDelta(game, {
+      type: 'PLAYER_JOINED',
+      gameId: 'kkGameId',
+      version: 3,
+      patch: [{ op: 'add', path: '/players/-', value: 'Nic' }],
+    });
+    expect(updated.version).toBe(3);
+    expect(updated.players).toEqual(['KK', 'Jeff', 'Nic']);
+  });
+});
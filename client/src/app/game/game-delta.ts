@@ -0,0 +1,84 @@
+import { Game } from './game';
+
+/**
+ * One operation of a JSON Patch (https://datatracker.ietf.org/doc/html/rfc6902),
+ * describing part of a change to a game.
+ */
+export interface PatchOperation {
+  op: 'add' | 'replace' | 'remove';
+  path: string;
+  value?: unknown;
+}
+
+/**
+ * A change to a game, as the server pushes it to everybody following the game.
+ * `version` is the version of the game after the change.
+ */
+export interface GameDelta {
+  type: string;
+  gameId: string;
+  version: number;
+  data?: Record<string, unknown>;
+  patch: PatchOperation[];
+}
+
+/**
+ * What the server sends back when we ask for the changes to a game since some
+ * version: either the changes themselves, or (if it no longer has all of them)
+ * the whole game.
+ */
+export interface GameDeltas {
+  version: number;
+  deltas?: GameDelta[];
+  game?: Game;
+}
+
+/**
+ * Apply a JSON Patch to a game, returning a new game (the original isn't modified,
+ * which matters for signals). This only supports the operations the server
+ * actually sends: `add`, `replace`, and `remove`, where `-` as the last part of
+ * an `add` path means "on the end of the array".
+ *
+ * @param game the game to change
+ * @param patch the operations to apply, in order
+ * @returns the changed game
+ */
+export function applyPatch(game: Game, patch: PatchOperation[]): Game {
+  const result = structuredClone(game);
+  for (const operation of patch) {
+    // JSON Pointer escapes `~` as `~0` and `/` as `~1`
+    const keys = operation.path.split('/').slice(1).map(key => key.replace(/~1/g, '/').replace(/~0/g, '~'));
+    const last = keys.pop();
+    let target = result as unknown as Record<string, unknown>;
+    for (const key of keys) {
+      target = target[key] as Record<string, unknown>;
+    }
+    if (Array.isArray(target)) {
+      if (operation.op === 'remove') {
+        target.splice(Number(last), 1);
+      } else if (operation.op === 'replace') {
+        target[Number(last)] = operation.value;
+      } else if (last === '-') {
+        target.push(operation.value);
+      } else {
+        target.splice(Number(last), 0, operation.value);
+      }
+    } else if (operation.op === 'remove') {
+      delete target[last];
+    } else {
+      target[last] = operation.value;
+    }
+  }
+  return result;
+}
+
+/**
+ * Apply a change to a game, returning the changed game (at the change's version).
+ *
+ * @param game the game to change, which should be at the version just before the change
+ * @param delta the change
+ * @returns the changed game
+ */
+export function applyDelta(game: Game, delta: GameDelta): Game {
+  return { ...applyPatch(game, delta.patch), version: delta.version };
+}
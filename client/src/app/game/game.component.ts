@@ -4,6 +4,7 @@ import { GameService } from './game.service';
 import { WebSocketService } from './web-socket.service';
 import { MatListModule } from '@angular/material/list';
 import { Game } from './game';
+import { applyDelta, GameDelta } from './game-delta';
 
 @Component({
   selector: 'app-game',
@@ -31,42 +32,51 @@ export class GameComponent {
         this.game.set(response);
       });
 
+    // The server only sends a client the messages about the game it is following,
+    // so let it know that this is the game we want to hear about.
+    this.webSocketService.sendMessage({ type: 'SUBSCRIBE', gameId: this.gameId });
+
     this.webSocketService.getMessage().subscribe((message: unknown) => {
-      const msg = message as {
-        type?: string;
-        gameId?: string;
-        playerName?: string;
-      };
+      const delta = message as Partial<GameDelta>;
       // This comment and much of how the websockets stuff works comes from
       // https://github.com/UMM-CSci-3601-F24/it-3-mary-shellys-cool-1918-howard-frankendogs-football-team/tree/main
       // "all of these are optional to allow heartbeat messages to pass through",
       // but I (KK) haven't done anything with heartbeat stuff yet... apparently it helps keep things connected
 
-      if (this.game()) { // only update a game if this component has a game object already in view
-        if (
-        // The websocket message is about adding a player and refers to
-        // the game this GameComponent is displaying
-          msg.type === 'ADD_PLAYER' &&
-          msg.gameId === this.gameId
-        ) {
-          // console.log("client received broadcast for game: " + msg.gameId + " to add: " + msg.playerName);
-          this.game.update(currentGame => ({...currentGame, players: [...currentGame.players, `${msg.playerName} boom!`] }));
-          // console.log("GameComponent: " + this + " added player: " + msg.playerName);
-          //
-          // Google Generative AI with prompt/search: "angular 19 update a property of a signal where the
-          // property is an array, without changing the object directly"
-          //
-          // told me: The update method receives the current value of the signal.
-          // A new object is then created, with the players array being replaced by a new array.
-          // This new array is created by "spreading the old array" (that's what the `...` does) and adding a new element,
-          // ensuring that the original array is not modified.
-          //
-          // Basically, the update says, "Hey, you have access to the old game as it was...
-          // I want you to keep all the old stuff from that game, but update the players array
-          // to be a new array that includes all the old players plus the new player",
-          // which ensures *immutability*, which is crucial for Angular signals to detect changes.
-          // (I previously was editing the old array more directly using 'push'.)
+      const current = this.game();
+      // Only update a game if this component has a game object already in view,
+      // and the change is to the game this GameComponent is displaying
+      if (current && delta.gameId === this.gameId && delta.patch) {
+        const version = current.version ?? 0;
+        if (delta.version === version + 1) {
+          // This is the very next change, so we can just apply its (small) patch.
+          // `applyDelta` hands back a new game rather than changing the old one,
+          // which is what lets Angular signals notice the change.
+          this.game.set(applyDelta(current, delta as GameDelta));
+        } else if (delta.version > version + 1) {
+          // We missed something (e.g., our connection dropped for a moment)
+          this.catchUp(version);
         }
+        // Otherwise it's a change we already have
+      }
+    });
+  }
+
+  /**
+   * Ask the server for the changes to the game since the given version,
+   * and apply them (or replace the game, if the server sends the whole thing).
+   *
+   * @param since the version of the game we have
+   */
+  catchUp(since: number) {
+    this.gameService.getDeltas(this.gameId, since).subscribe(response => {
+      if (response.game) {
+        this.game.set(response.game);
+      } else {
+        this.game.update(currentGame => response.deltas
+          // Skip anything that arrived over the web socket in the meantime
+          .filter(delta => delta.version > (currentGame.version ?? 0))
+          .reduce(applyDelta, currentGame));
       }
     });
   }
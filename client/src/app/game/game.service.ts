@@ -1,7 +1,9 @@
-import { HttpClient } from '@angular/common/http';
+import { HttpClient, HttpParams } from '@angular/common/http';
 import { Injectable } from '@angular/core';
 import { environment } from 'src/environments/environment';
 import { Game } from './game';
+import { GameDeltas } from './game-delta';
+import { Response, Round } from './round';
 import { map, Observable } from 'rxjs';
 
 @Injectable({
@@ -38,8 +40,47 @@ export class GameService {
   //
   // One thing I (KK) am still not sure about is this use of path parameters versus using a body for the request
   // or using query parameters (seems like query parameters are more for "get" operations)
-  addPlayer(gameId: string, newPlayer: string): Observable<Game> {
-    // Look at the game with the given id, take all the values, but update the players to add the new one
-    return this.httpClient.put<Game>(`${this.gameUrl}/${gameId}/${newPlayer}`, null);
+  addPlayer(gameId: string, newPlayer: string): Observable<{_id: string, version: number}> {
+    // Look at the game with the given id, take all the values, but update the players to add the new one.
+    // The server only sends back the game's new version; the change itself is pushed to
+    // everybody following the game.
+    return this.httpClient.put<{_id: string, version: number}>(`${this.gameUrl}/${gameId}/${newPlayer}`, null);
+  }
+
+  /**
+   * Get the changes made to a game since the given version, so we can catch
+   * up on changes we missed without reloading the whole game (unless the
+   * server no longer has them all, in which case it sends the whole game).
+   *
+   * @param id the ID of the game
+   * @param since the version of the game we already have
+   * @returns an `Observable` containing the changes (or the whole game)
+   */
+  getDeltas(id: string, since: number): Observable<GameDeltas> {
+    return this.httpClient.get<GameDeltas>(`${this.gameUrl}/${id}/deltas`, {
+      params: new HttpParams().set('since', since),
+    });
+  }
+
+  /**
+   * Get the rounds (so far) of a game. These don't include their responses,
+   * which can be fetched for each round with `getResponses`.
+   *
+   * @param id the ID of the game
+   * @returns an `Observable` containing the game's rounds, in order
+   */
+  getRounds(id: string): Observable<Round[]> {
+    return this.httpClient.get<Round[]>(`${this.gameUrl}/${id}/rounds`);
+  }
+
+  /**
+   * Get the responses to one round of a game.
+   *
+   * @param id the ID of the game
+   * @param round the number of the round
+   * @returns an `Observable` containing the responses to that round
+   */
+  getResponses(id: string, round: number): Observable<Response[]> {
+    return this.httpClient.get<Response[]>(`${this.gameUrl}/${id}/rounds/${round}/responses`);
   }
 }
@@ -5,5 +5,6 @@ export interface Game {
   joincode: string;
   players: string[];
   currentRound: number;
-  rounds?: Round[];
+  version?: number; // bumped by the server on every change to the game
+  round?: Round; // only the current round; earlier ones are fetched separately
 }
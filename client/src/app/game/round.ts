@@ -1,6 +1,17 @@
+export interface Response {
+  _id: string;
+  player: string;
+  text: string;
+}
+
 export interface Round {
   _id: string;
+  number: number; // which round of the game this is
   players: string[];
-  responses: Response[];
   judge: string; // will be one of the strings from players
+  prompt: string;
+  // Players respond while the round is open; the judge picks a winner once it's locked
+  state: 'OPEN' | 'LOCKED' | 'JUDGED';
+  responses?: Response[]; // only there once the round is locked
+  winningResponse?: Response; // missing if the judge ran out of time and was skipped
 }
@@ -9,6 +9,7 @@ import { environment } from 'src/environments/environment';
 export class WebSocketService {
   private socket$: WebSocketSubject<unknown>;
   private messageSubject = new Subject<unknown>();
+  private decoder = new TextDecoder();
 
   constructor() {
     /*
@@ -17,7 +18,15 @@ export class WebSocketService {
     the local url is: `ws://localhost:4567/api/websocket`
     the production url is: `wss://[your droplet ip address].nip.io/api/websocket`
     */
-    this.socket$ = new WebSocketSubject(`${environment.wsUrl}`);
+    this.socket$ = new WebSocketSubject({
+      url: `${environment.wsUrl}`,
+      // The server encodes each broadcast once and sends it to everyone in the
+      // game as a binary frame, so we need to decode those before parsing the JSON.
+      binaryType: 'arraybuffer',
+      deserializer: (event: MessageEvent) => JSON.parse(
+        typeof event.data === 'string' ? event.data : this.decoder.decode(event.data)
+      ),
+    });
     this.socket$.subscribe({
       next: (message) => this.handleMessage(message),
       error: (err) => console.error('WebSocket error:', err),
@@ -7,7 +7,6 @@ import { MatInputModule } from '@angular/material/input';
 import { GameService } from '../game/game.service';
 import { MatSnackBar } from '@angular/material/snack-bar';
 import { Router } from '@angular/router';
-import { WebSocketService } from '../game/web-socket.service';
 
 @Component({
   selector: 'app-join',
@@ -60,7 +59,6 @@ export class JoinComponent {
   };
 
   constructor(
-    private webSocketService: WebSocketService,
     private gameService: GameService,
     private snackBar: MatSnackBar,
     private router: Router) {
@@ -113,19 +111,10 @@ export class JoinComponent {
         }
       },
       complete: () => {
-        this.onPlayerAdd();
+        // The server tells everybody following the game that we joined,
+        // so there's nothing for us to announce ourselves.
         this.router.navigate([`/games/${this.joinGameForm.value.gameId}`]);
       }
     });
   }
-
-  onPlayerAdd() {
-    const message = {
-      type: 'ADD_PLAYER',
-      gameId: this.joinGameForm.value.gameId,
-      playerName: this.joinGameForm.value.playerName,
-    };
-
-    this.webSocketService.sendMessage(message);
-  }
 }
@@ -3,6 +3,7 @@ import { Observable, of } from 'rxjs';
 import { AppComponent } from 'src/app/app.component';
 import { Game } from '../app/game/game';
 import { GameService } from '../app/game/game.service';
+import { GameDeltas } from '../app/game/game-delta';
 
 /**
  * A "mock" version of the `UserService` that can be used to test components
@@ -46,4 +47,10 @@ export class MockGameService extends GameService {
       return of(null);
     }
   }
+
+  // skipcq: JS-0105
+  getDeltas(id: string, since: number): Observable<GameDeltas> {
+    // There are never any changes to the test games
+    return of({ version: since, deltas: [] });
+  }
 }
@@ -0,0 +1,67 @@
+package umm3601;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.javalin.websocket.WsContext;
+
+/**
+ * Benchmarks for broadcasting a change to a game to everybody following
+ * it, for games of different sizes.
+ *
+ * The clients are (stub-only, so they don't record their calls) mocks,
+ * and the clients' queues are drained right away on the broadcasting
+ * thread, so each broadcast includes encoding the message once and then
+ * handing it to (and "sending" it to) every client in the room.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BroadcastBenchmark {
+
+  private static final String GAME_ID = "588935f57546a2daea44de7c";
+  private static final int QUEUE_CAPACITY = 64;
+  // About what a game event looks like
+  private static final String MESSAGE = "{\"type\":\"PLAYER_JOINED\",\"gameId\":\"" + GAME_ID + "\",\"version\":7,"
+    + "\"patch\":[{\"op\":\"add\",\"path\":\"/players/-\",\"value\":\"Kristin\"}],\"data\":{\"player\":\"Kristin\"}}";
+
+  // How many clients are following the game (set by JMH, so it has to be public)
+  @Param({"1", "10", "100", "1000"})
+  @SuppressWarnings({"VisibilityModifier"})
+  public int clients;
+
+  private GameRooms gameRooms;
+
+  /**
+   * Put `clients` clients in the game's room.
+   */
+  @Setup
+  public void setup() {
+    gameRooms = new GameRooms(QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.DROP_OLDEST, Runnable::run,
+      new WebSocketMetrics());
+    for (int i = 0; i < clients; i++) {
+      gameRooms.subscribe(GAME_ID, mock(WsContext.class, withSettings().stubOnly()));
+    }
+    // Somebody following a different game, who shouldn't cost anything
+    gameRooms.subscribe("another game", mock(WsContext.class, withSettings().stubOnly()));
+  }
+
+  /**
+   * Broadcast one message to everybody following the game.
+   */
+  @Benchmark
+  public void broadcast() {
+    gameRooms.broadcast(GAME_ID, MESSAGE);
+  }
+}
@@ -0,0 +1,134 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.javalin.json.JavalinJackson;
+import umm3601.game.Game;
+import umm3601.game.Response;
+import umm3601.game.Round;
+import umm3601.user.User;
+import umm3601.user.UserByCompany;
+import umm3601.user.UserIdName;
+
+/**
+ * Benchmarks for turning the things we send back most often into JSON,
+ * with the same mapper `ctx.json(...)` uses.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonBenchmark {
+
+  // How many players are in the game (and responded to its round), and
+  // how many users work for each company. JMH sets this from outside the
+  // class, so it has to be public.
+  @Param({"4", "40"})
+  @SuppressWarnings({"VisibilityModifier"})
+  public int size;
+
+  private final JavalinJackson jsonMapper = new JavalinJackson();
+
+  private User user;
+  private Game game;
+  private List<UserByCompany> usersByCompany;
+
+  /**
+   * Make a user, a game with a round in progress, and users grouped
+   * by (three) companies, to serialize.
+   */
+  @Setup
+  public void setup() {
+    user = user(0);
+
+    game = new Game();
+    game._id = "588935f57546a2daea44de7c";
+    game.joincode = "1234";
+    game.players = new String[size];
+    game.round = new Round();
+    game.round.gameId = game._id;
+    game.round.number = 1;
+    game.round.judge = "Player 0";
+    game.round.prompt = "The best thing about Morris is ____";
+    game.round.state = Round.State.LOCKED;
+    game.round.responses = new Response[size];
+    for (int i = 0; i < size; i++) {
+      game.players[i] = "Player " + i;
+      Response response = new Response();
+      response.gameId = game._id;
+      response.round = 1;
+      response.player = game.players[i];
+      response.text = "Response number " + i;
+      game.round.responses[i] = response;
+    }
+    game.round.players = game.players;
+
+    usersByCompany = new ArrayList<>();
+    for (String company : List.of("IBM", "OHMNET", "UMM")) {
+      UserByCompany group = new UserByCompany();
+      group._id = company;
+      group.users = new ArrayList<>();
+      for (int i = 0; i < size; i++) {
+        UserIdName idName = new UserIdName();
+        idName._id = "588935f57546a2daea44de7" + (i % 10);
+        idName.name = "User " + i;
+        group.users.add(idName);
+      }
+      group.count = size;
+      usersByCompany.add(group);
+    }
+  }
+
+  private static User user(int i) {
+    User user = new User();
+    user._id = "588935f57546a2daea44de7" + (i % 10);
+    user.name = "User " + i;
+    user.age = 25;
+    user.company = "OHMNET";
+    user.email = "user" + i + "@example.com";
+    user.avatar = "https://gravatar.com/avatar/8c9616d6cc5de638ea6920fb5d65fc6c?d=identicon";
+    user.role = "viewer";
+    return user;
+  }
+
+  /**
+   * Serialize one user, as for `/api/users/{id}`.
+   *
+   * @return the JSON
+   */
+  @Benchmark
+  public String user() {
+    return jsonMapper.toJsonString(user, User.class);
+  }
+
+  /**
+   * Serialize a game, as for `/api/games/{id}`.
+   *
+   * @return the JSON
+   */
+  @Benchmark
+  public String game() {
+    return jsonMapper.toJsonString(game, Game.class);
+  }
+
+  /**
+   * Serialize users grouped by company, as for `/api/usersByCompany`.
+   *
+   * @return the JSON
+   */
+  @Benchmark
+  public String usersByCompany() {
+    return jsonMapper.toJsonString(usersByCompany, List.class);
+  }
+}
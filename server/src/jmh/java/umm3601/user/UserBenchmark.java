@@ -0,0 +1,94 @@
+package umm3601.user;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks for the work `UserController` does on every request before
+ * (or instead of) asking the database: turning a request's query into a
+ * MongoDB filter and sorting order, and making new users' avatars.
+ */
+@SuppressWarnings({ "MagicNumber" })
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UserBenchmark {
+
+  private static final String EMAIL = "kristin@example.com";
+
+  // A request for `/api/users?age=25&company=OHM&role=admin&sortby=name&sortorder=desc`
+  private final UserQuery everyFilter = new UserQuery(25, "OHM", "admin", "name", true);
+  // A request for `/api/users`
+  private final UserQuery noFilters = new UserQuery(null, null, null, "name", false);
+
+  private UserController userController;
+
+  /**
+   * Make a controller to call, backed by (empty) in-memory users,
+   * since none of these benchmarks touch the users themselves.
+   */
+  @Setup
+  public void setup() {
+    userController = new UserController(new InMemoryUserRepository());
+  }
+
+  /**
+   * Build the filter for a request that uses every filter.
+   *
+   * @return the filter
+   */
+  @Benchmark
+  public Bson filterWithEveryField() {
+    return MongoUserRepository.filter(everyFilter);
+  }
+
+  /**
+   * Build the filter for a request that doesn't filter at all.
+   *
+   * @return the filter
+   */
+  @Benchmark
+  public Bson filterWithNoFields() {
+    return MongoUserRepository.filter(noFilters);
+  }
+
+  /**
+   * Get the (pre-built) sorting order for a request.
+   *
+   * @return the sorting order
+   */
+  @Benchmark
+  public Bson sortingOrder() {
+    return MongoUserRepository.keysetOrder(everyFilter.sortBy(), everyFilter.descending());
+  }
+
+  /**
+   * Hash an email address.
+   *
+   * @return the hash
+   * @throws NoSuchAlgorithmException if there's no MD5 (there always is)
+   */
+  @Benchmark
+  public String md5() throws NoSuchAlgorithmException {
+    return userController.md5(EMAIL);
+  }
+
+  /**
+   * Make the avatar URL for an email address.
+   *
+   * @return the URL
+   */
+  @Benchmark
+  public String generateAvatar() {
+    return userController.generateAvatar(EMAIL);
+  }
+}
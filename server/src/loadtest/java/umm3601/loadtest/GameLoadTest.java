@@ -0,0 +1,310 @@
+package umm3601.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+import umm3601.GameEventBroadcaster;
+import umm3601.GameRooms;
+import umm3601.MongoPoolMetrics;
+import umm3601.OutboundQueue;
+import umm3601.Server;
+import umm3601.WebSocketMetrics;
+import umm3601.game.GameController;
+import umm3601.game.GameEventPublisher;
+import umm3601.game.InMemoryGameRepository;
+import umm3601.game.InMemoryRoundStore;
+import umm3601.game.RoundDeadlines;
+
+/**
+ * Simulates a class full of people playing at once, to see how the server
+ * holds up (e.g., to decide how big a droplet we need before an event).
+ *
+ * This starts the real `Server` (on a free port) in this process, and then,
+ * all at once, has each of a number of hosts create a game (`POST /api/games`)
+ * and open a web socket following it, after which each of that game's players
+ * opens a web socket of their own and joins the game
+ * (`PUT /api/games/{id}/{player}`). Every join is broadcast to everybody
+ * following the game, so each join is delivered to every one of its web sockets.
+ *
+ * At the end it prints the median, 99th, and 99.9th percentile latencies of
+ * creating games, connecting web sockets, and joining games, and of the
+ * broadcasts: the time from a player asking to join to each web socket in
+ * the game hearing about it.
+ *
+ * Run it with `./gradlew gameLoadTest`. It's configured with these environment
+ * variables:
+ *
+ *   - `LOADTEST_HOSTS`: how many games are created (default 50)
+ *   - `LOADTEST_PLAYERS`: how many players join each game (default 10)
+ *   - `LOADTEST_TIMEOUT_SECONDS`: how long to wait for everything to be
+ *     delivered (default 60)
+ *   - `DATA_STORE`: `memory` (the default) keeps the games in memory, so
+ *     no database is needed; `mongo` keeps them in MongoDB
+ *   - `MONGO_ADDR`: where MongoDB is (`localhost` by default), if it's used;
+ *     the test uses (and empties) the `loadtest` database
+ */
+public final class GameLoadTest {
+
+  private static final String DATABASE_NAME = "loadtest";
+  private static final int QUEUE_CAPACITY = 64;
+  private static final Duration CACHE_TIME_TO_LIVE = Duration.ofHours(2);
+  private static final int CACHE_MAX_GAMES = 100_000;
+  private static final String PLAYER_JOINED = "PLAYER_JOINED";
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final int hosts;
+  private final int players;
+  private final Duration timeout;
+  private final GameRooms gameRooms;
+  private final HttpClient http;
+  private final String baseUri;
+  private final String webSocketUri;
+
+  private final Latencies createGame = new Latencies("create game");
+  private final Latencies connectWebSocket = new Latencies("connect web socket");
+  private final Latencies joinGame = new Latencies("join game");
+  private final Latencies broadcast = new Latencies("broadcast delivery");
+  private final AtomicLong failures = new AtomicLong();
+
+  // When each player asked to join their game, keyed by game id and player
+  private final Map<String, Long> joinsSent = new ConcurrentHashMap<>();
+  // Counts down once for every web socket that hears about every join
+  private final CountDownLatch deliveries;
+  private final List<WebSocket> webSockets = Collections.synchronizedList(new ArrayList<>());
+
+  private GameLoadTest(int hosts, int players, Duration timeout, GameRooms gameRooms, HttpClient http, int port) {
+    this.hosts = hosts;
+    this.players = players;
+    this.timeout = timeout;
+    this.gameRooms = gameRooms;
+    this.http = http;
+    this.baseUri = "http://localhost:" + port;
+    this.webSocketUri = "ws://localhost:" + port + "/api/websocket?gameId=";
+    this.deliveries = new CountDownLatch(hosts * players * (players + 1));
+  }
+
+  /**
+   * Start the server, run the load test against it, and print the results.
+   *
+   * @param args ignored
+   * @throws InterruptedException if we're interrupted while waiting for the players
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int hosts = Integer.parseInt(getEnvOrDefault("LOADTEST_HOSTS", "50"));
+    int players = Integer.parseInt(getEnvOrDefault("LOADTEST_PLAYERS", "10"));
+    Duration timeout = Duration.ofSeconds(Long.parseLong(getEnvOrDefault("LOADTEST_TIMEOUT_SECONDS", "60")));
+    boolean useMongo = "mongo".equalsIgnoreCase(getEnvOrDefault("DATA_STORE", "memory"));
+
+    GameRooms gameRooms = new GameRooms(QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.DROP_OLDEST,
+      Executors.newVirtualThreadPerTaskExecutor(), new WebSocketMetrics());
+    GameEventPublisher eventPublisher = new GameEventBroadcaster(gameRooms, MAPPER);
+    MongoPoolMetrics poolMetrics = new MongoPoolMetrics();
+    MongoClient mongoClient = null;
+    GameController gameController;
+    if (useMongo) {
+      // With the server's own settings (the same `MONGO_POOL_*`, timeouts, and read preference)
+      mongoClient = MongoClients.create(Server.mongoClientSettings(getEnvOrDefault("MONGO_ADDR", "localhost"),
+        poolMetrics));
+      MongoDatabase database = mongoClient.getDatabase(DATABASE_NAME);
+      database.drop();
+      gameController = new GameController(database, eventPublisher, CACHE_TIME_TO_LIVE, CACHE_MAX_GAMES);
+    } else {
+      gameController = new GameController(new InMemoryGameRepository(), new InMemoryRoundStore(), eventPublisher,
+        CACHE_TIME_TO_LIVE, CACHE_MAX_GAMES, RoundDeadlines.NONE);
+    }
+
+    // The server closes the MongoDB client (if there is one) when it stops
+    Server server = new Server(mongoClient, new Controller[] {gameController}, gameRooms, true, poolMetrics);
+    Javalin javalin = server.startServer(0);
+    try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient http = HttpClient.newBuilder().executor(clientThreads).build()) {
+      GameLoadTest loadTest = new GameLoadTest(hosts, players, timeout, gameRooms, http, javalin.port());
+      System.out.printf("%d games with %d players each, games kept in %s%n",
+        hosts, players, useMongo ? "MongoDB" : "memory");
+      long start = System.nanoTime();
+      loadTest.run();
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      loadTest.report(elapsedMillis);
+      if (useMongo) {
+        System.out.println("MongoDB pool: " + poolMetrics.snapshot());
+      }
+    } finally {
+      javalin.stop();
+    }
+  }
+
+  /**
+   * Have every host set up their game at once, and then wait for every
+   * join to be delivered to everybody in the game (or for the timeout).
+   */
+  private void run() throws InterruptedException {
+    try (ExecutorService hostThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < hosts; i++) {
+        hostThreads.submit(() -> {
+          try {
+            hostGame();
+          } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+          }
+          return null;
+        });
+      }
+    }
+    deliveries.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    for (WebSocket webSocket : webSockets) {
+      webSocket.abort();
+    }
+  }
+
+  /**
+   * Create a game, connect everybody's web sockets to it, and then have
+   * all the players join it at once.
+   */
+  private void hostGame() throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    HttpResponse<String> created = http.send(
+      HttpRequest.newBuilder(URI.create(baseUri + "/api/games"))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofString("{}"))
+        .build(),
+      HttpResponse.BodyHandlers.ofString());
+    createGame.record(start, System.nanoTime());
+    if (!succeeded(created, HttpStatus.CREATED)) {
+      return;
+    }
+    String gameId = MAPPER.readTree(created.body()).path("id").asText();
+
+    // The host, and each of the players, follows the game
+    for (int i = 0; i <= players; i++) {
+      long connecting = System.nanoTime();
+      webSockets.add(http.newWebSocketBuilder()
+        .buildAsync(URI.create(webSocketUri + gameId), new DeliveryListener())
+        .join());
+      connectWebSocket.record(connecting, System.nanoTime());
+    }
+    // The server subscribes each web socket as it connects, which can finish
+    // just after our side of the connection does, so wait until it has (since
+    // the server is right here, we can just ask it).
+    long deadline = System.nanoTime() + timeout.toNanos();
+    while (gameRooms.members(gameId).size() <= players && System.nanoTime() < deadline) {
+      Thread.sleep(1);
+    }
+
+    try (ExecutorService playerThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < players; i++) {
+        String player = "Player" + i;
+        playerThreads.submit(() -> {
+          try {
+            join(gameId, player);
+          } catch (IOException | RuntimeException e) {
+            failures.incrementAndGet();
+          }
+          return null;
+        });
+      }
+    }
+  }
+
+  private void join(String gameId, String player) throws IOException, InterruptedException {
+    long start = System.nanoTime();
+    joinsSent.put(gameId + "/" + player, start);
+    HttpResponse<Void> joined = http.send(
+      HttpRequest.newBuilder(URI.create(baseUri + "/api/games/" + gameId + "/" + player))
+        .PUT(HttpRequest.BodyPublishers.noBody())
+        .build(),
+      HttpResponse.BodyHandlers.discarding());
+    joinGame.record(start, System.nanoTime());
+    succeeded(joined, HttpStatus.OK);
+  }
+
+  private boolean succeeded(HttpResponse<?> response, HttpStatus expected) {
+    boolean ok = response.statusCode() == expected.getCode();
+    if (!ok) {
+      failures.incrementAndGet();
+    }
+    return ok;
+  }
+
+  private void report(long elapsedMillis) {
+    System.out.println(Latencies.header());
+    for (Latencies latencies : List.of(createGame, connectWebSocket, joinGame, broadcast)) {
+      System.out.println(latencies.summary());
+    }
+    long expected = (long) hosts * players * (players + 1);
+    System.out.printf("%d of %d broadcasts delivered, %d failed requests, in %d ms%n",
+      expected - deliveries.getCount(), expected, failures.get(), elapsedMillis);
+    System.out.println("Web sockets: " + gameRooms.metrics().snapshot());
+  }
+
+  private static String getEnvOrDefault(String envName, String defaultValue) {
+    return System.getenv().getOrDefault(envName, defaultValue);
+  }
+
+  /**
+   * Listens to one web socket, and records how long each join took to
+   * get to it. The server sends its broadcasts as binary frames, which
+   * may come in more than one piece.
+   */
+  private final class DeliveryListener implements WebSocket.Listener {
+    private final ByteArrayOutputStream message = new ByteArrayOutputStream();
+
+    @Override
+    public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+      byte[] bytes = new byte[data.remaining()];
+      data.get(bytes);
+      message.writeBytes(bytes);
+      if (last) {
+        long received = System.nanoTime();
+        delivered(message.toByteArray(), received);
+        message.reset();
+      }
+      webSocket.request(1);
+      return null;
+    }
+
+    private void delivered(byte[] json, long received) {
+      JsonNode event;
+      try {
+        event = MAPPER.readTree(json);
+      } catch (IOException e) {
+        failures.incrementAndGet();
+        return;
+      }
+      if (!PLAYER_JOINED.equals(event.path("type").asText())) {
+        return;
+      }
+      Long sent = joinsSent.get(event.path("gameId").asText() + "/" + event.path("data").path("player").asText());
+      if (sent != null) {
+        broadcast.record(sent, received);
+        deliveries.countDown();
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package umm3601.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * A record of how long each of a (large) number of things took, so we can
+ * find out how long the median, and the slowest 1% and 0.1%, of them took.
+ *
+ * Everything is kept (as microseconds), rather than bucketed into a
+ * histogram, since a load test records at most a few million of them.
+ * Many threads can record at once.
+ */
+final class Latencies {
+
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final double NANOS_PER_MICRO = 1000.0;
+  private static final double MICROS_PER_MILLI = 1000.0;
+  private static final double P50 = 0.5;
+  private static final double P99 = 0.99;
+  private static final double P999 = 0.999;
+
+  private final String name;
+  private long[] micros = new long[INITIAL_CAPACITY];
+  private int count;
+
+  /**
+   * Construct an (empty) record of latencies.
+   *
+   * @param name what is being timed, for the report
+   */
+  Latencies(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Record how long one thing took.
+   *
+   * @param startNanos when it started, from `System.nanoTime()`
+   * @param endNanos when it finished, from `System.nanoTime()`
+   */
+  void record(long startNanos, long endNanos) {
+    long elapsed = Math.round((endNanos - startNanos) / NANOS_PER_MICRO);
+    synchronized (this) {
+      if (count == micros.length) {
+        micros = Arrays.copyOf(micros, count * 2);
+      }
+      micros[count++] = elapsed;
+    }
+  }
+
+  /**
+   * Get how many latencies have been recorded.
+   *
+   * @return the number of latencies
+   */
+  synchronized int count() {
+    return count;
+  }
+
+  /**
+   * Summarize the latencies as one line of a report: the count, the median,
+   * the 99th and 99.9th percentiles, and the maximum, in milliseconds.
+   *
+   * @return the summary
+   */
+  String summary() {
+    long[] sorted;
+    synchronized (this) {
+      sorted = Arrays.copyOf(micros, count);
+    }
+    Arrays.sort(sorted);
+    return String.format("%-20s %9d %10.2f %10.2f %10.2f %10.2f",
+      name, sorted.length,
+      percentile(sorted, P50), percentile(sorted, P99), percentile(sorted, P999),
+      sorted.length == 0 ? 0 : sorted[sorted.length - 1] / MICROS_PER_MILLI);
+  }
+
+  /**
+   * The header line for the summaries.
+   *
+   * @return the header
+   */
+  static String header() {
+    return String.format("%-20s %9s %10s %10s %10s %10s", "", "count", "p50 ms", "p99 ms", "p999 ms", "max ms");
+  }
+
+  // The nearest-rank percentile of some sorted latencies, in milliseconds
+  private static double percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(fraction * sorted.length);
+    return sorted[Math.max(rank, 1) - 1] / MICROS_PER_MILLI;
+  }
+}
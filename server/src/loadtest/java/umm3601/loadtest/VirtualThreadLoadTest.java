@@ -0,0 +1,182 @@
+package umm3601.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+import io.javalin.Javalin;
+import io.javalin.http.HttpStatus;
+import umm3601.user.UserController;
+
+/**
+ * Compares how many requests a second the server can handle with and
+ * without virtual threads, when MongoDB is slow to answer.
+ *
+ * For each mode, this starts a Javalin server (on a free port) with the
+ * real `UserController`, backed by a MongoDB client that waits an extra
+ * few milliseconds before every command, and then has lots of clients
+ * ask for `/api/users` over and over for a while. With Jetty's platform
+ * threads, the number of requests in progress at once is capped by the
+ * size of its thread pool, so the throughput is too; with virtual threads
+ * it isn't.
+ *
+ * Run it with `./gradlew loadTest`. It's configured with these environment
+ * variables:
+ *
+ *   - `MONGO_ADDR`: where MongoDB is (`localhost` by default); the test
+ *     uses (and replaces the users in) the `loadtest` database
+ *   - `LOADTEST_MONGO_LATENCY_MS`: the extra wait before each command (default 50)
+ *   - `LOADTEST_CLIENTS`: how many clients make requests at once (default 1000)
+ *   - `LOADTEST_SECONDS`: how long to run each mode for (default 10)
+ */
+public final class VirtualThreadLoadTest {
+
+  private static final String DATABASE_NAME = "loadtest";
+  private static final int USERS = 20;
+  // How much longer than the run itself to wait for the last requests to finish
+  private static final long GRACE_SECONDS = 30;
+  private static final double MILLIS_PER_SECOND = 1000.0;
+
+  private VirtualThreadLoadTest() {
+  }
+
+  /**
+   * Run the load test, once with platform threads and once with virtual
+   * threads, and print the throughput of each.
+   *
+   * @param args ignored
+   * @throws InterruptedException if we're interrupted while waiting for the clients
+   */
+  public static void main(String[] args) throws InterruptedException {
+    String mongoAddr = getEnvOrDefault("MONGO_ADDR", "localhost");
+    long latencyMillis = Long.parseLong(getEnvOrDefault("LOADTEST_MONGO_LATENCY_MS", "50"));
+    int clients = Integer.parseInt(getEnvOrDefault("LOADTEST_CLIENTS", "1000"));
+    Duration duration = Duration.ofSeconds(Long.parseLong(getEnvOrDefault("LOADTEST_SECONDS", "10")));
+
+    try (MongoClient mongoClient = slowMongoClient(mongoAddr, latencyMillis, clients)) {
+      MongoDatabase database = mongoClient.getDatabase(DATABASE_NAME);
+      seedUsers(database);
+      System.out.printf("%d clients, %d ms of extra MongoDB latency, %d s per mode%n",
+          clients, latencyMillis, duration.toSeconds());
+      for (boolean useVirtualThreads : new boolean[] {false, true}) {
+        Result result = run(database, useVirtualThreads, clients, duration);
+        System.out.printf("virtual threads %-5s  %8.1f requests/s  (%d ok, %d failed)%n",
+            useVirtualThreads, result.throughput(duration), result.ok(), result.failed());
+      }
+    }
+  }
+
+  /**
+   * Make a MongoDB client that waits before every command it sends. The wait
+   * happens on the thread making the request (the listener is called on that
+   * thread), just like waiting on a slow database would. The connection pool
+   * is made big enough that it isn't what limits the throughput.
+   */
+  private static MongoClient slowMongoClient(String mongoAddr, long latencyMillis, int clients) {
+    CommandListener latency = new CommandListener() {
+      @Override
+      public void commandStarted(CommandStartedEvent event) {
+        try {
+          Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    return MongoClients.create(MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .applyToConnectionPoolSettings(builder -> builder.maxSize(clients))
+        .addCommandListener(latency)
+        .uuidRepresentation(UuidRepresentation.STANDARD)
+        .build());
+  }
+
+  private static void seedUsers(MongoDatabase database) {
+    database.getCollection("users").drop();
+    List<Document> users = new ArrayList<>();
+    for (int i = 0; i < USERS; i++) {
+      users.add(new Document("name", "User " + i)
+          .append("age", i)
+          .append("company", "Company " + (i % 2))
+          .append("email", "user" + i + "@example.com")
+          .append("role", "viewer")
+          .append("avatar", "https://gravatar.com/avatar/" + i));
+    }
+    database.getCollection("users").insertMany(users);
+  }
+
+  /**
+   * Start a server in the given mode, and have `clients` clients make
+   * requests to it (each waiting for its last response before making
+   * the next request) for `duration`.
+   */
+  private static Result run(MongoDatabase database, boolean useVirtualThreads, int clients, Duration duration)
+      throws InterruptedException {
+    Javalin server = Javalin.create(config -> config.useVirtualThreads = useVirtualThreads);
+    new UserController(database).addRoutes(server);
+    server.start(0);
+    AtomicLong ok = new AtomicLong();
+    AtomicLong failed = new AtomicLong();
+    try (ExecutorService clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+        HttpClient http = HttpClient.newBuilder().executor(clientThreads).build()) {
+      HttpRequest request = HttpRequest.newBuilder(
+          URI.create("http://localhost:" + server.port() + "/api/users")).build();
+      long end = System.nanoTime() + duration.toNanos();
+      for (int i = 0; i < clients; i++) {
+        clientThreads.submit(() -> {
+          while (System.nanoTime() < end) {
+            try {
+              HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+              (response.statusCode() == HttpStatus.OK.getCode() ? ok : failed).incrementAndGet();
+            } catch (IOException e) {
+              failed.incrementAndGet();
+            }
+          }
+          return null;
+        });
+      }
+      clientThreads.shutdown();
+      clientThreads.awaitTermination(duration.toSeconds() + GRACE_SECONDS, TimeUnit.SECONDS);
+    } finally {
+      server.stop();
+    }
+    return new Result(ok.get(), failed.get());
+  }
+
+  private static String getEnvOrDefault(String envName, String defaultValue) {
+    return System.getenv().getOrDefault(envName, defaultValue);
+  }
+
+  /**
+   * How many requests succeeded and failed in one run.
+   *
+   * @param ok the number of requests that got a 200 back
+   * @param failed the number of requests that didn't
+   */
+  private record Result(long ok, long failed) {
+    double throughput(Duration duration) {
+      return ok / (duration.toMillis() / MILLIS_PER_SECOND);
+    }
+  }
+}
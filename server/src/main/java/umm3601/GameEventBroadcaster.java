@@ -0,0 +1,40 @@
+package umm3601;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import umm3601.game.GameEvent;
+import umm3601.game.GameEventPublisher;
+
+/**
+ * Publishes game events by broadcasting them (as JSON) to the
+ * web socket clients following the game each event is about.
+ */
+public class GameEventBroadcaster implements GameEventPublisher {
+
+  private final GameRooms gameRooms;
+  private final ObjectMapper mapper;
+
+  /**
+   * Construct a broadcaster of game events.
+   *
+   * @param gameRooms the registry of who is following which game
+   * @param mapper used to turn the events into JSON
+   */
+  public GameEventBroadcaster(GameRooms gameRooms, ObjectMapper mapper) {
+    this.gameRooms = gameRooms;
+    this.mapper = mapper;
+  }
+
+  @Override
+  public void publish(GameEvent event) {
+    // Serialize the event once, no matter how many people are following the game
+    String json;
+    try {
+      json = mapper.writeValueAsString(event);
+    } catch (JsonProcessingException e) {
+      throw new IllegalArgumentException("Couldn't turn " + event + " into JSON", e);
+    }
+    gameRooms.broadcast(event.gameId, json);
+  }
+}
@@ -0,0 +1,176 @@
+package umm3601;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import io.javalin.websocket.WsContext;
+
+/**
+ * A registry of the web socket clients that are following each game.
+ *
+ * Every web socket client can be subscribed to (at most) one game at a time,
+ * and the clients following a game make up that game's "room". Broadcasts
+ * are sent only to the members of the room for the game they're about,
+ * so the cost of a broadcast grows with the number of people in that game
+ * rather than with the total number of connected clients.
+ *
+ * Each member of a room has its own `OutboundQueue`, so a broadcast just
+ * hands the message to each member's queue and returns; the actual sends
+ * happen asynchronously and a slow client can't hold up anybody else.
+ *
+ * A broadcast message is encoded (as UTF-8) exactly once, and that single
+ * read-only buffer is shared by every recipient and sent as a binary frame,
+ * rather than having each send re-encode the same text.
+ */
+public class GameRooms {
+
+  // The members of each room (and their outbound queues), keyed by game
+  // id. Rooms are created when their first member subscribes and removed
+  // when their last member leaves, so this never holds empty rooms.
+  private final Map<String, Map<WsContext, OutboundQueue>> rooms = new ConcurrentHashMap<>();
+
+  // The game each client is currently following. This lets us find
+  // (and clean up) a client's room when it disconnects without having
+  // to search through every room.
+  private final Map<WsContext, String> gameOfClient = new ConcurrentHashMap<>();
+
+  private final int queueCapacity;
+  private final OutboundQueue.OverflowPolicy overflowPolicy;
+  private final Executor senderExecutor;
+  private final WebSocketMetrics metrics;
+
+  /**
+   * Construct an (initially empty) set of game rooms.
+   *
+   * @param queueCapacity how many messages can be waiting for each client
+   * @param overflowPolicy what to do when a client's queue is full
+   * @param senderExecutor where the clients' queues are drained
+   * @param metrics where the clients' queues count what they send
+   */
+  public GameRooms(int queueCapacity, OutboundQueue.OverflowPolicy overflowPolicy, Executor senderExecutor,
+      WebSocketMetrics metrics) {
+    this.queueCapacity = queueCapacity;
+    this.overflowPolicy = overflowPolicy;
+    this.senderExecutor = senderExecutor;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Subscribe a client to the room for the given game. A client can only
+   * follow one game, so this moves the client (and anything waiting in its
+   * outbound queue) out of any room it was previously in.
+   *
+   * @param gameId the id of the game the client wants to follow
+   * @param client the web socket client
+   */
+  public void subscribe(String gameId, WsContext client) {
+    String previousGameId = gameOfClient.put(client, gameId);
+    OutboundQueue existingQueue = null;
+    if (previousGameId != null && !previousGameId.equals(gameId)) {
+      existingQueue = leaveRoom(previousGameId, client);
+    }
+    OutboundQueue queue = existingQueue != null
+      ? existingQueue
+      : new OutboundQueue(client, queueCapacity, overflowPolicy, senderExecutor, metrics);
+    // Using `compute` (rather than `computeIfAbsent` followed by `put`) means
+    // that adding a member can't race with `leaveRoom` removing the room
+    // because it just became empty.
+    rooms.compute(gameId, (id, members) -> {
+      Map<WsContext, OutboundQueue> room = members == null ? new ConcurrentHashMap<>() : members;
+      room.putIfAbsent(client, queue);
+      return room;
+    });
+  }
+
+  /**
+   * Remove a client from whatever room it is in, e.g., because it disconnected.
+   * Anything still waiting to be sent to the client is thrown away.
+   *
+   * @param client the web socket client
+   */
+  public void unsubscribe(WsContext client) {
+    String gameId = gameOfClient.remove(client);
+    if (gameId != null) {
+      OutboundQueue queue = leaveRoom(gameId, client);
+      if (queue != null) {
+        queue.close();
+      }
+    }
+  }
+
+  /**
+   * Get the clients currently following the given game.
+   *
+   * @param gameId the id of the game
+   * @return the members of that game's room (empty if nobody is following it)
+   */
+  public Set<WsContext> members(String gameId) {
+    Map<WsContext, OutboundQueue> room = rooms.get(gameId);
+    return room == null ? Set.of() : room.keySet();
+  }
+
+  /**
+   * Get the counters for the web socket traffic through these rooms.
+   *
+   * @return the web socket metrics
+   */
+  public WebSocketMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Get the number of games that currently have at least one follower.
+   *
+   * @return the number of non-empty rooms
+   */
+  public int roomCount() {
+    return rooms.size();
+  }
+
+  /**
+   * Queue a message to be sent to every client following the given game.
+   * This doesn't wait for the message to actually be sent to anyone.
+   *
+   * @param gameId the id of the game the message is about
+   * @param message the message to send
+   */
+  public void broadcast(String gameId, String message) {
+    Map<WsContext, OutboundQueue> room = rooms.get(gameId);
+    if (room == null) {
+      return;
+    }
+    ByteBuffer payload = encode(message);
+    for (OutboundQueue queue : room.values()) {
+      queue.offer(payload);
+    }
+  }
+
+  /**
+   * Encode a message once, as a read-only buffer that can be shared by
+   * all the clients it's sent to.
+   *
+   * @param message the text of the message
+   * @return the UTF-8 encoding of the message
+   */
+  static ByteBuffer encode(String message) {
+    return ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+  }
+
+  /**
+   * Remove a client from a room, removing the room if it's now empty.
+   *
+   * @return the client's outbound queue, or `null` if it wasn't in that room
+   */
+  private OutboundQueue leaveRoom(String gameId, WsContext client) {
+    OutboundQueue[] removed = new OutboundQueue[1];
+    rooms.computeIfPresent(gameId, (id, members) -> {
+      removed[0] = members.remove(client);
+      return members.isEmpty() ? null : members;
+    });
+    return removed[0];
+  }
+}
@@ -1,31 +1,74 @@
 package umm3601;
 
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoDatabase;
 
 import umm3601.game.GameController;
+import umm3601.game.GameEventPublisher;
+import umm3601.game.InMemoryGameRepository;
+import umm3601.game.InMemoryRoundStore;
+import umm3601.game.RoundDeadlines;
+import umm3601.game.RoundTimer;
+import umm3601.user.InMemoryUserRepository;
+import umm3601.user.MongoUserRepository;
 import umm3601.user.UserController;
 
 public class Main {
 
   public static void main(String[] args) {
-    // Get the MongoDB address and database name from environment variables and
-    // if they aren't set, use the defaults of "localhost" and "dev".
-    String mongoAddr = Main.getEnvOrDefault("MONGO_ADDR", "localhost");
-    String databaseName = Main.getEnvOrDefault("MONGO_DB", "dev");
+    // Each web socket client gets a bounded queue of outgoing messages. These say how
+    // many messages can be waiting for a client, and what to do with a client that
+    // falls further behind than that (`DROP_OLDEST`, `COALESCE`, or `DISCONNECT`).
+    int queueCapacity = Integer.parseInt(Main.getEnvOrDefault("WS_QUEUE_CAPACITY", "64"));
+    OutboundQueue.OverflowPolicy overflowPolicy = OutboundQueue.OverflowPolicy.valueOf(
+      Main.getEnvOrDefault("WS_OVERFLOW_POLICY", "DROP_OLDEST").toUpperCase(Locale.ROOT));
+
+    // The queues are drained on virtual threads, so a client that is slow to
+    // accept messages only ties up a (very cheap) virtual thread of its own.
+    GameRooms gameRooms = new GameRooms(queueCapacity, overflowPolicy, Executors.newVirtualThreadPerTaskExecutor(),
+      new WebSocketMetrics());
+
+    // Changes to games are pushed (as events) to everybody following the game
+    GameEventPublisher eventPublisher = new GameEventBroadcaster(gameRooms, new ObjectMapper());
+
+    // The MongoDB client counts what its connection pool is doing in `poolMetrics`.
+    MongoPoolMetrics poolMetrics = new MongoPoolMetrics();
+    MongoClient mongoClient = null;
+    final Controller[] controllers;
 
-    // Set up the MongoDB client
-    MongoClient mongoClient = Server.configureDatabase(mongoAddr);
-    // Get the database
-    MongoDatabase database = mongoClient.getDatabase(databaseName);
+    // With `DATA_STORE` set to `memory`, everything is kept in memory (and
+    // lost when the server stops), so the server can be run (and load tested)
+    // without MongoDB. Otherwise, everything is kept in MongoDB.
+    if ("memory".equalsIgnoreCase(Main.getEnvOrDefault("DATA_STORE", "mongo"))) {
+      controllers = Main.getInMemoryControllers(eventPublisher);
+    } else {
+      // Get the MongoDB address and database name from environment variables and
+      // if they aren't set, use the defaults of "localhost" and "dev".
+      String mongoAddr = Main.getEnvOrDefault("MONGO_ADDR", "localhost");
+      String databaseName = Main.getEnvOrDefault("MONGO_DB", "dev");
 
-    // The implementations of `Controller` used for the server. These will presumably
-    // be one or more controllers, each of which implements the `Controller` interface.
-    // You'll add your own controllers in `getControllers` as you create them.
-    final Controller[] controllers = Main.getControllers(database);
+      // Set up the MongoDB client
+      mongoClient = Server.configureDatabase(mongoAddr, poolMetrics);
+      // Get the database
+      MongoDatabase database = mongoClient.getDatabase(databaseName);
+
+      // The implementations of `Controller` used for the server. These will presumably
+      // be one or more controllers, each of which implements the `Controller` interface.
+      // You'll add your own controllers in `getControllers` as you create them.
+      controllers = Main.getControllers(database, eventPublisher);
+    }
+
+    // Handle requests (and web socket callbacks) on virtual threads, unless
+    // `USE_VIRTUAL_THREADS` is set to `false`
+    boolean useVirtualThreads = Boolean.parseBoolean(Main.getEnvOrDefault("USE_VIRTUAL_THREADS", "true"));
 
     // Construct the server
-    Server server = new Server(mongoClient, controllers);
+    Server server = new Server(mongoClient, controllers, gameRooms, useVirtualThreads, poolMetrics);
 
     // Start the server
     server.startServer();
@@ -52,19 +95,80 @@ public class Main {
    *
    * @param database The MongoDB database object used by the controllers
    *               to access the database.
+   * @param eventPublisher Where the controllers send events about changes to games.
    * @return An array of implementations of `Controller` for the server.
    */
-  static Controller[] getControllers(MongoDatabase database) {
+  static Controller[] getControllers(MongoDatabase database, GameEventPublisher eventPublisher) {
+    // This creates the indexes on the users, if they aren't there already. With
+    // `MONGO_EXPLAIN` set to `true`, it also logs how MongoDB would run each kind
+    // of query for users, to check that none of them have to sort every user.
+    MongoUserRepository users = new MongoUserRepository(database);
+    if (Boolean.parseBoolean(Main.getEnvOrDefault("MONGO_EXPLAIN", "false"))) {
+      users.logQueryPlans();
+    }
+
     Controller[] controllers = new Controller[] {
       // You would add additional controllers here, as you create them,
       // although you need to make sure that each of your new controllers implements
       // the `Controller` interface.
       //
       // You can also remove this UserController once you don't need it.
-      new UserController(database),
-      new GameController(database),
+      new UserController(users),
+      new GameController(
+        database,
+        eventPublisher,
+        getGameCacheTimeToLive(),
+        getGameCacheMaxGames(),
+        getRoundDeadlines()),
     };
     return controllers;
   }
 
+  /**
+   * Get the implementations of `Controller` used for the server when
+   * everything is kept in memory instead of in MongoDB.
+   *
+   * @param eventPublisher Where the controllers send events about changes to games.
+   * @return An array of implementations of `Controller` for the server.
+   */
+  static Controller[] getInMemoryControllers(GameEventPublisher eventPublisher) {
+    Controller[] controllers = new Controller[] {
+      new UserController(new InMemoryUserRepository()),
+      new GameController(
+        new InMemoryGameRepository(),
+        new InMemoryRoundStore(),
+        eventPublisher,
+        getGameCacheTimeToLive(),
+        getGameCacheMaxGames(),
+        getRoundDeadlines()),
+    };
+    return controllers;
+  }
+
+  // How long a game can go untouched before it's dropped from memory
+  private static Duration getGameCacheTimeToLive() {
+    return Duration.ofMinutes(Long.parseLong(Main.getEnvOrDefault("GAME_CACHE_TTL_MINUTES", "120")));
+  }
+
+  // The most games to hold in memory at once
+  private static int getGameCacheMaxGames() {
+    return Integer.parseInt(Main.getEnvOrDefault("GAME_CACHE_MAX_GAMES", "10000"));
+  }
+
+  /**
+   * Get how long rounds get for responses, and for judging, from the
+   * `ROUND_RESPONDING_SECONDS` and `ROUND_JUDGING_SECONDS` environment
+   * variables. Setting either of these to 0 turns that deadline off.
+   *
+   * @return the deadlines for rounds
+   */
+  static RoundDeadlines getRoundDeadlines() {
+    long responding = Long.parseLong(Main.getEnvOrDefault("ROUND_RESPONDING_SECONDS", "120"));
+    long judging = Long.parseLong(Main.getEnvOrDefault("ROUND_JUDGING_SECONDS", "120"));
+    return new RoundDeadlines(
+      RoundTimer.create(),
+      responding > 0 ? Duration.ofSeconds(responding) : null,
+      judging > 0 ? Duration.ofSeconds(judging) : null);
+  }
+
 }
@@ -0,0 +1,112 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Counters for the MongoDB connection pool(s), so we can tell whether
+ * requests are stuck waiting for a connection (e.g., when a whole class
+ * joins a game at once).
+ *
+ * The driver calls this on every check out and check in of a connection,
+ * so (like `WebSocketMetrics`) the counters are `LongAdder`s. The one
+ * exception is the number of connections in use right now, which has to
+ * be exact to track its peak. The same metrics can be shared by more than
+ * one client, in which case they're the totals across all of them.
+ */
+public class MongoPoolMetrics implements ConnectionPoolListener {
+
+  private final LongAdder connectionsCreated = new LongAdder();
+  private final LongAdder connectionsClosed = new LongAdder();
+  private final LongAdder checkOutsStarted = new LongAdder();
+  private final LongAdder checkedOut = new LongAdder();
+  private final LongAdder checkOutsFailed = new LongAdder();
+  private final LongAdder checkOutTimeouts = new LongAdder();
+  private final LongAdder waitMicros = new LongAdder();
+  private final AtomicLong maxWaitMicros = new AtomicLong();
+  private final AtomicLong inUse = new AtomicLong();
+  private final AtomicLong maxInUse = new AtomicLong();
+
+  @Override
+  public void connectionCreated(ConnectionCreatedEvent event) {
+    connectionsCreated.increment();
+  }
+
+  @Override
+  public void connectionClosed(ConnectionClosedEvent event) {
+    connectionsClosed.increment();
+  }
+
+  @Override
+  public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+    checkOutsStarted.increment();
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    checkedOut.increment();
+    recordWait(event.getElapsedTime(TimeUnit.MICROSECONDS));
+    long now = inUse.incrementAndGet();
+    maxInUse.accumulateAndGet(now, Math::max);
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    checkOutsFailed.increment();
+    if (event.getReason() == ConnectionCheckOutFailedEvent.Reason.TIMEOUT) {
+      checkOutTimeouts.increment();
+    }
+    recordWait(event.getElapsedTime(TimeUnit.MICROSECONDS));
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    inUse.decrementAndGet();
+  }
+
+  private void recordWait(long micros) {
+    waitMicros.add(micros);
+    maxWaitMicros.accumulateAndGet(micros, Math::max);
+  }
+
+  /**
+   * Get the current value of all the counters, e.g., to return as JSON.
+   * A pool that is too small shows up as `waiting` staying above zero,
+   * `inUse` (and `maxInUse`) sitting at the pool's maximum size, and the
+   * wait times (and, eventually, `checkOutTimeouts`) going up.
+   *
+   * @return a map from counter names to their current values
+   */
+  public Map<String, Long> snapshot() {
+    long started = checkOutsStarted.sum();
+    long out = checkedOut.sum();
+    long failed = checkOutsFailed.sum();
+    long finished = out + failed;
+    Map<String, Long> snapshot = new LinkedHashMap<>();
+    snapshot.put("connectionsCreated", connectionsCreated.sum());
+    snapshot.put("connectionsClosed", connectionsClosed.sum());
+    snapshot.put("connectionsOpen", connectionsCreated.sum() - connectionsClosed.sum());
+    snapshot.put("checkOutsStarted", started);
+    snapshot.put("checkedOut", out);
+    snapshot.put("checkOutsFailed", failed);
+    snapshot.put("checkOutTimeouts", checkOutTimeouts.sum());
+    snapshot.put("waiting", Math.max(0, started - finished));
+    snapshot.put("inUse", inUse.get());
+    snapshot.put("maxInUse", maxInUse.get());
+    snapshot.put("waitMicrosTotal", waitMicros.sum());
+    snapshot.put("waitMicrosMax", maxWaitMicros.get());
+    snapshot.put("waitMicrosAverage", finished == 0 ? 0 : waitMicros.sum() / finished);
+    return snapshot;
+  }
+}
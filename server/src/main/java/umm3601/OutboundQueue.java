@@ -0,0 +1,188 @@
+package umm3601;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+
+import io.javalin.websocket.WsContext;
+
+/**
+ * A bounded queue of messages waiting to be sent to a single web socket client.
+ *
+ * Messages are already-encoded, read-only `ByteBuffer`s, and are sent as
+ * binary frames. The same buffer is typically shared by the queues of
+ * every client in a game, so each send works on its own `duplicate()`
+ * of the buffer (which shares the bytes but has its own position).
+ *
+ * Messages are added with `offer()`, which never blocks; the queue is then
+ * drained on the given executor, one message at a time, in the order they
+ * were offered. Since each client has its own queue, a client on a slow or
+ * half-dead connection only holds up its own messages, and not the thread
+ * doing the broadcast or any of the other clients in the game.
+ *
+ * When a client falls far enough behind that its queue is full, what happens
+ * next is decided by the queue's `OverflowPolicy`.
+ */
+public class OutboundQueue {
+
+  /**
+   * What to do when a message is offered to a queue that is already full.
+   */
+  public enum OverflowPolicy {
+    /** Throw away the oldest waiting message to make room for the new one. */
+    DROP_OLDEST,
+    /**
+     * Throw away everything that's waiting and keep only the new message.
+     * This makes sense when the newest message supersedes the older ones,
+     * and the client can catch up on anything it missed.
+     */
+    COALESCE,
+    /** Give up on the client and close its connection. */
+    DISCONNECT
+  }
+
+  // The web socket close code for "policy violation", which is the closest
+  // standard code for "you weren't keeping up"
+  static final int POLICY_VIOLATION_CODE = 1008;
+
+  private final WsContext client;
+  private final int capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final Executor executor;
+  private final WebSocketMetrics metrics;
+
+  // Everything below is guarded by `this`
+  private final Deque<ByteBuffer> pending = new ArrayDeque<>();
+  // Is there a task on the executor currently draining this queue?
+  private boolean draining;
+  // Once a queue is closed it silently drops anything it's offered
+  private boolean closed;
+
+  /**
+   * Construct a queue of outbound messages for a client.
+   *
+   * @param client the web socket client the messages are for
+   * @param capacity how many messages can be waiting before the overflow policy kicks in
+   * @param overflowPolicy what to do when the queue is full
+   * @param executor where the queue is drained (i.e., where the actual sends happen)
+   * @param metrics where to count the frames sent to (or dropped for) the client
+   */
+  public OutboundQueue(WsContext client, int capacity, OverflowPolicy overflowPolicy, Executor executor,
+      WebSocketMetrics metrics) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("An outbound queue must have room for at least one message");
+    }
+    this.client = client;
+    this.capacity = capacity;
+    this.overflowPolicy = overflowPolicy;
+    this.executor = executor;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Queue a message to be sent to the client. This never blocks.
+   *
+   * @param message the (encoded) message to send; this won't be modified
+   */
+  public void offer(ByteBuffer message) {
+    boolean startDraining = false;
+    boolean disconnect = false;
+    int dropped = 0;
+    synchronized (this) {
+      if (closed) {
+        metrics.frameDropped();
+        return;
+      }
+      if (pending.size() >= capacity) {
+        switch (overflowPolicy) {
+          case DROP_OLDEST:
+            pending.pollFirst();
+            dropped = 1;
+            break;
+          case COALESCE:
+            dropped = pending.size();
+            pending.clear();
+            break;
+          case DISCONNECT:
+            disconnect = true;
+            break;
+          default:
+            throw new IllegalStateException("Unknown overflow policy " + overflowPolicy);
+        }
+      }
+      if (disconnect) {
+        closed = true;
+        // Everything that was waiting, plus the message we were just offered
+        dropped = pending.size() + 1;
+        pending.clear();
+      } else {
+        pending.addLast(message);
+        if (!draining) {
+          draining = true;
+          startDraining = true;
+        }
+      }
+    }
+    for (int i = 0; i < dropped; i++) {
+      metrics.frameDropped();
+    }
+    // Neither of these should happen while we're holding the lock
+    if (disconnect) {
+      client.closeSession(POLICY_VIOLATION_CODE, "Client fell too far behind");
+    } else if (startDraining) {
+      executor.execute(this::drain);
+    }
+  }
+
+  /**
+   * Stop sending messages to the client, and throw away any that are waiting.
+   */
+  public synchronized void close() {
+    closed = true;
+    pending.clear();
+  }
+
+  /**
+   * Get the number of messages waiting to be sent.
+   *
+   * @return how many messages are in the queue
+   */
+  public synchronized int size() {
+    return pending.size();
+  }
+
+  /**
+   * Has this queue been closed (and so is dropping everything it's offered)?
+   *
+   * @return whether the queue is closed
+   */
+  public synchronized boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Send waiting messages until the queue is empty. Only one drain
+   * per queue runs at a time, which keeps the messages in order.
+   */
+  private void drain() {
+    while (true) {
+      ByteBuffer next;
+      synchronized (this) {
+        next = closed ? null : pending.pollFirst();
+        if (next == null) {
+          draining = false;
+          return;
+        }
+      }
+      try {
+        client.send(next.duplicate());
+        metrics.frameSent();
+      } catch (RuntimeException e) {
+        // The connection is broken; the close handler will clean up after it,
+        // and in the meantime there's no point in trying to send it anything else.
+        close();
+      }
+    }
+  }
+}
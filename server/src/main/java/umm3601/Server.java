@@ -1,37 +1,63 @@
 package umm3601;
 
 import java.util.Arrays;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 
 import org.bson.UuidRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import io.javalin.Javalin;
 import io.javalin.http.InternalServerErrorResponse;
-import io.javalin.websocket.WsContext;
 
 /**
  * The class used to configure and start a Javalin server.
  */
 public class Server {
 
+  // Logging (rather than printing to `System.out`) means that the per-message
+  // logging below costs almost nothing unless it's turned on in `logback.xml`,
+  // and that what is logged is written out on a background thread.
+  private static final Logger LOG = LoggerFactory.getLogger(Server.class);
+
   // The port that the server should run on.
   private static final int SERVER_PORT = 4567;
 
   // How long should we wait between updating web socket information
   private static final long WEB_SOCKET_PING_INTERVAL = 5;
 
-  // What clients are connected via web sockets
+  // The query parameter (on `/api/websocket`) and message field that
+  // say which game a web socket client is interested in
+  private static final String GAME_ID_KEY = "gameId";
+
+  // The message type a client sends to start following a game
+  private static final String SUBSCRIBE_TYPE = "SUBSCRIBE";
+
+  // Used to pull the `type` and `gameId` out of incoming web socket messages
+  private static final ObjectMapper MESSAGE_MAPPER = new ObjectMapper();
+
+  // Which clients (connected via web sockets) are following which games.
   // Websocket stuff here was mostly taken from another repository (and, see more web sockets stuff):
   // https://github.com/UMM-CSci-3601-F24/it-3-mary-shellys-cool-1918-howard-frankendogs-
   // football-team/commit/877e9e4387234ee090962fb6ccd28fa25ac1e94a
-  private static Set<WsContext> connectedClients = ConcurrentHashMap.newKeySet();
+  private final GameRooms gameRooms;
+
+  // Whether Javalin (Jetty) should handle requests and web socket
+  // callbacks on virtual threads, rather than its pool of platform threads
+  private final boolean useVirtualThreads;
+
+  // What the MongoDB connection pools are up to
+  private final MongoPoolMetrics poolMetrics;
 
   // The `mongoClient` field is used to access the MongoDB
   private final MongoClient mongoClient;
@@ -44,11 +70,19 @@ public class Server {
    * Construct a `Server` object that we'll use (via `startServer()`) to configure
    * and start the server.
    *
-   * @param mongoClient The MongoDB client object used to access to the database
+   * @param mongoClient The MongoDB client object used to access to the database,
+   *   or `null` if the server is running without MongoDB
    * @param controllers The implementations of `Controller` used for this server
+   * @param gameRooms The registry of which web socket clients are following which games
+   * @param useVirtualThreads Whether to handle requests (and web socket callbacks) on virtual threads
+   * @param poolMetrics The counters for the MongoDB connection pools
    */
-  public Server(MongoClient mongoClient, Controller[] controllers) {
+  public Server(MongoClient mongoClient, Controller[] controllers, GameRooms gameRooms, boolean useVirtualThreads,
+      MongoPoolMetrics poolMetrics) {
     this.mongoClient = mongoClient;
+    this.poolMetrics = poolMetrics;
+    this.gameRooms = gameRooms;
+    this.useVirtualThreads = useVirtualThreads;
     // This is what is known as a "defensive copy". We make a copy of
     // the array so that if the caller modifies the array after passing
     // it in, we don't have to worry about it. If we didn't do this,
@@ -72,21 +106,66 @@ public class Server {
    * This sets both the `mongoClient` and `database` fields
    * so they can be used when setting up the Javalin server.
    * @param mongoAddr The address of the MongoDB server
+   * @param poolMetrics Where to count what the client's connection pool is up to
    *
    * @return The configured MongoDB client object
    */
-  static MongoClient configureDatabase(String mongoAddr) {
+  static MongoClient configureDatabase(String mongoAddr, MongoPoolMetrics poolMetrics) {
     // Setup the MongoDB client object with the information we set earlier
-    MongoClient mongoClient = MongoClients.create(MongoClientSettings
+    MongoClient mongoClient = MongoClients.create(mongoClientSettings(mongoAddr, poolMetrics));
+
+    return mongoClient;
+  }
+
+  /**
+   * The settings for our MongoDB client. The connection pool, timeouts, and
+   * read preference can be tuned with these environment variables (the
+   * defaults are the driver's own):
+   *
+   * - `MONGO_POOL_MAX_SIZE` (100) and `MONGO_POOL_MIN_SIZE` (0): how many
+   *   connections the pool can have open
+   * - `MONGO_POOL_MAX_WAIT_MS` (120000): how long a request waits for a free
+   *   connection before giving up
+   * - `MONGO_POOL_MAX_CONNECTING` (2): how many new connections can be opened at once
+   * - `MONGO_CONNECT_TIMEOUT_MS` (10000) and `MONGO_SOCKET_TIMEOUT_MS` (0, which
+   *   means no limit): how long to wait to connect, and for an answer
+   * - `MONGO_SERVER_SELECTION_TIMEOUT_MS` (30000): how long to wait for a
+   *   server to send a command to
+   * - `MONGO_READ_PREFERENCE` (`primary`): which members of a replica set to
+   *   read from, e.g., `secondaryPreferred`
+   *
+   * This is public so that anything else that connects to the same database
+   * (like the load test) is tuned the same way as the server.
+   *
+   * @param mongoAddr The address of the MongoDB server
+   * @param poolMetrics Where to count what the connection pool is up to
+   * @return The settings
+   */
+  public static MongoClientSettings mongoClientSettings(String mongoAddr, MongoPoolMetrics poolMetrics) {
+    return MongoClientSettings
       .builder()
-      .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+      .applyToClusterSettings(builder -> builder
+        .hosts(Arrays.asList(new ServerAddress(mongoAddr)))
+        .serverSelectionTimeout(envMillis("MONGO_SERVER_SELECTION_TIMEOUT_MS", "30000"), TimeUnit.MILLISECONDS))
+      .applyToConnectionPoolSettings(builder -> builder
+        .maxSize(Integer.parseInt(Main.getEnvOrDefault("MONGO_POOL_MAX_SIZE", "100")))
+        .minSize(Integer.parseInt(Main.getEnvOrDefault("MONGO_POOL_MIN_SIZE", "0")))
+        .maxWaitTime(envMillis("MONGO_POOL_MAX_WAIT_MS", "120000"), TimeUnit.MILLISECONDS)
+        .maxConnecting(Integer.parseInt(Main.getEnvOrDefault("MONGO_POOL_MAX_CONNECTING", "2")))
+        .addConnectionPoolListener(poolMetrics))
+      .applyToSocketSettings(builder -> builder
+        .connectTimeout(envMillis("MONGO_CONNECT_TIMEOUT_MS", "10000"), TimeUnit.MILLISECONDS)
+        .readTimeout(envMillis("MONGO_SOCKET_TIMEOUT_MS", "0"), TimeUnit.MILLISECONDS))
+      .readPreference(ReadPreference.valueOf(Main.getEnvOrDefault("MONGO_READ_PREFERENCE", "primary")))
       // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
       // a non-standard way. This option says to use the standard encoding.
       // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
       .uuidRepresentation(UuidRepresentation.STANDARD)
-      .build());
+      .build();
+  }
 
-    return mongoClient;
+  private static long envMillis(String envName, String defaultValue) {
+    return Long.parseLong(Main.getEnvOrDefault(envName, defaultValue));
   }
 
   /**
@@ -99,11 +178,24 @@ public class Server {
    * ** this is public in the example I'm working from **
    */
   void startServer() {
-    System.out.println("Starting server...");
+    startServer(SERVER_PORT);
+  }
+
+  /**
+   * Configure and start the server on the given port, e.g., on any free
+   * port (0) for a load test that runs the server in the same process.
+   *
+   * @param port The port to listen on, or 0 for any free port
+   * @return The running Javalin server, which can tell us which port it's
+   *   listening on, and can be stopped
+   */
+  public Javalin startServer(int port) {
+    LOG.info("Starting server...");
     Javalin javalin = configureJavalin();
     setupRoutes(javalin);
-    javalin.start(SERVER_PORT);
-    System.out.println("Server started on port " + SERVER_PORT);
+    javalin.start(port);
+    LOG.info("Server started on port {}", javalin.port());
+    return javalin;
   }
 
   /**
@@ -116,6 +208,7 @@ public class Server {
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
    *   error.
    * - Setting up WebSocket endpoints
+   * - Running the handlers on virtual threads (if `useVirtualThreads` is set)
    *
    * @return The Javalin server instance
    */
@@ -133,36 +226,70 @@ public class Server {
      * `http://localhost:4567/api` shows all of the available endpoints and
      * what HTTP methods they use. (Replace `localhost` and `4567` with whatever server
      * and  port you're actually using, if they are different.)
+     *
+     * Every request to the controllers ends up waiting on MongoDB, which ties
+     * up one of Jetty's (limited number of) threads for the whole time. With
+     * `useVirtualThreads`, Jetty runs each request, and each web socket
+     * callback, on a virtual thread instead, which is set aside while it
+     * waits, so slow database calls no longer limit how many requests
+     * we can be working on at once.
      */
-    Javalin server = Javalin.create(config ->
-      config.bundledPlugins.enableRouteOverview("/api")
-    );
+    Javalin server = Javalin.create(config -> {
+      config.bundledPlugins.enableRouteOverview("/api");
+      config.useVirtualThreads = useVirtualThreads;
+    });
 
     // Websocket stuff here was mostly taken from another repository
     // (and, see more web sockets stuff):
     // https://github.com/UMM-CSci-3601-F24/it-3-mary-shellys-cool-1918-howard-frankendogs-
     // football-team/commit/877e9e4387234ee090962fb6ccd28fa25ac1e94a
-    System.out.println("Configuring WebSocket endpoint...");
+    WebSocketMetrics metrics = gameRooms.metrics();
     server.ws("/api/websocket", ws -> {
-      System.out.println("WebSocket endpoint created");
       ws.onConnect(ctx -> {
-        connectedClients.add(ctx);
+        metrics.clientConnected();
+        // Clients can say which game they want to follow when they connect
+        // (`/api/websocket?gameId=...`), or later with a `SUBSCRIBE` message.
+        String gameId = ctx.queryParam(GAME_ID_KEY);
+        if (gameId != null && !gameId.isBlank()) {
+          gameRooms.subscribe(gameId, ctx);
+        }
         ctx.enableAutomaticPings(WEB_SOCKET_PING_INTERVAL, TimeUnit.SECONDS);
-        System.out.println("Client connected");
+        LOG.debug("Client {} connected following game {}", ctx.sessionId(), gameId);
       });
 
       ws.onMessage(ctx -> {
+        metrics.messageReceived();
         String message = ctx.message();
-        System.out.println("Received message from client");
-        broadcastMessage(message);
+        LOG.debug("Received message from client {}", ctx.sessionId());
+        JsonNode json = parseMessage(message);
+        String gameId = json.path(GAME_ID_KEY).asText("");
+        // The only thing clients tell us over the web socket is which game
+        // they're following. Changes to games are made through the REST API,
+        // which pushes the resulting events to the game's room, so we no
+        // longer relay whatever clients send to each other.
+        if (!gameId.isBlank() && SUBSCRIBE_TYPE.equals(json.path("type").asText())) {
+          gameRooms.subscribe(gameId, ctx);
+        }
       });
 
       ws.onClose(ctx -> {
-        connectedClients.remove(ctx);
-        System.out.println("Client disconnected");
+        metrics.clientDisconnected();
+        gameRooms.unsubscribe(ctx);
+        LOG.debug("Client {} disconnected", ctx.sessionId());
       });
     });
 
+    // The web socket counters, so we can see what's going on under load
+    server.get("/api/metrics/websocket", ctx -> {
+      Map<String, Long> snapshot = metrics.snapshot();
+      snapshot.put("rooms", (long) gameRooms.roomCount());
+      ctx.json(snapshot);
+    });
+
+    // The connection pool counters, so we can see whether requests are
+    // waiting on the database or waiting for a connection to it
+    server.get("/api/metrics/mongo", ctx -> ctx.json(poolMetrics.snapshot()));
+
     // Configure the MongoDB client and the Javalin server to shut down gracefully.
     configureShutdowns(server);
 
@@ -171,11 +298,10 @@ public class Server {
     // Error Response"). In general you'll like to *never* actually
     // return this, as it's an instance of the server crashing in
     // some way, and returning a 500 to your user is *super*
-    // unhelpful to them. In a production system you'd almost
-    // certainly want to use a logging library to log all errors
-    // caught here so you'd know about them and could try to address
-    // them.
+    // unhelpful to them. We log all the errors caught here
+    // so we know about them and can try to address them.
     server.exception(Exception.class, (e, ctx) -> {
+      LOG.error("Uncaught exception handling {} {}", ctx.method(), ctx.path(), e);
       throw new InternalServerErrorResponse(e.toString());
     });
 
@@ -183,17 +309,18 @@ public class Server {
   }
 
   /**
-   * Broadcasts a message to all connected WebSocket clients.
-   * Websocket stuff here was mostly taken from another repository (and, see more web sockets stuff):
-   * https://github.com/UMM-CSci-3601-F24/it-3-mary-shellys-cool-1918-howard-frankendogs
-   * -football-team/commit/877e9e4387234ee090962fb6ccd28fa25ac1e94a
+   * Parse an incoming web socket message as JSON. Messages that aren't
+   * legal JSON are treated as empty objects (and so are about no game).
    *
-   * @param message The message to broadcast
+   * @param message The raw text of the message
+   * @return The parsed message
    */
-  private static void broadcastMessage(String message) {
-    for (WsContext client : connectedClients) {
-      System.out.println("sent broadcast of " + message + " to:" + client.toString());
-      client.send(message);
+  private static JsonNode parseMessage(String message) {
+    try {
+      JsonNode json = MESSAGE_MAPPER.readTree(message);
+      return json == null ? MESSAGE_MAPPER.createObjectNode() : json;
+    } catch (JsonProcessingException e) {
+      return MESSAGE_MAPPER.createObjectNode();
     }
   }
 
@@ -216,10 +343,12 @@ public class Server {
      * life of the server, the only way to do this is to wait for
      * these events and close it then.
      */
-    server.events(event -> {
-      event.serverStartFailed(mongoClient::close);
-      event.serverStopped(mongoClient::close);
-    });
+    if (mongoClient != null) {
+      server.events(event -> {
+        event.serverStartFailed(mongoClient::close);
+        event.serverStopped(mongoClient::close);
+      });
+    }
   }
 
   /**
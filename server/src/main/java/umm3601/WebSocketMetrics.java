@@ -0,0 +1,62 @@
+package umm3601;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for the web socket traffic going through the server.
+ *
+ * These are updated on every connect, message, and send, so they use
+ * `LongAdder`s, which (unlike a synchronized counter or a single
+ * `AtomicLong`) stay cheap when lots of threads bump them at once.
+ */
+public class WebSocketMetrics {
+
+  private final LongAdder connects = new LongAdder();
+  private final LongAdder disconnects = new LongAdder();
+  private final LongAdder messagesIn = new LongAdder();
+  private final LongAdder framesOut = new LongAdder();
+  private final LongAdder framesDropped = new LongAdder();
+
+  /** Record that a client connected. */
+  public void clientConnected() {
+    connects.increment();
+  }
+
+  /** Record that a client disconnected. */
+  public void clientDisconnected() {
+    disconnects.increment();
+  }
+
+  /** Record a message received from a client. */
+  public void messageReceived() {
+    messagesIn.increment();
+  }
+
+  /** Record a frame successfully sent to a client. */
+  public void frameSent() {
+    framesOut.increment();
+  }
+
+  /** Record a frame that was thrown away instead of being sent (e.g., because a client fell behind). */
+  public void frameDropped() {
+    framesDropped.increment();
+  }
+
+  /**
+   * Get the current value of all the counters, e.g., to return as JSON.
+   *
+   * @return a map from counter names to their current values
+   */
+  public Map<String, Long> snapshot() {
+    Map<String, Long> snapshot = new LinkedHashMap<>();
+    snapshot.put("connects", connects.sum());
+    snapshot.put("disconnects", disconnects.sum());
+    snapshot.put("connected", connects.sum() - disconnects.sum());
+    snapshot.put("messagesIn", messagesIn.sum());
+    snapshot.put("framesOut", framesOut.sum());
+    snapshot.put("framesDropped", framesDropped.sum());
+    return snapshot;
+  }
+}
@@ -15,10 +15,32 @@ public class Game {
 
   public String joincode;
   public String[] players;
-  public Round[] rounds;
+  // Only the current round is kept in the game; the earlier
+  // rounds (and all the responses) are in their own collections.
+  public Round round;
   public int currentRound;
+  // Every change to a game bumps its version (by one), so clients can ask
+  // for just the changes since the version they already have.
+  public long version;
   //public int rounds; //optional - how many rounds to have
 
+  /**
+   * Make a (shallow) copy of this game, e.g., to make
+   * changes to without affecting the original.
+   *
+   * @return the copy
+   */
+  public Game copy() {
+    Game copy = new Game();
+    copy._id = _id;
+    copy.joincode = joincode;
+    copy.players = players;
+    copy.round = round;
+    copy.currentRound = currentRound;
+    copy.version = version;
+    return copy;
+  }
+
   @Override
   public boolean equals(Object obj) {
     if (!(obj instanceof Game)) {
@@ -1,15 +1,18 @@
 package umm3601.game;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
 
-import org.bson.UuidRepresentation;
-import org.mongojack.JacksonMongoCollection;
+import org.bson.types.ObjectId;
 
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Updates;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
@@ -22,23 +25,105 @@ public class GameController implements Controller {
 
   private static final String API_GAMES = "/api/games";
   private static final String API_GAME_BY_ID = "/api/games/{id}";
+  private static final String API_GAME_BY_JOINCODE = "/api/games/by-joincode/{code}";
   private static final String API_ADD_PLAYER = "/api/games/{id}/{player}";
+  private static final String API_GAME_DELTAS = "/api/games/{id}/deltas";
+  private static final String API_ROUNDS = "/api/games/{id}/rounds";
+  private static final String API_CURRENT_ROUND = "/api/games/{id}/rounds/current";
+  private static final String API_ROUND_RESPONSES = "/api/games/{id}/rounds/{number}/responses";
+  static final String SINCE_KEY = "since";
   static final String JOINCODE_KEY = "joincode";
 
+  // Join codes clients can't choose, because `/api/games/by-joincode/{code}`
+  // with them would also match `/api/games/{id}/deltas` or `/api/games/{id}/rounds`
+  static final Set<String> RESERVED_JOINCODES = Set.of("deltas", "rounds");
+
+  // By default, games nobody has touched in two hours are dropped from memory,
+  // and we keep at most this many games in memory at once.
+  static final Duration DEFAULT_CACHE_TIME_TO_LIVE = Duration.ofHours(2);
+  static final int DEFAULT_CACHE_MAX_GAMES = 10_000;
+
+  // How many different join codes to try before giving up on creating a game
+  private static final int MAX_JOINCODE_ATTEMPTS = 5;
+
+  // How many of the most recent changes to each game we keep around
+  // for clients that need to catch up
+  static final int MAX_DELTAS_PER_GAME = 256;
+
   //static final String ID_REGEX = "^[A-Fa-f0-9]{6}$";
-  private final JacksonMongoCollection<Game> gameCollection;
+  private final GameStore gameStore;
+  private final GameEventPublisher eventPublisher;
+  private final JoincodeAllocator joincodeAllocator = new JoincodeAllocator();
+  private final GameDeltaLog deltaLog = new GameDeltaLog(MAX_DELTAS_PER_GAME);
+  private final RoundStore roundStore;
+  private final RoundEngine roundEngine;
 
   /**
-   * Construct a controller for games.
+   * Construct a controller for games that doesn't tell anybody about
+   * changes to games, and uses the default settings for the in-memory
+   * store of games.
    *
    * @param database the database containing game data
    */
   public GameController(MongoDatabase database) {
-    gameCollection = JacksonMongoCollection.builder().build(
-        database,
-        "games",
-        Game.class,
-        UuidRepresentation.STANDARD);
+    this(database, GameEventPublisher.NONE, DEFAULT_CACHE_TIME_TO_LIVE, DEFAULT_CACHE_MAX_GAMES);
+  }
+
+  /**
+   * Construct a controller for games.
+   *
+   * @param database the database containing game data
+   * @param eventPublisher where to send the events for changes to games
+   * @param cacheTimeToLive how long a game can go untouched before it's dropped from memory
+   * @param cacheMaxGames the most games to hold in memory at once
+   */
+  public GameController(MongoDatabase database, GameEventPublisher eventPublisher, Duration cacheTimeToLive,
+      int cacheMaxGames) {
+    this(database, eventPublisher, cacheTimeToLive, cacheMaxGames, RoundDeadlines.NONE);
+  }
+
+  /**
+   * Construct a controller for games whose rounds have deadlines.
+   *
+   * @param database the database containing game data
+   * @param eventPublisher where to send the events for changes to games
+   * @param cacheTimeToLive how long a game can go untouched before it's dropped from memory
+   * @param cacheMaxGames the most games to hold in memory at once
+   * @param roundDeadlines how long each round gets for responses, and for judging
+   */
+  public GameController(MongoDatabase database, GameEventPublisher eventPublisher, Duration cacheTimeToLive,
+      int cacheMaxGames, RoundDeadlines roundDeadlines) {
+    this(new MongoGameRepository(database), new MongoRoundStore(database), eventPublisher, cacheTimeToLive,
+        cacheMaxGames, roundDeadlines);
+  }
+
+  /**
+   * Construct a controller for games kept in the given repository (and
+   * whose rounds are kept in the given round store), e.g., to run the
+   * server without MongoDB.
+   *
+   * @param gameRepository where the games are stored
+   * @param roundStore where the history of each game's rounds is stored
+   * @param eventPublisher where to send the events for changes to games
+   * @param cacheTimeToLive how long a game can go untouched before it's dropped from memory
+   * @param cacheMaxGames the most games to hold in memory at once
+   * @param roundDeadlines how long each round gets for responses, and for judging
+   */
+  public GameController(GameRepository gameRepository, RoundStore roundStore, GameEventPublisher eventPublisher,
+      Duration cacheTimeToLive, int cacheMaxGames, RoundDeadlines roundDeadlines) {
+    this.eventPublisher = eventPublisher;
+    // Let the allocator know about the codes that existing games are already using.
+    // This is one pass over the (indexed) codes when the server starts, so that
+    // handing out new codes never needs to ask the database.
+    for (String joincode : gameRepository.joincodes()) {
+      joincodeAllocator.reserve(joincode);
+    }
+    gameStore = new GameStore(gameRepository, cacheTimeToLive, cacheMaxGames, System::currentTimeMillis);
+    // A game's recent changes are only kept while the game is in memory
+    gameStore.addEvictionListener(deltaLog::forget);
+    this.roundStore = roundStore;
+
+    roundEngine = new RoundEngine(gameStore, roundStore, this::announce, roundDeadlines);
   }
 
   /**
@@ -52,10 +137,9 @@ public class GameController implements Controller {
     Game game;
 
     try {
-      game = gameCollection.findOneById(id);
-      // The next commented line is more like what we did for User,
-      // but both seem to work and the previous line is shorter
-      // game = gameCollection.find(eq("_id", new ObjectId(id))).first();
+      // This is served from memory unless it's the first time
+      // in a while that someone has asked about this game.
+      game = gameStore.findById(id);
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested game id wasn't a legal Mongo Object ID.");
     }
@@ -67,6 +151,23 @@ public class GameController implements Controller {
     }
   }
 
+  /**
+   * Set the JSON body of the response to be the single game
+   * with the join code given by the `code` parameter in the request
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getGameByJoincode(Context ctx) {
+    String joincode = ctx.pathParam("code");
+    Game game = gameStore.findByJoincode(joincode);
+    if (game == null) {
+      throw new NotFoundResponse("There is no game with the join code " + joincode);
+    } else {
+      ctx.json(game);
+      ctx.status(HttpStatus.OK);
+    }
+  }
+
   /**
    * Add a new game using information from the context
    * (as long as the information gives "legal" values to Game fields)
@@ -79,26 +180,36 @@ public class GameController implements Controller {
      * The following chain of statements uses the Javalin validator system
      * to verify that instance of `Game` provided in this context is
      * a "legal" game. It checks the following things (in order):
+     *    - The join code, if there is one, isn't blank (if there isn't
+     *      one, the server will choose one)
+     *    - The join code isn't one of the words in our URLs, which would
+     *      make the game impossible to look up by its code
      *
      * If any of these checks fail, the Javalin system will throw a
      * `BadRequestResponse` with an appropriate error message.
      */
     String body = ctx.body();
     Game newGame = ctx.bodyValidator(Game.class)
-    .check(usr -> usr.joincode != null && usr.joincode.length() > 0,
-        "Game must have a non-empty join code; body was " + body)
+      .check(game -> game.joincode == null || !game.joincode.isBlank(),
+        "Game must have a non-empty join code (or none, to have one chosen); body was " + body)
+      .check(game -> game.joincode == null || !RESERVED_JOINCODES.contains(game.joincode),
+        "Game can't have any of " + RESERVED_JOINCODES + " as its join code; body was " + body)
       .get();
 
     newGame.currentRound = 0;
 
-    // Add the new game to the database
-    gameCollection.insertOne(newGame);
+    // Add the new game to the database (and to the in-memory store)
+    if (newGame.joincode == null) {
+      insertWithNewJoincode(newGame);
+    } else {
+      insertWithChosenJoincode(newGame);
+    }
 
-    // Set the JSON response to be the `_id` of the newly created game.
+    // Set the JSON response to be the `_id` (and join code) of the newly created game.
     // This gives the client the opportunity to know the ID of the new game,
     // which it can then use to perform further operations (e.g., a GET request
     // to get and display the details of the new game).
-    ctx.json(Map.of("id", newGame._id));
+    ctx.json(Map.of("id", newGame._id, JOINCODE_KEY, newGame.joincode));
     // 201 (`HttpStatus.CREATED`) is the HTTP code for when we successfully
     // create a new resource (a game in this case).
     // See, e.g., https://developer.mozilla.org/en-US/docs/Web/HTTP/Status
@@ -106,38 +217,292 @@ public class GameController implements Controller {
     ctx.status(HttpStatus.CREATED);
   }
 
+  /**
+   * Insert a new game, with a join code chosen by the allocator.
+   *
+   * The allocator knows every code this server has handed out, so its
+   * codes are (all but) guaranteed to be free. The unique index on
+   * `joincode` is still the final word, though, so if some other server
+   * has claimed the code we just try again with a different one.
+   *
+   * @param newGame the game to insert
+   */
+  private void insertWithNewJoincode(Game newGame) {
+    for (int attempt = 0; attempt < MAX_JOINCODE_ATTEMPTS; attempt++) {
+      newGame.joincode = joincodeAllocator.allocate();
+      try {
+        if (gameStore.insert(newGame)) {
+          return;
+        }
+      } catch (RuntimeException e) {
+        joincodeAllocator.release(newGame.joincode);
+        throw e;
+      }
+      // The code really is in use, so we leave it marked that way
+    }
+    throw new IllegalStateException("Couldn't find a free join code after " + MAX_JOINCODE_ATTEMPTS + " tries");
+  }
+
+  /**
+   * Insert a new game, with the join code that the client chose.
+   *
+   * @param newGame the game to insert
+   * @throws ConflictResponse if that join code is already in use
+   */
+  private void insertWithChosenJoincode(Game newGame) {
+    String joincode = newGame.joincode;
+    if (!joincodeAllocator.reserve(joincode)) {
+      throw new ConflictResponse("The join code " + joincode + " is already in use");
+    }
+    boolean inserted;
+    try {
+      inserted = gameStore.insert(newGame);
+    } catch (RuntimeException e) {
+      joincodeAllocator.release(joincode);
+      throw e;
+    }
+    // The repository refuses a code that's taken (in MongoDB, by the unique index on `joincode`)
+    if (!inserted) {
+      throw new ConflictResponse("The join code " + joincode + " is already in use");
+    }
+  }
+
+  /**
+   * Set the JSON body of the response to be the changes made to the game
+   * specified by the `id` parameter since the version given by the `since`
+   * query parameter, e.g., `{"version": 7, "deltas": [...]}`.
+   *
+   * If we no longer have all of those changes, the body has the whole
+   * game instead (`{"version": 7, "game": {...}}`), which the client
+   * should replace its copy with.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getGameDeltas(Context ctx) {
+    String id = ctx.pathParam("id");
+    long since = ctx.queryParamAsClass(SINCE_KEY, Long.class)
+      .check(it -> it >= 0, "The version to get changes since can't be negative; you provided "
+        + ctx.queryParam(SINCE_KEY))
+      .get();
+    Game game = existingGame(id);
+    List<GameEvent> deltas = deltaLog.since(id, since, game.version);
+    if (deltas == null) {
+      ctx.json(Map.of("version", game.version, "game", game));
+    } else {
+      ctx.json(Map.of("version", game.version, "deltas", deltas));
+    }
+    ctx.status(HttpStatus.OK);
+  }
+
   /**
    * Add a player string to the array of players for the game
    * (as long as the information gives "legal" values to Game fields)
    *
+   * The response is just the game's id and (new) version, e.g.,
+   * `{"_id": "...", "version": 3}`; the change itself is pushed to
+   * everybody following the game (and can be fetched from the
+   * game's deltas).
+   *
    * @param ctx a Javalin HTTP context that provides the game info
    *  in the JSON body of the request
    */
   public void addPlayerToGame(Context ctx) {
     String id = ctx.pathParam("id");
     String newPlayer = ctx.pathParam("player");
-    Game gameToUpdate;
+    GameStore.PlayerAdded result;
     try {
-      gameToUpdate = gameCollection.findOneById(id);
+      // One atomic round trip to the database, which also
+      // hands back the updated game.
+      result = gameStore.addPlayer(id, newPlayer);
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested game id wasn't a legal Mongo Object ID.");
     }
-    if (gameToUpdate == null) {
+    if (result == null) {
       throw new NotFoundResponse("The requested game was not found");
     } else {
-      // Updates.addToSet documentation can be found here:
-      // https://www.mongodb.com/docs/manual/reference/operator/update/addToSet/
-      if (gameToUpdate.players == null) {
-        gameCollection.updateById(id, Updates.set("players", new String[]{newPlayer}));
-      } else {
-        gameCollection.updateById(id, Updates.addToSet("players", newPlayer));
+      Game game = result.game();
+      if (result.added()) {
+        // Let everybody following the game know, so they don't have to ask
+        announce(GameEvent.playerJoined(game, newPlayer));
       }
-      gameToUpdate = gameCollection.findOneById(id);
-      ctx.json(gameToUpdate);
+      ctx.json(Map.of("_id", game._id, "version", game.version));
       ctx.status(HttpStatus.OK);
     }
   }
 
+  /**
+   * Start the next round of the game specified by the `id` parameter. The
+   * JSON body of the request has the round's `prompt`, and (optionally) its
+   * `judge`; without a judge, the players take turns judging.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void startRound(Context ctx) {
+    String id = ctx.pathParam("id");
+    String body = ctx.body();
+    Round request = ctx.bodyValidator(Round.class)
+      .check(round -> round.prompt != null && !round.prompt.isBlank(),
+        "A round must have a non-empty prompt; body was " + body)
+      .get();
+    Round round = runRoundStep(id, () -> roundEngine.startRound(id, request.judge, request.prompt));
+    ctx.json(round);
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Submit a response to the current round of the game specified by the
+   * `id` parameter. The JSON body of the request has the responding
+   * `player` and the `text` of their response.
+   *
+   * The response is just the new response's id (e.g., `{"id": "..."}`);
+   * the responses themselves are revealed when the round is locked.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void submitResponse(Context ctx) {
+    String id = ctx.pathParam("id");
+    String body = ctx.body();
+    Response request = ctx.bodyValidator(Response.class)
+      .check(response -> response.player != null && !response.player.isBlank(),
+        "A response must say which player it's from; body was " + body)
+      .check(response -> response.text != null && !response.text.isBlank(),
+        "A response must have some text; body was " + body)
+      .get();
+    Response response = runRoundStep(id, () -> roundEngine.submitResponse(id, request.player, request.text));
+    ctx.json(Map.of("id", response._id));
+    ctx.status(HttpStatus.CREATED);
+  }
+
+  /**
+   * Lock the current round of the game specified by the `id` parameter,
+   * so the judge can choose a winner. The body of the response is the
+   * locked round, including all of its responses.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void lockRound(Context ctx) {
+    String id = ctx.pathParam("id");
+    Round round = runRoundStep(id, () -> roundEngine.lock(id));
+    ctx.json(round);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Choose the winner of the current round of the game specified by the
+   * `id` parameter. The JSON body of the request has the `judge` making the
+   * choice, and the `_id` of the winning response as its `winningResponse`,
+   * e.g., `{"judge": "Kristin", "winningResponse": {"_id": "..."}}`.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void chooseWinner(Context ctx) {
+    String id = ctx.pathParam("id");
+    String body = ctx.body();
+    Round request = ctx.bodyValidator(Round.class)
+      .check(round -> round.judge != null, "The judge must say who they are; body was " + body)
+      .check(round -> round.winningResponse != null && round.winningResponse._id != null,
+        "The judge must choose a winning response; body was " + body)
+      .get();
+    Round round = runRoundStep(id,
+      () -> roundEngine.chooseWinner(id, request.judge, request.winningResponse._id));
+    ctx.json(round);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to be all the rounds (so far) of the
+   * game specified by the `id` parameter, in order. These don't include the
+   * rounds' responses, which can be fetched separately for each round.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getRounds(Context ctx) {
+    String id = ctx.pathParam("id");
+    existingGame(id);
+    ctx.json(roundStore.roundsOf(id));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Set the JSON body of the response to be all the responses to the round
+   * specified by the `number` parameter of the game specified by the `id`
+   * parameter. Responses are saved when their round is locked, so this is
+   * empty for a round that is still taking responses.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getRoundResponses(Context ctx) {
+    String id = ctx.pathParam("id");
+    int number = ctx.pathParamAsClass("number", Integer.class)
+      .check(it -> it >= 0, "Round numbers can't be negative; you provided " + ctx.pathParam("number"))
+      .get();
+    existingGame(id);
+    ctx.json(roundStore.responsesTo(id, number));
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * The game with the given id, for requests about a game that
+   * has to exist.
+   *
+   * @param id the id of the game
+   * @return the game
+   * @throws BadRequestResponse if `id` isn't a legal Mongo Object ID
+   * @throws NotFoundResponse if there is no such game
+   */
+  private Game existingGame(String id) {
+    Game game;
+    try {
+      game = gameStore.findById(id);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("The requested game id wasn't a legal Mongo Object ID.");
+    }
+    if (game == null) {
+      throw new NotFoundResponse("The requested game was not found");
+    }
+    return game;
+  }
+
+  /**
+   * Run one step of a round (on the round engine), turning the ways
+   * it can fail into the appropriate HTTP responses.
+   *
+   * @param id the id of the game
+   * @param step the step to take
+   * @return the result of the step
+   */
+  private <T> T runRoundStep(String id, Supplier<T> step) {
+    if (!ObjectId.isValid(id)) {
+      throw new BadRequestResponse("The requested game id wasn't a legal Mongo Object ID.");
+    }
+    T result;
+    try {
+      result = step.get();
+    } catch (IllegalStateException e) {
+      // The round isn't in the right state for that (e.g., it's already locked)
+      throw new ConflictResponse(e.getMessage());
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse(e.getMessage());
+    }
+    if (result == null) {
+      throw new NotFoundResponse("The requested game was not found");
+    }
+    return result;
+  }
+
+  /**
+   * Announce a change to a game: log it (if it changed the game), so clients
+   * that miss it can catch up, and push it to everybody following the game.
+   *
+   * @param event the change
+   */
+  private void announce(GameEvent event) {
+    if (!event.patch.isEmpty()) {
+      deltaLog.append(event);
+    }
+    eventPublisher.publish(event);
+  }
+
   /**
    * Sets up routes for the `game` collection endpoints.
    * A GameController instance handles the game endpoints,
@@ -157,6 +522,12 @@ public class GameController implements Controller {
     // Get the specified game
     server.get(API_GAME_BY_ID, this::getGame);
 
+    // Get the changes to the specified game since a given version
+    server.get(API_GAME_DELTAS, this::getGameDeltas);
+
+    // Get the game with the specified join code
+    server.get(API_GAME_BY_JOINCODE, this::getGameByJoincode);
+
     // Add new game with the game info being in the JSON body
     // of the HTTP request (if any)
     server.post(API_GAMES, this::addNewGame);
@@ -167,6 +538,17 @@ public class GameController implements Controller {
     // server.put("/api/packs/:id/:name", wordRiverController::editWordList);
     // which uses path parameters (not sure if there was a switch from : to {} for that at some point)
     server.put(API_ADD_PLAYER, this::addPlayerToGame);
+
+    // Play the rounds of a game: start a round, respond to it,
+    // lock it, and have the judge choose the winner.
+    server.post(API_ROUNDS, this::startRound);
+    server.post(API_CURRENT_ROUND + "/responses", this::submitResponse);
+    server.post(API_CURRENT_ROUND + "/lock", this::lockRound);
+    server.post(API_CURRENT_ROUND + "/winner", this::chooseWinner);
+
+    // The history of a game's rounds, and the responses to each of them
+    server.get(API_ROUNDS, this::getRounds);
+    server.get(API_ROUND_RESPONSES, this::getRoundResponses);
   }
 }
 
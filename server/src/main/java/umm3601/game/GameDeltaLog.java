@@ -0,0 +1,93 @@
+package umm3601.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The recent changes (as `GameEvent`s, each with its version and patch)
+ * made to each game, so a client that missed some of them (e.g., because
+ * its connection dropped for a moment) can catch up by fetching just those
+ * changes, rather than reloading the whole game.
+ *
+ * Only the most recent changes to each game are kept, and only while the
+ * game itself is in memory (see `forget`). A client that has fallen further
+ * behind than that (or is asking about changes made before the server
+ * started, or before the game was evicted) has to reload the whole game
+ * instead.
+ */
+public class GameDeltaLog {
+
+  // The recent events for each game, keyed by game id and then by version.
+  // Changes can be logged in a (slightly) different order than their
+  // versions, so these are kept sorted by version.
+  private final Map<String, NavigableMap<Long, GameEvent>> deltas = new ConcurrentHashMap<>();
+  private final int maxDeltasPerGame;
+
+  /**
+   * Construct an (initially empty) log of changes to games.
+   *
+   * @param maxDeltasPerGame how many of the most recent changes to keep for each game
+   */
+  public GameDeltaLog(int maxDeltasPerGame) {
+    if (maxDeltasPerGame < 1) {
+      throw new IllegalArgumentException("A delta log must keep at least one change per game");
+    }
+    this.maxDeltasPerGame = maxDeltasPerGame;
+  }
+
+  /**
+   * Add a change to the log, dropping the oldest change
+   * to that game if there are now too many.
+   *
+   * @param event the change, which must have its version set
+   */
+  public void append(GameEvent event) {
+    NavigableMap<Long, GameEvent> log = deltas.computeIfAbsent(event.gameId, id -> new ConcurrentSkipListMap<>());
+    log.put(event.version, event);
+    while (log.size() > maxDeltasPerGame) {
+      log.pollFirstEntry();
+    }
+  }
+
+  /**
+   * Drop all the changes to a game, e.g., when it's evicted from the
+   * `GameStore`, so the logs of games nobody is playing any more don't
+   * pile up. Anybody who asks about them afterwards reloads the game.
+   *
+   * @param gameId the id of the game
+   */
+  public void forget(String gameId) {
+    deltas.remove(gameId);
+  }
+
+  /**
+   * Get the changes that take a game from one version to another.
+   *
+   * @param gameId the id of the game
+   * @param since the version the client has
+   * @param current the current version of the game
+   * @return the changes after `since`, up to and including `current`, in
+   *   order; or `null` if we don't have all of them, in which case the
+   *   client needs to reload the whole game
+   */
+  public List<GameEvent> since(String gameId, long since, long current) {
+    if (since >= current) {
+      return List.of();
+    }
+    NavigableMap<Long, GameEvent> log = deltas.get(gameId);
+    if (log == null) {
+      return null;
+    }
+    List<GameEvent> missed = new ArrayList<>(log.subMap(since, false, current, true).values());
+    // We need every version in between, with no gaps. (The newest ones can be
+    // briefly missing while the changes that made them are still being logged.)
+    if (missed.size() != current - since || missed.get(0).version != since + 1) {
+      return null;
+    }
+    return missed;
+  }
+}
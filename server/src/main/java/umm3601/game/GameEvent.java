@@ -0,0 +1,190 @@
+package umm3601.game;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Something that happened in a game, which the server pushes to
+ * everybody following that game (over their web sockets).
+ *
+ * Having the server announce changes itself (rather than relying on
+ * the client that made a change to tell everybody else about it) means
+ * every client hears about every change, and none of them need to keep
+ * reloading the whole game to find out what's new.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class GameEvent {
+
+  /**
+   * The kinds of things that can happen in a game.
+   */
+  public enum Type {
+    /** A player joined the game. */
+    PLAYER_JOINED,
+    /** A new round (with a new prompt and judge) started. */
+    ROUND_STARTED,
+    /** A player submitted their response to the current prompt. */
+    RESPONSE_SUBMITTED,
+    /** The current round stopped taking responses, and is waiting for the judge. */
+    ROUND_LOCKED,
+    /** The judge chose the winning response for the round. */
+    WINNER_CHOSEN,
+    /** The judge ran out of time to choose a winner, so the round ended without one. */
+    JUDGE_SKIPPED
+  }
+
+  public Type type;
+  public String gameId;
+  // The version of the game this event brought it to
+  public long version;
+  // The details of what happened, which depend on the type of event
+  public Map<String, Object> data = new LinkedHashMap<>();
+  // How to change the previous version of the game into this one, as a
+  // JSON Patch (https://datatracker.ietf.org/doc/html/rfc6902). This stays
+  // small no matter how big the game gets. Events that don't change the
+  // game itself (just the game's current version) have an empty patch.
+  public List<Map<String, Object>> patch = new ArrayList<>();
+
+  /**
+   * Construct an event.
+   *
+   * @param type what kind of event this is
+   * @param gameId the id of the game it happened in
+   * @param version the version of the game this event brought it to
+   */
+  public GameEvent(Type type, String gameId, long version) {
+    this.type = type;
+    this.gameId = gameId;
+    this.version = version;
+  }
+
+  /**
+   * Add a detail to this event.
+   *
+   * @param key the name of the detail
+   * @param value the value of the detail
+   * @return this event, so calls can be chained
+   */
+  public GameEvent with(String key, Object value) {
+    data.put(key, value);
+    return this;
+  }
+
+  /**
+   * Add an operation to this event's patch.
+   *
+   * @param op the JSON Patch operation (`add`, `replace`, ...)
+   * @param path the JSON Pointer to the part of the game that changed
+   * @param value the new value
+   * @return this event, so calls can be chained
+   */
+  public GameEvent patch(String op, String path, Object value) {
+    Map<String, Object> operation = new LinkedHashMap<>();
+    operation.put("op", op);
+    operation.put("path", path);
+    operation.put("value", value);
+    patch.add(operation);
+    return this;
+  }
+
+  /**
+   * An event for a player joining a game.
+   *
+   * @param game the game, after the player joined it
+   * @param player the name of the player who joined
+   * @return the event
+   */
+  public static GameEvent playerJoined(Game game, String player) {
+    GameEvent event = new GameEvent(Type.PLAYER_JOINED, game._id, game.version).with("player", player);
+    // A game that didn't have any players yet may not have had a list of
+    // players to add to, so it gets a whole new list instead.
+    if (game.players.length == 1) {
+      event.patch("add", "/players", List.of(player));
+    } else {
+      event.patch("add", "/players/-", player);
+    }
+    return event;
+  }
+
+  /**
+   * An event for a new round starting (which also makes it the current round).
+   *
+   * @param game the game, after the round started
+   * @param round the new round
+   * @return the event
+   */
+  public static GameEvent roundStarted(Game game, Round round) {
+    return new GameEvent(Type.ROUND_STARTED, game._id, game.version)
+      .with("round", round.number)
+      .with("judge", round.judge)
+      .patch("add", "/round", round)
+      .patch("replace", "/currentRound", round.number);
+  }
+
+  /**
+   * An event for a player submitting a response. This doesn't say what
+   * the response was (nobody gets to see those until the round is locked),
+   * just who responded and how many responses there are so far.
+   *
+   * @param game the game
+   * @param player the player who responded
+   * @param responses the number of responses to the round so far
+   * @return the event
+   */
+  public static GameEvent responseSubmitted(Game game, String player, int responses) {
+    return new GameEvent(Type.RESPONSE_SUBMITTED, game._id, game.version)
+      .with("player", player)
+      .with("responses", responses);
+  }
+
+  /**
+   * An event for the current round being locked, which reveals its responses.
+   *
+   * @param game the game, after the round was locked
+   * @param round the locked round
+   * @return the event
+   */
+  public static GameEvent roundLocked(Game game, Round round) {
+    return new GameEvent(Type.ROUND_LOCKED, game._id, game.version)
+      .with("round", round.number)
+      .patch("replace", "/round", round);
+  }
+
+  /**
+   * An event for the judge choosing the winning response of the current round.
+   *
+   * @param game the game, after the winner was chosen
+   * @param round the judged round
+   * @return the event
+   */
+  public static GameEvent winnerChosen(Game game, Round round) {
+    return new GameEvent(Type.WINNER_CHOSEN, game._id, game.version)
+      .with("round", round.number)
+      .with("player", round.winningResponse.player)
+      .patch("replace", "/round/state", round.state)
+      .patch("add", "/round/winningResponse", round.winningResponse);
+  }
+
+  /**
+   * An event for the judge of the current round being skipped (because they
+   * took too long, or because nobody responded), which ends the round
+   * without a winner.
+   *
+   * @param game the game, after the judge was skipped
+   * @param round the judged round (without a winning response)
+   * @return the event
+   */
+  public static GameEvent judgeSkipped(Game game, Round round) {
+    return new GameEvent(Type.JUDGE_SKIPPED, game._id, game.version)
+      .with("round", round.number)
+      .with("judge", round.judge)
+      .patch("replace", "/round/state", round.state);
+  }
+
+  @Override
+  public String toString() {
+    return type + " in game " + gameId + " (version " + version + "): " + data;
+  }
+}
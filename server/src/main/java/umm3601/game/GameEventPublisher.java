@@ -0,0 +1,22 @@
+package umm3601.game;
+
+/**
+ * Something that can tell the world about `GameEvent`s.
+ *
+ * The `GameController` makes changes to games and hands an event for each
+ * change to its publisher; in the running server the publisher broadcasts
+ * the event to the web socket clients following that game.
+ */
+@FunctionalInterface
+public interface GameEventPublisher {
+
+  /** A publisher that throws all events away, e.g., for tests that don't care about them. */
+  GameEventPublisher NONE = event -> { };
+
+  /**
+   * Tell everybody following the event's game about the event.
+   *
+   * @param event what happened
+   */
+  void publish(GameEvent event);
+}
@@ -0,0 +1,69 @@
+package umm3601.game;
+
+import java.util.List;
+
+/**
+ * Where the games are kept. `MongoGameRepository` keeps them in MongoDB;
+ * `InMemoryGameRepository` keeps them in memory, so the server (and its
+ * tests and benchmarks) can run without a database.
+ *
+ * Every change to a game is a single atomic step that also bumps the
+ * game's version, and hands back the game as it is afterwards. Game ids
+ * are Mongo Object IDs (as hex strings) either way, and the methods that
+ * take an id throw `IllegalArgumentException` if it isn't one.
+ */
+public interface GameRepository {
+
+  /**
+   * Get the game with the given id.
+   *
+   * @param id the id of the game
+   * @return the game, or `null` if there is no such game
+   */
+  Game findById(String id);
+
+  /**
+   * Get the game with the given join code.
+   *
+   * @param joincode the join code of the game
+   * @return the game, or `null` if there is no game with that code
+   */
+  Game findByJoincode(String joincode);
+
+  /**
+   * Add a new game, unless its join code is already in use. This sets
+   * the game's `_id`.
+   *
+   * @param game the new game
+   * @return `true` if the game was added, or `false` if another game
+   *   already has its join code
+   */
+  boolean insert(Game game);
+
+  /**
+   * Add a player to a game, unless they're already in it.
+   *
+   * @param id the id of the game
+   * @param player the name of the new player
+   * @return the updated game, or `null` if there is no such game or
+   *   the player was already in it
+   */
+  Game addPlayer(String id, String player);
+
+  /**
+   * Make a round the current round of a game (replacing whatever
+   * round it had before).
+   *
+   * @param id the id of the game
+   * @param round the round
+   * @return the updated game, or `null` if there is no such game
+   */
+  Game saveRound(String id, Round round);
+
+  /**
+   * Get the join codes of all the games.
+   *
+   * @return the join codes in use
+   */
+  List<String> joincodes();
+}
@@ -0,0 +1,290 @@
+package umm3601.game;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * An in-memory, write-through store of games, sitting in front of the
+ * `GameRepository` (normally the `games` collection in MongoDB).
+ *
+ * Games that are being played get read over and over (every lobby poll,
+ * every join), so once a game has been read (or created) it is kept in
+ * memory and served from there. Every change is written to the repository
+ * first, and the in-memory copy is then replaced with the updated game the
+ * repository hands back, so the repository is always the durable record of
+ * each game, and nothing is lost when a game is evicted.
+ *
+ * Games are evicted when nobody has touched them for a while (the "time to
+ * live"), and the least recently used games are evicted if there are ever
+ * more than the maximum number of games in memory. Anything else that keeps
+ * its own in-memory state for each game (like the `RoundEngine`) can listen
+ * for evictions, so it can let go of that state too.
+ *
+ * The store also remembers which game each join code belongs to, so turning
+ * the code a player typed into a game is (usually) just a map lookup, and
+ * otherwise a query on the (unique) `joincode` index.
+ */
+public class GameStore {
+
+  // When we have to make room, evict down to this fraction of the maximum
+  // size, so we aren't evicting on every single new game after that.
+  private static final double EVICT_TO_FRACTION = 0.9;
+
+  private final GameRepository gameRepository;
+  private final Map<String, CachedGame> games = new ConcurrentHashMap<>();
+  // The id of the game with each join code, for the games we have in memory
+  private final Map<String, String> gameIdsByJoincode = new ConcurrentHashMap<>();
+  private final long timeToLiveMillis;
+  private final int maxGames;
+  // Where we get the current time from (in milliseconds); tests can replace this.
+  private final LongSupplier clock;
+  // Told the id of each game that's evicted
+  private final List<Consumer<String>> evictionListeners = new CopyOnWriteArrayList<>();
+
+  /**
+   * Construct a store of games.
+   *
+   * @param gameRepository where the games are stored
+   * @param timeToLive how long a game can go untouched before it's evicted from memory
+   * @param maxGames the most games to hold in memory at once
+   * @param clock the source of the current time, in milliseconds
+   */
+  public GameStore(GameRepository gameRepository, Duration timeToLive, int maxGames, LongSupplier clock) {
+    this.gameRepository = gameRepository;
+    this.timeToLiveMillis = timeToLive.toMillis();
+    this.maxGames = maxGames;
+    this.clock = clock;
+  }
+
+  /**
+   * Get the game with the given id, from memory if we have it and
+   * from the repository (after which we'll have it in memory) if we don't.
+   *
+   * @param id the id of the game
+   * @return the game, or `null` if there is no such game
+   * @throws IllegalArgumentException if the id isn't a legal Mongo Object ID
+   */
+  public Game findById(String id) {
+    long now = clock.getAsLong();
+    CachedGame cached = games.get(id);
+    if (cached != null) {
+      if (!cached.isExpired(now, timeToLiveMillis)) {
+        cached.lastUsed = now;
+        return cached.game;
+      }
+      forget(cached);
+    }
+    Game game = gameRepository.findById(id);
+    return game == null ? null : remember(game);
+  }
+
+  /**
+   * Get the game with the given join code.
+   *
+   * @param joincode the join code of the game
+   * @return the game, or `null` if there is no game with that code
+   */
+  public Game findByJoincode(String joincode) {
+    String id = gameIdsByJoincode.get(joincode);
+    if (id != null) {
+      Game game = findById(id);
+      if (game != null) {
+        return game;
+      }
+    }
+    Game game = gameRepository.findByJoincode(joincode);
+    return game == null ? null : remember(game);
+  }
+
+  /**
+   * Add a new game, both to the repository and to memory (unless
+   * its join code is already in use). This sets the game's `_id`.
+   *
+   * @param game the new game
+   * @return `true` if the game was added, or `false` if another game
+   *   already has its join code
+   */
+  public boolean insert(Game game) {
+    if (!gameRepository.insert(game)) {
+      return false;
+    }
+    remember(game);
+    return true;
+  }
+
+  /**
+   * The result of trying to add a player to a game.
+   *
+   * @param game the game (after the player was added)
+   * @param added whether the player was actually added, i.e.,
+   *   `false` if they were already in the game
+   */
+  public record PlayerAdded(Game game, boolean added) { }
+
+  /**
+   * Add a player to a game, unless they're already in it.
+   *
+   * @param id the id of the game
+   * @param player the name of the new player
+   * @return the updated game and whether the player was new to it,
+   *   or `null` if there is no such game
+   * @throws IllegalArgumentException if the id isn't a legal Mongo Object ID
+   */
+  public PlayerAdded addPlayer(String id, String player) {
+    // This is a single, atomic, step in the repository, so two players
+    // joining at the same moment can't overwrite each other.
+    Game updated = gameRepository.addPlayer(id, player);
+
+    if (updated == null) {
+      // Either there's no such game, or the player was already in it
+      // (which is rare enough that a second look is fine).
+      Game game = findById(id);
+      return game == null ? null : new PlayerAdded(game, false);
+    }
+    remember(updated);
+    return new PlayerAdded(updated, true);
+  }
+
+  /**
+   * Save the current round of a game. The game only holds its current round
+   * (the history of its rounds is kept in the `RoundStore`), so this replaces
+   * whatever round the game had before, and makes this its current round.
+   *
+   * Like every change to a game, this is a single atomic update (that also
+   * bumps the game's version), and it only touches the round.
+   *
+   * @param id the id of the game
+   * @param round the round
+   * @return the updated game, or `null` if there is no such game
+   * @throws IllegalArgumentException if the id isn't a legal Mongo Object ID
+   */
+  public Game saveRound(String id, Round round) {
+    Game updated = gameRepository.saveRound(id, round);
+    if (updated != null) {
+      remember(updated);
+    }
+    return updated;
+  }
+
+  /**
+   * Forget the in-memory copy of a game. The next read will
+   * fetch it from the repository again.
+   *
+   * @param id the id of the game
+   */
+  public void evict(String id) {
+    forget(games.get(id));
+  }
+
+  /**
+   * Have something told whenever a game is evicted from memory (for
+   * whatever reason), with the id of the game. This is called on whichever
+   * thread did the evicting, which may be in the middle of changing some
+   * other game, so it should be quick, and mustn't wait for any locks.
+   *
+   * @param listener what to tell
+   */
+  public void addEvictionListener(Consumer<String> listener) {
+    evictionListeners.add(listener);
+  }
+
+  /**
+   * Get the number of games currently held in memory.
+   *
+   * @return the number of cached games
+   */
+  public int size() {
+    return games.size();
+  }
+
+  /**
+   * Keep a copy of a game in memory, unless we already have a newer one.
+   * Reads and updates can finish in a different order than they were made
+   * (e.g., a read that missed can load a game from the repository just
+   * before an update to it is cached), so we keep whichever copy has the
+   * higher version.
+   *
+   * @return the copy that's now in memory
+   */
+  private Game remember(Game game) {
+    long now = clock.getAsLong();
+    CachedGame kept = games.compute(game._id, (id, cached) -> {
+      if (cached != null && cached.game.version > game.version) {
+        cached.lastUsed = now;
+        return cached;
+      }
+      return new CachedGame(game, now);
+    });
+    rememberJoincode(kept.game);
+    if (games.size() > maxGames) {
+      makeRoom();
+    }
+    return kept.game;
+  }
+
+  private void rememberJoincode(Game game) {
+    if (game.joincode != null) {
+      gameIdsByJoincode.put(game.joincode, game._id);
+    }
+  }
+
+  /**
+   * Drop a game (and its join code) from memory.
+   */
+  private void forget(CachedGame cached) {
+    if (cached == null || !games.remove(cached.game._id, cached)) {
+      return;
+    }
+    if (cached.game.joincode != null) {
+      gameIdsByJoincode.remove(cached.game.joincode, cached.game._id);
+    }
+    evictionListeners.forEach(listener -> listener.accept(cached.game._id));
+  }
+
+  /**
+   * Evict expired games and then, if we still have too many, the least
+   * recently used ones. This walks every game in memory, but it only
+   * happens once we're over the limit, and it evicts enough games that it
+   * won't need to happen again for a while.
+   */
+  private void makeRoom() {
+    long now = clock.getAsLong();
+    games.values().stream()
+      .filter(cached -> cached.isExpired(now, timeToLiveMillis))
+      .toList()
+      .forEach(this::forget);
+
+    int target = (int) (maxGames * EVICT_TO_FRACTION);
+    int excess = games.size() - target;
+    if (excess > 0) {
+      games.values().stream()
+        .sorted(Comparator.comparingLong(cached -> cached.lastUsed))
+        .limit(excess)
+        .toList()
+        .forEach(this::forget);
+    }
+  }
+
+  /**
+   * A game held in memory, along with when it was last used.
+   */
+  private static final class CachedGame {
+    private final Game game;
+    private volatile long lastUsed;
+
+    CachedGame(Game game, long lastUsed) {
+      this.game = game;
+      this.lastUsed = lastUsed;
+    }
+
+    boolean isExpired(long now, long ttlMillis) {
+      return now - lastUsed > ttlMillis;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package umm3601.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.types.ObjectId;
+
+/**
+ * The games, kept in memory (in concurrent maps), for running the server,
+ * its tests, and its benchmarks without MongoDB. Nothing is kept once the
+ * server stops.
+ *
+ * Like documents in MongoDB, the games kept here are never changed in
+ * place: each change replaces the game with an updated copy (atomically,
+ * with `compute`), so whoever is holding the old copy isn't surprised by it
+ * changing underneath them.
+ */
+public class InMemoryGameRepository implements GameRepository {
+
+  private final Map<String, Game> games = new ConcurrentHashMap<>();
+  // The id of the game with each join code; this plays the part of the
+  // unique index on `joincode`
+  private final Map<String, String> gameIdsByJoincode = new ConcurrentHashMap<>();
+
+  @Override
+  public Game findById(String id) {
+    return games.get(checkId(id));
+  }
+
+  @Override
+  public Game findByJoincode(String joincode) {
+    String id = gameIdsByJoincode.get(joincode);
+    return id == null ? null : games.get(id);
+  }
+
+  @Override
+  public boolean insert(Game game) {
+    String id = new ObjectId().toHexString();
+    if (game.joincode != null && gameIdsByJoincode.putIfAbsent(game.joincode, id) != null) {
+      return false;
+    }
+    game._id = id;
+    games.put(id, game.copy());
+    return true;
+  }
+
+  @Override
+  public Game addPlayer(String id, String player) {
+    Game[] added = new Game[1];
+    games.computeIfPresent(checkId(id), (gameId, game) -> {
+      String[] players = game.players == null ? new String[0] : game.players;
+      if (Arrays.asList(players).contains(player)) {
+        return game;
+      }
+      Game updated = game.copy();
+      updated.players = Arrays.copyOf(players, players.length + 1);
+      updated.players[players.length] = player;
+      updated.version++;
+      added[0] = updated;
+      return updated;
+    });
+    return added[0];
+  }
+
+  @Override
+  public Game saveRound(String id, Round round) {
+    return games.computeIfPresent(checkId(id), (gameId, game) -> {
+      Game updated = game.copy();
+      // Our own copy, so the caller changing theirs doesn't change the stored game
+      updated.round = round.copy();
+      updated.currentRound = round.number;
+      updated.version++;
+      return updated;
+    });
+  }
+
+  @Override
+  public List<String> joincodes() {
+    return new ArrayList<>(gameIdsByJoincode.keySet());
+  }
+
+  // MongoDB won't take an id that isn't an Object ID, so neither do we.
+  private static String checkId(String id) {
+    if (!ObjectId.isValid(id)) {
+      throw new IllegalArgumentException("Not a legal Mongo Object ID: " + id);
+    }
+    return id;
+  }
+}
@@ -0,0 +1,55 @@
+package umm3601.game;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The history of every game's rounds, and of all the responses to them,
+ * kept in memory (in concurrent maps, by game, like the indexes on the
+ * MongoDB collections), for running the server without MongoDB.
+ */
+public class InMemoryRoundStore implements RoundStore {
+
+  // Each game's rounds, keyed by game id and then by round id
+  private final Map<String, Map<String, Round>> rounds = new ConcurrentHashMap<>();
+  // The responses to each round, keyed by game id and round number,
+  // and then by response id
+  private final Map<String, Map<String, Response>> responses = new ConcurrentHashMap<>();
+
+  @Override
+  public void save(Round round) {
+    Round withoutResponses = round.copy();
+    withoutResponses.responses = null;
+    rounds.computeIfAbsent(round.gameId, gameId -> new ConcurrentHashMap<>()).put(round._id, withoutResponses);
+  }
+
+  @Override
+  public void saveResponses(Response[] toSave) {
+    if (toSave == null) {
+      return;
+    }
+    for (Response response : toSave) {
+      responses.computeIfAbsent(roundKey(response.gameId, response.round), key -> new ConcurrentHashMap<>())
+        .put(response._id, response);
+    }
+  }
+
+  @Override
+  public List<Round> roundsOf(String gameId) {
+    List<Round> result = new ArrayList<>(rounds.getOrDefault(gameId, Map.of()).values());
+    result.sort(Comparator.comparingInt(round -> round.number));
+    return result;
+  }
+
+  @Override
+  public List<Response> responsesTo(String gameId, int number) {
+    return new ArrayList<>(responses.getOrDefault(roundKey(gameId, number), Map.of()).values());
+  }
+
+  private static String roundKey(String gameId, int number) {
+    return gameId + "/" + number;
+  }
+}
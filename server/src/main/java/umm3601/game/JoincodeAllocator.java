@@ -0,0 +1,186 @@
+package umm3601.game;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out short, human-friendly join codes that no other game is using.
+ *
+ * Codes are made of letters and digits that are hard to confuse with each
+ * other (there's no `0`/`O` or `1`/`I`/`L`), so they're easy to read off a
+ * projector and type in. Every possible code has a bit in a bitmap that says
+ * whether it's in use, so picking a new code never needs a trip to the
+ * database: we pick a random code and atomically claim its bit, trying again
+ * in the (rare) case that it was already taken. With the default five
+ * character codes there are over 28 million of them, so even with tens of
+ * thousands of live games almost every first pick succeeds.
+ *
+ * A code belongs to its game for as long as the game is in the database,
+ * and games are never deleted (a game that's evicted from the `GameStore`
+ * can still be joined by its code), so codes are never handed out again:
+ * `release` only gives back a code whose game was never saved. The code
+ * space is sized for that: the bitmap for the 28,629,151 five character
+ * codes is about 3.4MB, random picks stay cheap until most of them are
+ * used, and after that the fallback search still finds the free ones. If
+ * games ever get deleted (or expire), that's where to release their codes;
+ * otherwise, once there are millions of games, make the codes longer.
+ *
+ * Codes that don't fit this scheme (e.g., ones a client chose for itself)
+ * aren't tracked here; the unique index on `joincode` still keeps those
+ * from being used twice.
+ */
+public class JoincodeAllocator {
+
+  static final String ALPHABET = "23456789ABCDEFGHJKMNPQRSTUVWXYZ";
+  static final int DEFAULT_CODE_LENGTH = 5;
+
+  // How many random picks to make before falling back to searching
+  // for a free code (which only matters once almost all codes are taken)
+  private static final int RANDOM_ATTEMPTS = 16;
+
+  private final int codeLength;
+  private final int codeCount;
+  // One bit per possible code, 64 codes to a `long`
+  private final AtomicLongArray inUse;
+
+  /**
+   * Construct an allocator of join codes with the default length.
+   */
+  public JoincodeAllocator() {
+    this(DEFAULT_CODE_LENGTH);
+  }
+
+  /**
+   * Construct an allocator of join codes.
+   *
+   * @param codeLength how many characters long each code is
+   */
+  public JoincodeAllocator(int codeLength) {
+    long count = (long) Math.pow(ALPHABET.length(), codeLength);
+    if (codeLength < 1 || count > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Unsupported join code length " + codeLength);
+    }
+    this.codeLength = codeLength;
+    this.codeCount = (int) count;
+    this.inUse = new AtomicLongArray((codeCount + Long.SIZE - 1) / Long.SIZE);
+  }
+
+  /**
+   * Pick a join code that isn't in use, and mark it as in use.
+   *
+   * @return the new join code
+   * @throws IllegalStateException if every code is in use
+   */
+  public String allocate() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int attempt = 0; attempt < RANDOM_ATTEMPTS; attempt++) {
+      int index = random.nextInt(codeCount);
+      if (claim(index)) {
+        return codeAt(index);
+      }
+    }
+    // Almost everything is taken, so walk the bitmap (a word
+    // at a time) from a random starting point looking for a gap.
+    int words = inUse.length();
+    int start = random.nextInt(words);
+    for (int i = 0; i < words; i++) {
+      int word = (start + i) % words;
+      // A word that is all ones (i.e., -1) has no free codes in it
+      long bits = inUse.get(word);
+      while (bits != -1L) {
+        int index = word * Long.SIZE + Long.numberOfTrailingZeros(~bits);
+        if (index >= codeCount) {
+          break;
+        }
+        if (claim(index)) {
+          return codeAt(index);
+        }
+        // Somebody else claimed that one first, so look again
+        bits = inUse.get(word);
+      }
+    }
+    throw new IllegalStateException("Every join code is in use");
+  }
+
+  /**
+   * Mark a particular join code (e.g., one that a client chose, or one
+   * that an existing game is using) as in use.
+   *
+   * @param code the join code
+   * @return `false` if the code was already in use, `true` otherwise
+   */
+  public boolean reserve(String code) {
+    int index = indexOf(code);
+    return index < 0 || claim(index);
+  }
+
+  /**
+   * Mark a join code as no longer in use, so it can be handed out again.
+   * Since games are never deleted, this is only for a code that was
+   * allocated (or reserved) for a game that then couldn't be saved.
+   *
+   * @param code the join code
+   */
+  public void release(String code) {
+    int index = indexOf(code);
+    if (index >= 0) {
+      long mask = 1L << index;
+      inUse.getAndUpdate(index / Long.SIZE, bits -> bits & ~mask);
+    }
+  }
+
+  /**
+   * Is the given join code in use?
+   *
+   * @param code the join code
+   * @return whether the code is in use; codes this allocator doesn't
+   *   track are never considered in use
+   */
+  public boolean isInUse(String code) {
+    int index = indexOf(code);
+    return index >= 0 && (inUse.get(index / Long.SIZE) & (1L << index)) != 0;
+  }
+
+  /**
+   * Atomically set the bit for a code, if it isn't already set.
+   *
+   * @return whether we were the ones to set the bit
+   */
+  private boolean claim(int index) {
+    // Shifting a `long` only uses the low six bits of the shift
+    // distance, so this is the bit for `index` within its word.
+    long mask = 1L << index;
+    long previous = inUse.getAndUpdate(index / Long.SIZE, bits -> bits | mask);
+    return (previous & mask) == 0;
+  }
+
+  private String codeAt(int index) {
+    char[] code = new char[codeLength];
+    int remaining = index;
+    for (int i = codeLength - 1; i >= 0; i--) {
+      code[i] = ALPHABET.charAt(remaining % ALPHABET.length());
+      remaining /= ALPHABET.length();
+    }
+    return new String(code);
+  }
+
+  /**
+   * The position of a code in the bitmap.
+   *
+   * @return the index of the code, or -1 if it isn't one of our codes
+   */
+  private int indexOf(String code) {
+    if (code == null || code.length() != codeLength) {
+      return -1;
+    }
+    int index = 0;
+    for (int i = 0; i < codeLength; i++) {
+      int digit = ALPHABET.indexOf(code.charAt(i));
+      if (digit < 0) {
+        return -1;
+      }
+      index = index * ALPHABET.length() + digit;
+    }
+    return index;
+  }
+}
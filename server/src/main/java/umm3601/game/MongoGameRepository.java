@@ -0,0 +1,160 @@
+package umm3601.game;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.ne;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+
+/**
+ * The games, kept in the `games` collection in MongoDB.
+ */
+public class MongoGameRepository implements GameRepository {
+
+  private static final String VERSION_KEY = "version";
+  // An (aggregation pipeline) expression for the game's next version
+  private static final Document NEXT_VERSION = new Document("$add",
+      List.of(new Document("$ifNull", List.of("$" + VERSION_KEY, 0)), 1));
+
+  private final JacksonMongoCollection<Game> gameCollection;
+
+  /**
+   * Construct a repository for the games in the given database.
+   *
+   * @param database the database containing game data
+   */
+  public MongoGameRepository(MongoDatabase database) {
+    this(JacksonMongoCollection.builder().build(
+        database,
+        "games",
+        Game.class,
+        UuidRepresentation.STANDARD));
+    // Players find games by their join code, so we need an index on `joincode`
+    // (otherwise every lookup is a scan of the whole collection). Making it a
+    // unique index also means two games can never end up with the same code.
+    // This does nothing if the index already exists.
+    gameCollection.createIndex(Indexes.ascending(GameController.JOINCODE_KEY), new IndexOptions().unique(true));
+  }
+
+  /**
+   * Construct a repository for the games in the given collection.
+   *
+   * @param gameCollection the MongoDB collection the games are stored in
+   */
+  public MongoGameRepository(JacksonMongoCollection<Game> gameCollection) {
+    this.gameCollection = gameCollection;
+  }
+
+  @Override
+  public Game findById(String id) {
+    return gameCollection.findOneById(id);
+  }
+
+  @Override
+  public Game findByJoincode(String joincode) {
+    return gameCollection.findOne(eq(GameController.JOINCODE_KEY, joincode));
+  }
+
+  @Override
+  public boolean insert(Game game) {
+    try {
+      gameCollection.insertOne(game);
+      return true;
+    } catch (MongoWriteException e) {
+      // The unique index on `joincode` means this fails if the code is taken
+      if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public Game addPlayer(String id, String player) {
+    // This is a single, atomic, round trip to the database: MongoDB finds
+    // the game (as long as the player isn't already in it), appends the
+    // player, and hands back the updated game. Since it's atomic, two players
+    // joining at the same moment can't overwrite each other.
+    //
+    // The update is an aggregation pipeline (rather than `$addToSet`) because
+    // games created without any players have `players: null`, which `$addToSet`
+    // refuses to add to; `$ifNull` treats that as an empty list instead.
+    // The player name is wrapped in `$literal` so a name that starts with `$`
+    // isn't mistaken for a field path.
+    // https://www.mongodb.com/docs/manual/reference/method/db.collection.findOneAndUpdate/
+    Bson notAlreadyPlaying = and(eq("_id", new ObjectId(id)), ne("players", player));
+    // The same update also bumps the game's version, so every change gets
+    // its own (increasing) version number.
+    List<Bson> appendPlayer = List.of(new Document("$set", new Document("players",
+        new Document("$concatArrays", List.of(
+          new Document("$ifNull", List.of("$players", List.of())),
+          List.of(new Document("$literal", player)))))
+        .append(VERSION_KEY, NEXT_VERSION)));
+    return gameCollection.findOneAndUpdate(notAlreadyPlaying, appendPlayer,
+        new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+  }
+
+  @Override
+  public Game saveRound(String id, Round round) {
+    // Like every change to a game, this is a single atomic update (that also
+    // bumps the game's version), and it only touches the round.
+    Bson setRound = Updates.combine(
+        Updates.set("round", toDocument(round)),
+        Updates.set("currentRound", round.number),
+        Updates.inc(VERSION_KEY, 1));
+    return gameCollection.findOneAndUpdate(eq("_id", new ObjectId(id)), setRound,
+        new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+  }
+
+  @Override
+  public List<String> joincodes() {
+    // One pass over the (indexed) codes
+    return gameCollection.distinct(GameController.JOINCODE_KEY, String.class).into(new ArrayList<>());
+  }
+
+  /**
+   * Turn a round into the document we store for it. This is done by hand
+   * (rather than by Jackson) since it's going into the middle of an update.
+   */
+  static Document toDocument(Round round) {
+    Document document = new Document("_id", new ObjectId(round._id))
+        .append("gameId", round.gameId)
+        .append("number", round.number)
+        .append("players", round.players == null ? null : Arrays.asList(round.players))
+        .append("judge", round.judge)
+        .append("prompt", round.prompt)
+        .append("state", round.state == null ? null : round.state.name());
+    if (round.responses != null) {
+      document.append("responses", Arrays.stream(round.responses).map(MongoGameRepository::toDocument).toList());
+    }
+    if (round.winningResponse != null) {
+      document.append("winningResponse", toDocument(round.winningResponse));
+    }
+    return document;
+  }
+
+  private static Document toDocument(Response response) {
+    return new Document("_id", response._id)
+        .append("gameId", response.gameId)
+        .append("round", response.round)
+        .append("player", response.player)
+        .append("text", response.text);
+  }
+}
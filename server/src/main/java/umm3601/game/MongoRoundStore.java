@@ -0,0 +1,98 @@
+package umm3601.game;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.UuidRepresentation;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.Sorts;
+
+/**
+ * The history of every game's rounds, and of all the responses to them,
+ * kept in MongoDB.
+ *
+ * Rounds and responses each have their own collection (indexed by game),
+ * rather than being piled up inside the game itself, so the game document
+ * only ever holds the current round. That keeps reading a game (which
+ * happens all the time) small and quick no matter how many rounds have been
+ * played, while the history is still there for anyone who asks for it.
+ */
+public class MongoRoundStore implements RoundStore {
+
+  static final String GAME_ID_KEY = "gameId";
+  static final String NUMBER_KEY = "number";
+  static final String ROUND_KEY = "round";
+
+  private final JacksonMongoCollection<Round> roundCollection;
+  private final JacksonMongoCollection<Response> responseCollection;
+
+  /**
+   * Construct a store of the rounds and responses in the given database.
+   *
+   * @param database the database containing game data
+   */
+  public MongoRoundStore(MongoDatabase database) {
+    this(
+        JacksonMongoCollection.builder().build(database, "rounds", Round.class, UuidRepresentation.STANDARD),
+        JacksonMongoCollection.builder().build(database, "responses", Response.class, UuidRepresentation.STANDARD));
+    // A game's history is read by game, so both collections are indexed
+    // by game (so reading it doesn't mean scanning everybody's).
+    roundCollection.createIndex(Indexes.ascending(GAME_ID_KEY, NUMBER_KEY), new IndexOptions().unique(true));
+    responseCollection.createIndex(Indexes.ascending(GAME_ID_KEY, ROUND_KEY));
+  }
+
+  /**
+   * Construct a store of rounds and responses.
+   *
+   * @param roundCollection the MongoDB collection the rounds are stored in
+   * @param responseCollection the MongoDB collection the responses are stored in
+   */
+  public MongoRoundStore(JacksonMongoCollection<Round> roundCollection,
+      JacksonMongoCollection<Response> responseCollection) {
+    this.roundCollection = roundCollection;
+    this.responseCollection = responseCollection;
+  }
+
+  @Override
+  public void save(Round round) {
+    Round withoutResponses = round.copy();
+    withoutResponses.responses = null;
+    roundCollection.replaceOne(eq("_id", new ObjectId(round._id)), withoutResponses,
+        new ReplaceOptions().upsert(true));
+  }
+
+  @Override
+  public void saveResponses(Response[] responses) {
+    if (responses == null || responses.length == 0) {
+      return;
+    }
+    List<ReplaceOneModel<Response>> writes = new ArrayList<>();
+    for (Response response : responses) {
+      writes.add(new ReplaceOneModel<>(eq("_id", response._id), response, new ReplaceOptions().upsert(true)));
+    }
+    responseCollection.bulkWrite(writes);
+  }
+
+  @Override
+  public List<Round> roundsOf(String gameId) {
+    return roundCollection.find(eq(GAME_ID_KEY, gameId))
+      .sort(Sorts.ascending(NUMBER_KEY))
+      .into(new ArrayList<>());
+  }
+
+  @Override
+  public List<Response> responsesTo(String gameId, int number) {
+    return responseCollection.find(and(eq(GAME_ID_KEY, gameId), eq(ROUND_KEY, number)))
+      .into(new ArrayList<>());
+  }
+}
@@ -4,6 +4,9 @@ package umm3601.game;
 public class Response {
   @SuppressWarnings("checkstyle:membername")
   public String _id;
+  // The game, and the number of the round within that game, this is a response to
+  public String gameId;
+  public int round;
   public String player;
   public String text;
 
@@ -0,0 +1,150 @@
+package umm3601.game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+
+/**
+ * Collects the responses to one round while it's open.
+ *
+ * Everybody tends to submit their response at about the same moment, so
+ * submissions never wait for each other: each one only takes the shared
+ * (read) side of a read-write lock, responses go into a concurrent map keyed
+ * by player, and `putIfAbsent` is what makes sure each player only gets one
+ * response. A running count of the responses is kept alongside, so it can
+ * be announced after every submission without counting the map. Closing
+ * takes the exclusive (write) side, so it waits (parked, not spinning) for
+ * the submissions that got in first, and keeps any more from getting in.
+ *
+ * Once the round is closed, no more responses are accepted, and `close()`
+ * hands back every response that was accepted, so they can all be saved
+ * together. A response is either accepted (and so is in what `close()`
+ * returns) or rejected (with an exception); none get lost in between.
+ */
+public class ResponseAccumulator {
+
+  private final Round round;
+  private final ConcurrentMap<String, Response> responses = new ConcurrentHashMap<>();
+  private final AtomicInteger count = new AtomicInteger();
+  // Submissions hold the read lock, and closing (or reopening) holds the
+  // write lock, so a submission that got in before the round closed makes
+  // it into the responses that `close()` returns.
+  private final ReadWriteLock closing = new ReentrantReadWriteLock();
+  // Only changed while holding the write lock, but read without any lock by `isClosed()`
+  private volatile boolean closed;
+
+  /**
+   * Construct an (empty) accumulator for a round's responses.
+   *
+   * @param round the round the responses are to
+   */
+  public ResponseAccumulator(Round round) {
+    this.round = round;
+  }
+
+  /**
+   * Get the round these are the responses to.
+   *
+   * @return the round
+   */
+  public Round round() {
+    return round;
+  }
+
+  /**
+   * Add a player's response.
+   *
+   * @param response the response, which must have its `player` set
+   * @return how many responses there are now (including this one)
+   * @throws IllegalStateException if the round has been closed, or
+   *   the player has already responded
+   */
+  public int submit(Response response) {
+    return submit(response, count -> { });
+  }
+
+  /**
+   * Add a player's response, and (if it's accepted) do something about it,
+   * like announcing it, before the round can finish closing. Anything that
+   * happens after `close()` (like announcing that the round is locked) is
+   * then sure to come after this.
+   *
+   * @param response the response, which must have its `player` set
+   * @param accepted what to do with how many responses there are now
+   *   (including this one); this runs while holding the read lock, so it
+   *   doesn't hold up any other submissions, but closing waits for it
+   * @return how many responses there are now (including this one)
+   * @throws IllegalStateException if the round has been closed, or
+   *   the player has already responded
+   */
+  public int submit(Response response, IntConsumer accepted) {
+    closing.readLock().lock();
+    try {
+      if (closed) {
+        throw new IllegalStateException("There is no round taking responses right now");
+      }
+      if (responses.putIfAbsent(response.player, response) != null) {
+        throw new IllegalStateException(response.player + " has already responded in this round");
+      }
+      int submitted = count.incrementAndGet();
+      accepted.accept(submitted);
+      return submitted;
+    } finally {
+      closing.readLock().unlock();
+    }
+  }
+
+  /**
+   * Get the number of responses so far.
+   *
+   * @return the number of responses
+   */
+  public int count() {
+    return count.get();
+  }
+
+  /**
+   * Stop accepting responses, and get all the ones that were accepted.
+   * This can be called more than once, and always returns the same responses.
+   *
+   * @return the responses, in no particular order
+   */
+  public List<Response> close() {
+    // This waits for anybody who got in before we closed
+    closing.writeLock().lock();
+    try {
+      closed = true;
+      return new ArrayList<>(responses.values());
+    } finally {
+      closing.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Start accepting responses again, after closing didn't work out (e.g.,
+   * because saving the responses failed), so the round can carry on, and
+   * be closed again later, with all of its responses.
+   */
+  public void reopen() {
+    closing.writeLock().lock();
+    try {
+      closed = false;
+    } finally {
+      closing.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Has this round stopped accepting responses?
+   *
+   * @return whether the accumulator is closed
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+}
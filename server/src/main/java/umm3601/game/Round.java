@@ -1,5 +1,7 @@
 package umm3601.game;
 
+import java.util.Arrays;
+
 import org.mongojack.Id;
 import org.mongojack.ObjectId;
 
@@ -13,11 +15,48 @@ public class Round {
   @SuppressWarnings({"MemberName"})
   public String _id;
 
+  /**
+   * Where a round is in its life: players respond while it's `OPEN`,
+   * the judge picks a winner once it's `LOCKED`, and once it's `JUDGED`
+   * the game can move on to the next round.
+   */
+  public enum State {
+    OPEN,
+    LOCKED,
+    JUDGED
+  }
+
+  // The game this is a round of, and which round of that game it is
+  // (counting from 0)
+  public String gameId;
+  public int number;
   public String[] players;
   public String judge;
   public String prompt;
-  //public Response[] responses;
-  //public Response winningResponse;
+  public State state;
+  public Response[] responses;
+  // `null` if the judge was skipped (for taking too long to choose)
+  public Response winningResponse;
+
+  /**
+   * Make a (shallow) copy of this round, e.g., to make
+   * changes to without affecting the original.
+   *
+   * @return the copy
+   */
+  public Round copy() {
+    Round copy = new Round();
+    copy._id = _id;
+    copy.gameId = gameId;
+    copy.number = number;
+    copy.players = players;
+    copy.judge = judge;
+    copy.prompt = prompt;
+    copy.state = state;
+    copy.responses = responses;
+    copy.winningResponse = winningResponse;
+    return copy;
+  }
 
   @Override
   public boolean equals(Object obj) {
@@ -30,13 +69,13 @@ public class Round {
 
   @Override
   public int hashCode() {
-    // This means that equal Users will hash the same, which is good.
+    // This means that equal Rounds will hash the same, which is good.
     return _id.hashCode();
   }
 
   @Override
   public String toString() {
-    return "A round with judge: " + judge + ", and " + players.toString();
+    return "Round " + number + " with judge: " + judge + ", and " + Arrays.toString(players);
   }
 }
 
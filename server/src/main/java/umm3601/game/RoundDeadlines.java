@@ -0,0 +1,18 @@
+package umm3601.game;
+
+import java.time.Duration;
+
+/**
+ * How long each round gets before the server moves it along by itself:
+ * how long the players get to respond before the round is locked, and
+ * how long the judge gets to choose a winner before they're skipped.
+ *
+ * @param timer keeps track of the deadlines
+ * @param responding how long a round stays open for responses, or `null` for no limit
+ * @param judging how long the judge gets to choose a winner, or `null` for no limit
+ */
+public record RoundDeadlines(RoundTimer timer, Duration responding, Duration judging) {
+
+  /** No deadlines at all; rounds only move along when somebody moves them. */
+  public static final RoundDeadlines NONE = new RoundDeadlines(null, null, null);
+}
@@ -0,0 +1,470 @@
+package umm3601.game;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+import org.bson.types.ObjectId;
+
+/**
+ * Runs the rounds of each game, as a little state machine per game:
+ *
+ *   - starting a round (with a judge and a prompt) opens it for responses,
+ *   - players (other than the judge) each submit one response,
+ *   - locking the round stops the responses and reveals them to the judge,
+ *   - the judge chooses the winning response, and
+ *   - then the next round can be started (which advances the game's
+ *     `currentRound`).
+ *
+ * The state of each game's current round is kept in memory, so the steps
+ * never have to read the game back from MongoDB. Responses are the busy
+ * part (everybody submits one, usually all at once), so submitting one
+ * doesn't take the game's lock at all; they're gathered by the round's
+ * `ResponseAccumulator` and only held in memory until the round is locked,
+ * and are then written in a single batch (to the `RoundStore`). Each change of state is one atomic update
+ * of just the game's current round (via `GameStore.saveRound`), rather than
+ * a read-modify-write of the whole game, and is also recorded in the
+ * history of the game's rounds.
+ *
+ * Rounds can also have deadlines (see `RoundDeadlines`), so a game doesn't
+ * get stuck waiting on somebody who has wandered off: a round that's been
+ * open too long is locked, and a judge who takes too long to choose a winner
+ * is skipped (the round is judged without a winner, and the next round can
+ * start with the next judge). Each change of state replaces the game's
+ * deadline with the one for its new state.
+ *
+ * A game's round state only stays in memory while it's needed: it's dropped
+ * once the round has been judged, and when the game is evicted from the
+ * `GameStore` (along with any deadline), unless the round is still taking
+ * responses, which are only in memory until it's locked. Either way, it's
+ * loaded again from the game the next time anybody does anything with it.
+ *
+ * Every step is announced (as a `GameEvent`) to whoever is following the game.
+ * The steps throw `IllegalStateException` when the round isn't in the right
+ * state for them, and `IllegalArgumentException` when the request itself
+ * doesn't make sense (e.g., a response from a player who isn't in the round).
+ */
+public class RoundEngine {
+
+  private final GameStore gameStore;
+  private final RoundStore roundStore;
+  private final GameEventPublisher eventPublisher;
+  private final RoundDeadlines deadlines;
+  // The current round of each game we've dealt with, keyed by game id
+  private final Map<String, GameRounds> games = new ConcurrentHashMap<>();
+
+  /**
+   * Construct a round engine.
+   *
+   * @param gameStore where the games (and their current rounds) are stored
+   * @param roundStore where the history of the rounds (and their responses) is stored
+   * @param eventPublisher where to announce each step of each round
+   */
+  public RoundEngine(GameStore gameStore, RoundStore roundStore, GameEventPublisher eventPublisher) {
+    this(gameStore, roundStore, eventPublisher, RoundDeadlines.NONE);
+  }
+
+  /**
+   * Construct a round engine whose rounds have deadlines.
+   *
+   * @param gameStore where the games (and their current rounds) are stored
+   * @param roundStore where the history of the rounds (and their responses) is stored
+   * @param eventPublisher where to announce each step of each round
+   * @param deadlines how long each round gets for responses, and for judging
+   */
+  public RoundEngine(GameStore gameStore, RoundStore roundStore, GameEventPublisher eventPublisher,
+      RoundDeadlines deadlines) {
+    this.gameStore = gameStore;
+    this.roundStore = roundStore;
+    this.eventPublisher = eventPublisher;
+    this.deadlines = deadlines;
+    gameStore.addEvictionListener(this::forget);
+  }
+
+  /**
+   * Start the next round of a game. The first round is round 0, and
+   * each round after that can only start once the previous one has
+   * been judged.
+   *
+   * @param gameId the id of the game
+   * @param judge the player who will judge the round, or `null` to
+   *   take turns (in the order the players joined)
+   * @param prompt the prompt the players respond to
+   * @return the new round, or `null` if there is no such game
+   */
+  public Round startRound(String gameId, String judge, String prompt) {
+    GameRounds rounds = lockRoundsOf(gameId);
+    if (rounds == null) {
+      return null;
+    }
+    try {
+      Round previous = rounds.current;
+      if (previous != null && previous.state != Round.State.JUDGED) {
+        throw new IllegalStateException("Round " + previous.number + " hasn't been judged yet");
+      }
+      Game game = gameStore.findById(gameId);
+      if (game == null) {
+        return null;
+      }
+      if (game.players == null || game.players.length == 0) {
+        throw new IllegalStateException("A game needs players before it can start a round");
+      }
+      Round round = new Round();
+      round._id = new ObjectId().toHexString();
+      round.gameId = gameId;
+      round.number = previous == null ? 0 : previous.number + 1;
+      round.players = game.players.clone();
+      round.judge = judge == null ? game.players[round.number % game.players.length] : judge;
+      if (!Arrays.asList(round.players).contains(round.judge)) {
+        throw new IllegalArgumentException("The judge, " + round.judge + ", isn't playing in this game");
+      }
+      round.prompt = prompt;
+      round.state = Round.State.OPEN;
+
+      Round started = save(gameId, rounds, round, GameEvent::roundStarted);
+      if (started != null) {
+        rounds.responses = new ResponseAccumulator(started);
+        schedule(gameId, deadlines.responding(), () -> lockIfStillOpen(gameId, started.number));
+      }
+      return started;
+    } finally {
+      rounds.lock.unlock();
+    }
+  }
+
+  /**
+   * Submit a player's response to the current round of a game. Each
+   * player (other than the judge) gets one response per round.
+   *
+   * @param gameId the id of the game
+   * @param player the player responding
+   * @param text their response
+   * @return the response, or `null` if there is no such game
+   */
+  public Response submitResponse(String gameId, String player, String text) {
+    GameRounds rounds = roundsOf(gameId);
+    if (rounds == null) {
+      return null;
+    }
+    // Not the game's lock: the accumulator sorts out players responding at the
+    // same time (or twice), and refuses responses once the round has been locked.
+    ResponseAccumulator responses = rounds.responses;
+    if (responses == null || responses.isClosed()) {
+      throw new IllegalStateException("There is no round taking responses right now");
+    }
+    Round round = responses.round();
+    if (player.equals(round.judge)) {
+      throw new IllegalArgumentException("The judge, " + player + ", doesn't get to respond");
+    }
+    if (!Arrays.asList(round.players).contains(player)) {
+      throw new IllegalArgumentException(player + " isn't playing in this round");
+    }
+    Response response = new Response();
+    response._id = new ObjectId().toHexString();
+    response.gameId = gameId;
+    response.round = round.number;
+    response.player = player;
+    response.text = text;
+    Game game = gameStore.findById(gameId);
+    // This is only in memory for now; the responses are all saved together
+    // when the round is locked. It's announced before the round can finish
+    // being locked, so nobody hears about it after hearing that the round
+    // was locked.
+    responses.submit(response, count -> eventPublisher.publish(GameEvent.responseSubmitted(game, player, count)));
+    return response;
+  }
+
+  /**
+   * Lock the current round of a game, so no more responses can be
+   * submitted and the judge can choose a winner. This is when the
+   * round's responses are saved. A round nobody responded to has nothing
+   * to judge, so it's judged (without a winner) straight away instead.
+   *
+   * @param gameId the id of the game
+   * @return the locked round (with its responses), or the judged round if
+   *   there weren't any responses, or `null` if there is no such game
+   */
+  public Round lock(String gameId) {
+    GameRounds rounds = lockRoundsOf(gameId);
+    if (rounds == null) {
+      return null;
+    }
+    try {
+      Round round = rounds.current;
+      if (round == null || round.state != Round.State.OPEN) {
+        throw new IllegalStateException("There is no round taking responses right now");
+      }
+      Round locked = round.copy();
+      locked.state = Round.State.LOCKED;
+      // Closing waits for any responses that are part way through being
+      // submitted, so everything that was accepted is in here.
+      locked.responses = rounds.responses.close().toArray(new Response[0]);
+      try {
+        return saveLocked(gameId, rounds, locked);
+      } catch (RuntimeException e) {
+        // The round is still open (as far as everybody else knows), so it
+        // has to keep taking responses, and can be locked again later
+        rounds.responses.reopen();
+        throw e;
+      }
+    } finally {
+      rounds.lock.unlock();
+    }
+  }
+
+  /**
+   * Have the judge choose the winning response for the current round of a game.
+   *
+   * @param gameId the id of the game
+   * @param judge the player choosing; this has to be the round's judge
+   * @param responseId the id of the winning response
+   * @return the judged round, or `null` if there is no such game
+   */
+  public Round chooseWinner(String gameId, String judge, String responseId) {
+    GameRounds rounds = lockRoundsOf(gameId);
+    if (rounds == null) {
+      return null;
+    }
+    try {
+      Round round = rounds.current;
+      if (round == null || round.state != Round.State.LOCKED) {
+        throw new IllegalStateException("There is no round waiting to be judged right now");
+      }
+      if (!round.judge.equals(judge)) {
+        throw new IllegalArgumentException("Only the judge, " + round.judge + ", can choose the winner");
+      }
+      Response winner = Arrays.stream(round.responses)
+        .filter(response -> response._id.equals(responseId))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("There is no response " + responseId + " in this round"));
+      Round judged = round.copy();
+      judged.state = Round.State.JUDGED;
+      judged.winningResponse = winner;
+      Round saved = save(gameId, rounds, judged, GameEvent::winnerChosen);
+      if (saved != null && deadlines.timer() != null) {
+        deadlines.timer().cancel(gameId);
+      }
+      return saved;
+    } finally {
+      rounds.lock.unlock();
+    }
+  }
+
+  /**
+   * Save a round that's just been locked (with its responses), and set the
+   * deadline for judging it; or, if nobody responded, judge it straight away.
+   * Only called while holding the lock on `rounds`.
+   *
+   * @return the saved round, or `null` if there's no such game
+   */
+  private Round saveLocked(String gameId, GameRounds rounds, Round locked) {
+    if (locked.responses.length == 0) {
+      // There's nothing for the judge to choose from, so the round ends
+      // here without a winner (like a judge who ran out of time), rather
+      // than waiting forever to be judged.
+      locked.state = Round.State.JUDGED;
+      Round judged = save(gameId, rounds, locked, GameEvent::judgeSkipped);
+      if (judged != null && deadlines.timer() != null) {
+        deadlines.timer().cancel(gameId);
+      }
+      return judged;
+    }
+    // All of the round's responses, in one batch
+    roundStore.saveResponses(locked.responses);
+    Round saved = save(gameId, rounds, locked, GameEvent::roundLocked);
+    if (saved != null) {
+      schedule(gameId, deadlines.judging(), () -> skipJudgeIfStillLocked(gameId, saved.number));
+    }
+    return saved;
+  }
+
+  /**
+   * Lock a round whose time for responses is up, as long as it's still
+   * the game's current round and nobody has locked it already.
+   */
+  private void lockIfStillOpen(String gameId, int number) {
+    GameRounds rounds = games.get(gameId);
+    if (rounds == null) {
+      return;
+    }
+    rounds.lock.lock();
+    try {
+      Round round = rounds.current;
+      if (!rounds.retired && round != null && round.number == number && round.state == Round.State.OPEN) {
+        lock(gameId);
+      }
+    } finally {
+      rounds.lock.unlock();
+    }
+  }
+
+  /**
+   * Skip the judge of a round whose time for judging is up, as long as it's
+   * still the game's current round and the judge hasn't chosen a winner yet.
+   * The round is judged without a winner.
+   */
+  private void skipJudgeIfStillLocked(String gameId, int number) {
+    GameRounds rounds = games.get(gameId);
+    if (rounds == null) {
+      return;
+    }
+    rounds.lock.lock();
+    try {
+      Round round = rounds.current;
+      if (!rounds.retired && round != null && round.number == number && round.state == Round.State.LOCKED) {
+        Round skipped = round.copy();
+        skipped.state = Round.State.JUDGED;
+        save(gameId, rounds, skipped, GameEvent::judgeSkipped);
+      }
+    } finally {
+      rounds.lock.unlock();
+    }
+  }
+
+  /**
+   * Set the game's deadline for its current round, if there is a limit.
+   */
+  private void schedule(String gameId, Duration delay, Runnable action) {
+    RoundTimer timer = deadlines.timer();
+    if (timer == null) {
+      return;
+    }
+    if (delay == null) {
+      // No limit for this state, so there shouldn't be a deadline left over from the last one
+      timer.cancel(gameId);
+    } else {
+      timer.schedule(gameId, delay, action);
+    }
+  }
+
+  /**
+   * Save the new state of a game's current round (in the game and in
+   * the history of its rounds), and announce it. Only called while
+   * holding the lock on `rounds`.
+   */
+  private Round save(String gameId, GameRounds rounds, Round round, BiFunction<Game, Round, GameEvent> event) {
+    Game updated = gameStore.saveRound(gameId, round);
+    if (updated == null) {
+      return null;
+    }
+    roundStore.save(round);
+    rounds.current = round;
+    eventPublisher.publish(event.apply(updated, round));
+    if (round.state == Round.State.JUDGED) {
+      // Nothing is waiting on this round any more, and the next one
+      // starts from the game, so there's no need to hang on to it.
+      retire(gameId, rounds);
+    }
+    return round;
+  }
+
+  /**
+   * Let go of the in-memory state of a game's rounds, when the game has
+   * been evicted from the `GameStore`, and cancel its deadline. This can be
+   * called while some other game's rounds are locked, so it never waits for
+   * this game's lock; if somebody has it, they're using the game (which puts
+   * it back in the `GameStore`), so it'll be evicted, and we'll be back, later.
+   * A round that's still taking responses is kept, since they aren't saved yet.
+   */
+  private void forget(String gameId) {
+    GameRounds rounds = games.get(gameId);
+    if (rounds == null || !rounds.lock.tryLock()) {
+      return;
+    }
+    try {
+      Round round = rounds.current;
+      if (round != null && round.state == Round.State.OPEN) {
+        return;
+      }
+      retire(gameId, rounds);
+      if (deadlines.timer() != null) {
+        deadlines.timer().cancel(gameId);
+      }
+    } finally {
+      rounds.lock.unlock();
+    }
+  }
+
+  /**
+   * Drop a game's rounds from memory. Only called while holding their lock;
+   * anybody waiting for it will see they've been retired, and load them again.
+   */
+  private void retire(String gameId, GameRounds rounds) {
+    rounds.retired = true;
+    games.remove(gameId, rounds);
+  }
+
+  /**
+   * Get the number of games whose rounds are being held in memory.
+   *
+   * @return the number of games
+   */
+  int size() {
+    return games.size();
+  }
+
+  /**
+   * Get the (in-memory) state of a game's rounds, locked (so the caller has
+   * to unlock them), loading them if need be.
+   *
+   * @return the game's rounds, or `null` if there is no such game
+   */
+  private GameRounds lockRoundsOf(String gameId) {
+    while (true) {
+      GameRounds rounds = roundsOf(gameId);
+      if (rounds == null) {
+        return null;
+      }
+      rounds.lock.lock();
+      if (!rounds.retired) {
+        return rounds;
+      }
+      // They were dropped while we waited, so (re)load them
+      rounds.lock.unlock();
+    }
+  }
+
+  /**
+   * Get the (in-memory) state of a game's rounds, loading the
+   * game's current round if this is the first we've seen of it.
+   *
+   * @return the game's rounds, or `null` if there is no such game
+   */
+  private GameRounds roundsOf(String gameId) {
+    GameRounds rounds = games.get(gameId);
+    if (rounds != null) {
+      return rounds;
+    }
+    Game game = gameStore.findById(gameId);
+    if (game == null) {
+      return null;
+    }
+    GameRounds loaded = new GameRounds();
+    loaded.current = game.round;
+    if (game.round != null && game.round.state == Round.State.OPEN) {
+      // Any responses submitted before we (re)started weren't saved,
+      // but the round can still take new ones.
+      loaded.responses = new ResponseAccumulator(game.round);
+    }
+    // Somebody else may have loaded it first, in which case we use theirs.
+    GameRounds existing = games.putIfAbsent(gameId, loaded);
+    return existing == null ? loaded : existing;
+  }
+
+  /**
+   * The in-memory state of a game's current round. Changes to these are
+   * made while holding its `lock`, but submitting a response only reads
+   * them (hence `volatile`).
+   */
+  private static final class GameRounds {
+    private final ReentrantLock lock = new ReentrantLock();
+    // Set (while holding `lock`) once these have been dropped from `games`
+    private volatile boolean retired;
+    private volatile Round current;
+    // The responses to the most recently started round (closed once it's locked)
+    private volatile ResponseAccumulator responses;
+  }
+}
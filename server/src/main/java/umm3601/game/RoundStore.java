@@ -0,0 +1,44 @@
+package umm3601.game;
+
+import java.util.List;
+
+/**
+ * The history of every game's rounds, and of all the responses to them.
+ * `MongoRoundStore` keeps these in MongoDB; `InMemoryRoundStore` keeps
+ * them in memory, so the server can run without a database.
+ */
+public interface RoundStore {
+
+  /**
+   * Save (the latest state of) a round. The round's responses
+   * aren't saved with it; they're saved with `saveResponses`.
+   *
+   * @param round the round, which must have its `_id` and `gameId` set
+   */
+  void save(Round round);
+
+  /**
+   * Save all the responses to a round, in a single batch. Saving the same
+   * responses again (e.g., when retrying after a failure) doesn't duplicate them.
+   *
+   * @param responses the responses, which must have their `_id`, `gameId`, and `round` set
+   */
+  void saveResponses(Response[] responses);
+
+  /**
+   * Get all the rounds of a game (without their responses), in order.
+   *
+   * @param gameId the id of the game
+   * @return the game's rounds
+   */
+  List<Round> roundsOf(String gameId);
+
+  /**
+   * Get all the responses to one round of a game.
+   *
+   * @param gameId the id of the game
+   * @param number the number of the round
+   * @return the responses to that round
+   */
+  List<Response> responsesTo(String gameId, int number);
+}
@@ -0,0 +1,139 @@
+package umm3601.game;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps (at most) one deadline per game, and does something when it's up.
+ *
+ * There's one scheduler thread for all the games, which only keeps track
+ * of when each deadline is; when one is up, whatever is supposed to happen
+ * is handed off to another executor (virtual threads, normally), since
+ * that usually means talking to the database. So thousands of games with
+ * deadlines cost thousands of entries in a queue, not thousands of threads.
+ *
+ * Setting a new deadline for a game replaces the old one, and cancelling
+ * a deadline removes it from the scheduler's queue right away, so moving
+ * deadlines around (which happens every time a round changes state) is cheap.
+ */
+public class RoundTimer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RoundTimer.class);
+
+  private final ScheduledExecutorService scheduler;
+  private final Executor executor;
+  // The current deadline for each game that has one, keyed by game id
+  private final Map<String, Deadline> deadlines = new ConcurrentHashMap<>();
+
+  /**
+   * Construct a timer.
+   *
+   * @param scheduler keeps track of when the deadlines are up
+   * @param executor runs whatever is supposed to happen when a deadline is up
+   */
+  public RoundTimer(ScheduledExecutorService scheduler, Executor executor) {
+    this.scheduler = scheduler;
+    this.executor = executor;
+  }
+
+  /**
+   * Construct a timer with a single (daemon) scheduler thread, which
+   * starts a new virtual thread for each deadline that is up.
+   *
+   * @return the timer
+   */
+  public static RoundTimer create() {
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+      Thread thread = new Thread(runnable, "round-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Otherwise cancelled deadlines hang around in the queue until they would have been up
+    scheduler.setRemoveOnCancelPolicy(true);
+    return new RoundTimer(scheduler, Executors.newVirtualThreadPerTaskExecutor());
+  }
+
+  /**
+   * Set the deadline for a game, replacing any deadline it already had.
+   *
+   * @param gameId the id of the game
+   * @param delay how long from now the deadline is
+   * @param action what to do when the deadline is up (unless it has been
+   *   cancelled or replaced by then)
+   */
+  public void schedule(String gameId, Duration delay, Runnable action) {
+    Deadline deadline = new Deadline(gameId, action);
+    Deadline replaced = deadlines.put(gameId, deadline);
+    if (replaced != null) {
+      replaced.cancel();
+    }
+    deadline.future = scheduler.schedule(deadline, delay.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Cancel the deadline for a game (if it has one).
+   *
+   * @param gameId the id of the game
+   */
+  public void cancel(String gameId) {
+    Deadline deadline = deadlines.remove(gameId);
+    if (deadline != null) {
+      deadline.cancel();
+    }
+  }
+
+  /**
+   * Get the number of games with a deadline coming up.
+   *
+   * @return the number of deadlines
+   */
+  public int size() {
+    return deadlines.size();
+  }
+
+  /**
+   * A deadline for one game. When it's up, it only does its thing if it's
+   * still the game's deadline; one that's been cancelled or replaced (even
+   * one that was just about to go off) does nothing.
+   */
+  private final class Deadline implements Runnable {
+    private final String gameId;
+    private final Runnable action;
+    private volatile ScheduledFuture<?> future;
+
+    private Deadline(String gameId, Runnable action) {
+      this.gameId = gameId;
+      this.action = action;
+    }
+
+    @Override
+    public void run() {
+      if (deadlines.remove(gameId, this)) {
+        executor.execute(() -> {
+          try {
+            action.run();
+          } catch (RuntimeException e) {
+            LOG.error("Deadline for game {} failed", gameId, e);
+          }
+        });
+      }
+    }
+
+    private void cancel() {
+      ScheduledFuture<?> scheduled = future;
+      if (scheduled != null) {
+        scheduled.cancel(false);
+      }
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The names and ids of all the users, grouped by company, kept in memory
+ * so that getting the users by company is a read, rather than grouping
+ * every user in MongoDB on every request.
+ *
+ * `UserController` fills this in (once) from its repository, and then
+ * keeps it up to date as it adds and deletes users (but only once it's
+ * started filling it in, so nothing piles up in here if nobody ever asks
+ * for the users by company). Users that are added or deleted some other
+ * way (e.g., by reseeding the database) aren't reflected here until the
+ * server restarts.
+ */
+final class CompanyGroups {
+
+  // Like MongoDB, users without a company sort before everybody else
+  private static final Comparator<String> COMPANY_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+  // The users' names in each company, by id (so in the order they were added,
+  // like the aggregation's `$push`), with the companies in order
+  private final NavigableMap<String, NavigableMap<String, String>> companies = new TreeMap<>(COMPANY_ORDER);
+  // The company of each user, so they can be deleted by id
+  private final Map<String, String> companyOf = new HashMap<>();
+  // The users deleted while this was being filled in, so filling it in doesn't put them back
+  private final Set<String> deletedBeforeFilled = new HashSet<>();
+  private boolean filled;
+
+  /**
+   * Fill in the groups, from the grouping of the users in the repository.
+   * Users that have been added (or deleted) since then are left that way.
+   *
+   * @param groups the users, grouped by company
+   */
+  synchronized void fill(List<UserByCompany> groups) {
+    for (UserByCompany group : groups) {
+      for (UserIdName user : group.users) {
+        if (!deletedBeforeFilled.contains(user._id) && !companyOf.containsKey(user._id)) {
+          add(user._id, user.name, group._id);
+        }
+      }
+    }
+    deletedBeforeFilled.clear();
+    filled = true;
+  }
+
+  /**
+   * Add a (new) user to their company's group.
+   *
+   * @param id the id of the user
+   * @param name the name of the user
+   * @param company the company of the user
+   */
+  synchronized void add(String id, String name, String company) {
+    companyOf.put(id, company);
+    companies.computeIfAbsent(company, ignored -> new TreeMap<>()).put(id, name);
+  }
+
+  /**
+   * Remove a (deleted) user from their company's group, and remove the
+   * group if that was the last user in it.
+   *
+   * @param id the id of the user
+   */
+  synchronized void remove(String id) {
+    if (!filled) {
+      deletedBeforeFilled.add(id);
+    }
+    if (!companyOf.containsKey(id)) {
+      return;
+    }
+    String company = companyOf.remove(id);
+    NavigableMap<String, String> users = companies.get(company);
+    users.remove(id);
+    if (users.isEmpty()) {
+      companies.remove(company);
+    }
+  }
+
+  /**
+   * Get a page of the groups.
+   *
+   * @param sortBy what to sort the groups by: `_id` (the company) or `count`
+   * @param descending whether to sort in descending (rather than ascending) order
+   * @param offset how many groups to skip
+   * @param limit the most groups to get, or 0 for all of them
+   * @param usersPerGroup the most users to include in each group (the first
+   *   ones added), or 0 for all of them; the `count` is always all of them
+   * @return the groups
+   */
+  synchronized List<UserByCompany> page(String sortBy, boolean descending, int offset, int limit,
+      int usersPerGroup) {
+    List<String> order = new ArrayList<>(descending ? companies.descendingKeySet() : companies.navigableKeySet());
+    if (sortBy.equals("count")) {
+      // This is stable, so companies with the same count stay in order by name
+      Comparator<String> byCount = Comparator.comparingInt(company -> companies.get(company).size());
+      order.sort(descending ? byCount.reversed() : byCount);
+    }
+    int from = Math.min(offset, order.size());
+    int to = limit > 0 ? Math.min(from + limit, order.size()) : order.size();
+    List<UserByCompany> page = new ArrayList<>();
+    for (String company : order.subList(from, to)) {
+      page.add(group(company, companies.get(company), usersPerGroup));
+    }
+    return page;
+  }
+
+  /**
+   * Get a page of the users in one company.
+   *
+   * @param company the company
+   * @param after only the users added after the user with this id (the last
+   *   one on the previous page), or `null` to start at the beginning
+   * @param limit the most users to get, or 0 for all of them
+   * @return the company's group, with just that page of its users, or
+   *   `null` if there's no such company
+   */
+  synchronized UserByCompany company(String company, String after, int limit) {
+    NavigableMap<String, String> users = companies.get(company);
+    if (users == null) {
+      return null;
+    }
+    UserByCompany group = group(company, after == null ? users : users.tailMap(after, false), limit);
+    group.count = users.size();
+    return group;
+  }
+
+  private static UserByCompany group(String company, NavigableMap<String, String> users, int limit) {
+    UserByCompany group = new UserByCompany();
+    group._id = company;
+    group.count = users.size();
+    group.users = new ArrayList<>();
+    for (Map.Entry<String, String> user : users.entrySet()) {
+      if (limit > 0 && group.users.size() == limit) {
+        break;
+      }
+      UserIdName idName = new UserIdName();
+      idName._id = user.getKey();
+      idName.name = user.getValue();
+      group.users.add(idName);
+    }
+    return group;
+  }
+}
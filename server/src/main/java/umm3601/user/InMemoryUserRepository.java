@@ -0,0 +1,146 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.bson.types.ObjectId;
+
+/**
+ * The users, kept in memory (in a concurrent map), for running the server,
+ * its tests, and its benchmarks without MongoDB. This behaves like
+ * `MongoUserRepository`, as far as the controllers can tell; nothing is
+ * kept once the server stops.
+ */
+public class InMemoryUserRepository implements UserRepository {
+
+  // How to sort by each of the fields users can be sorted by (see
+  // `UserQuery.SORT_KEYS`), and by `_id`. Like MongoDB, missing (`null`)
+  // values come before everything else.
+  private static final Map<String, Comparator<User>> SORTS = Map.of(
+      "_id", by(user -> user._id),
+      "name", by(user -> user.name),
+      "age", Comparator.comparingInt(user -> user.age),
+      "company", by(user -> user.company),
+      "email", by(user -> user.email),
+      "role", by(user -> user.role));
+
+  private final Map<String, User> users = new ConcurrentHashMap<>();
+
+  private static Comparator<User> by(Function<User, String> field) {
+    return Comparator.comparing(field, Comparator.nullsFirst(Comparator.naturalOrder()));
+  }
+
+  @Override
+  public User findById(String id) {
+    return users.get(checkId(id));
+  }
+
+  @Override
+  public List<User> find(UserQuery query) {
+    return new ArrayList<>(stream(query).toList());
+  }
+
+  @Override
+  public Stream<User> stream(UserQuery query) {
+    String company = UserRepository.normalizeCompany(query.company());
+    if (!UserQuery.SORT_KEYS.contains(query.sortBy())) {
+      throw new IllegalArgumentException("Users can't be sorted by " + query.sortBy());
+    }
+    // Like `MongoUserRepository`, ties are broken by `_id`, in the same direction.
+    Comparator<User> order = SORTS.get(query.sortBy()).thenComparing(SORTS.get("_id"));
+    Comparator<User> direction = query.descending() ? order.reversed() : order;
+    Stream<User> matching = users.values().stream()
+      .filter(user -> query.age() == null || user.age == query.age())
+      .filter(user -> company == null || companyMatches(user.company, company, query.companyMatch()))
+      .filter(user -> query.role() == null || query.role().equals(user.role));
+    if (query.after() != null) {
+      // Where the last user on the previous page was, whether or not they still are
+      User last = probe(query.after());
+      matching = matching.filter(user -> direction.compare(user, last) > 0);
+    }
+    matching = matching.sorted(direction);
+    return query.limit() > 0 ? matching.limit(query.limit()) : matching;
+  }
+
+  // A user with just the sort value and id in a cursor, to compare the others to
+  private static User probe(UserCursor cursor) {
+    User probe = new User();
+    probe._id = cursor.id();
+    switch (cursor.sortBy()) {
+      case "name" -> probe.name = (String) cursor.value();
+      case "age" -> probe.age = (Integer) cursor.value();
+      case "company" -> probe.company = (String) cursor.value();
+      case "email" -> probe.email = (String) cursor.value();
+      case "role" -> probe.role = (String) cursor.value();
+      default -> throw new IllegalArgumentException("Users can't be sorted by " + cursor.sortBy());
+    }
+    return probe;
+  }
+
+  // Whether a user's company matches the (normalized) company in a query, the
+  // way it would in MongoDB
+  private static boolean companyMatches(String userCompany, String company, UserQuery.CompanyMatch match) {
+    if (userCompany == null) {
+      return false;
+    }
+    String normalized = UserRepository.normalizeCompany(userCompany);
+    return switch (match) {
+      case EXACT -> normalized.equals(company);
+      case PREFIX -> normalized.startsWith(company);
+      default -> normalized.contains(company);
+    };
+  }
+
+  @Override
+  public void insert(User user) {
+    user._id = new ObjectId().toHexString();
+    users.put(user._id, user);
+  }
+
+  @Override
+  public boolean delete(String id) {
+    return users.remove(checkId(id)) != null;
+  }
+
+  @Override
+  public List<UserByCompany> groupedByCompany(String sortBy, boolean descending) {
+    Map<String, UserByCompany> groups = new LinkedHashMap<>();
+    for (User user : users.values()) {
+      UserByCompany group = groups.computeIfAbsent(user.company, company -> {
+        UserByCompany byCompany = new UserByCompany();
+        byCompany._id = company;
+        byCompany.users = new ArrayList<>();
+        return byCompany;
+      });
+      UserIdName idName = new UserIdName();
+      idName._id = user._id;
+      idName.name = user.name;
+      group.users.add(idName);
+      group.count++;
+    }
+    Comparator<UserByCompany> order = switch (sortBy) {
+      case "_id" -> Comparator.comparing(group -> group._id, Comparator.nullsFirst(Comparator.naturalOrder()));
+      case "count" -> Comparator.comparingInt(group -> group.count);
+      default -> null;
+    };
+    List<UserByCompany> result = new ArrayList<>(groups.values());
+    if (order != null) {
+      result.sort(descending ? order.reversed() : order);
+    }
+    return result;
+  }
+
+  // MongoDB won't take an id that isn't an Object ID, so neither do we.
+  private static String checkId(String id) {
+    if (!ObjectId.isValid(id)) {
+      throw new IllegalArgumentException("Not a legal Mongo Object ID: " + id);
+    }
+    return id;
+  }
+}
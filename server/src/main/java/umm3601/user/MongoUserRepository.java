@@ -0,0 +1,380 @@
+package umm3601.user;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.exists;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Filters.lt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+import static com.mongodb.client.model.Filters.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+/**
+ * The users, kept in the `users` collection in MongoDB.
+ *
+ * Each user document also has a `companyNormalized` field: the company,
+ * in lower case and without spaces at either end (see
+ * `UserRepository.normalizeCompany`). It's indexed (like the other fields
+ * users can be filtered on or sorted by; see `UserIndexes`), so searches for a
+ * company (or the start of one) are a range of that index rather than a
+ * case-insensitive regex over every user. It's never read back into `User`s.
+ */
+public class MongoUserRepository implements UserRepository {
+
+  static final String ID_KEY = "_id";
+  static final String COMPANY_NORMALIZED_KEY = "companyNormalized";
+  // How many users to get from (or update in) MongoDB at a time, when there could be a lot of them
+  private static final int STREAM_BATCH_SIZE = 100;
+  // The (keyset) sort orders for each of the fields users can be sorted by,
+  // built once, rather than for every request
+  private static final Map<String, Bson> ASCENDING_ORDERS = keysetOrders(false);
+  private static final Map<String, Bson> DESCENDING_ORDERS = keysetOrders(true);
+
+  private final JacksonMongoCollection<User> userCollection;
+  // How MongoJack turns a `User` into a document (which is how `userCollection` stores them)
+  private final Codec<User> userCodec;
+  // The same collection, as plain documents, for the things Jackson has
+  // nothing to do with (like indexes, and the normalized companies)
+  private final MongoCollection<Document> userDocuments;
+
+  /**
+   * Construct a repository for the users in the given database.
+   *
+   * @param database the database containing user data
+   */
+  public MongoUserRepository(MongoDatabase database) {
+    userCollection = JacksonMongoCollection.builder().build(
+        database,
+        "users",
+        User.class,
+        UuidRepresentation.STANDARD);
+    userCodec = userCollection.getCodecRegistry().get(User.class);
+    userDocuments = database.getCollection("users");
+    UserIndexes.create(userDocuments);
+    normalizeCompanies();
+  }
+
+  /**
+   * Fill in the normalized company of the users that were added some other
+   * way (like by the seed scripts), and so don't have one yet. This is done
+   * here in Java, with `UserRepository.normalizeCompany`, rather than with
+   * MongoDB's `$toLower` (which only lower-cases ASCII), so that searches for
+   * companies like "Ärzte" normalize to the same thing as what's stored.
+   *
+   * This is done when we start, and again before each search by company
+   * (in case users have been added some other way since then). When there's
+   * nothing to fill in, that's a single (indexed) query that finds nothing.
+   */
+  private void normalizeCompanies() {
+    List<WriteModel<Document>> updates = new ArrayList<>();
+    try (MongoCursor<Document> unnormalized = userDocuments.find(exists(COMPANY_NORMALIZED_KEY, false))
+        .projection(Projections.include(UserController.COMPANY_KEY))
+        .batchSize(STREAM_BATCH_SIZE)
+        .cursor()) {
+      while (unnormalized.hasNext()) {
+        Document user = unnormalized.next();
+        updates.add(new UpdateOneModel<>(eq(ID_KEY, user.get(ID_KEY)), Updates.set(COMPANY_NORMALIZED_KEY,
+            UserRepository.normalizeCompany(user.getString(UserController.COMPANY_KEY)))));
+        if (updates.size() == STREAM_BATCH_SIZE) {
+          userDocuments.bulkWrite(updates);
+          updates.clear();
+        }
+      }
+    }
+    if (!updates.isEmpty()) {
+      userDocuments.bulkWrite(updates);
+    }
+  }
+
+  /**
+   * Log how MongoDB would run each of the kinds of queries we make for
+   * users, and which of them (if any) it can't use an index for. This is
+   * for diagnosing slow queries; see `UserIndexes`.
+   */
+  public void logQueryPlans() {
+    UserIndexes.logPlans(userDocuments);
+  }
+
+  @Override
+  public User findById(String id) {
+    return userCollection.find(eq("_id", new ObjectId(id))).first();
+  }
+
+  @Override
+  public List<User> find(UserQuery query) {
+    // All three of the find, sort, and into steps happen "in parallel" inside the
+    // database system. So MongoDB is going to find the users with the specified
+    // properties, return those sorted in the specified manner, and put the
+    // results into an initially empty ArrayList.
+    return findIterable(query).into(new ArrayList<>());
+  }
+
+  @Override
+  public Stream<User> stream(UserQuery query) {
+    // The cursor only holds one batch of users at a time, and gets the
+    // next batch from MongoDB as the stream gets to the end of this one.
+    MongoCursor<User> cursor = findIterable(query).batchSize(STREAM_BATCH_SIZE).cursor();
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+      .onClose(cursor::close);
+  }
+
+  private FindIterable<User> findIterable(UserQuery query) {
+    if (query.company() != null) {
+      normalizeCompanies();
+    }
+    Bson filter = filter(query);
+    if (query.after() != null) {
+      // The cursor has the last user's sort value, so there's no need to look them up
+      filter = and(filter, after(query.sortBy(), query.descending(), query.after().value(),
+        new ObjectId(query.after().id())));
+    }
+    return userCollection
+      .find(filter)
+      .sort(keysetOrder(query.sortBy(), query.descending()))
+      // A limit of 0 is "no limit" to MongoDB too
+      .limit(query.limit());
+  }
+
+  @Override
+  public void insert(User user) {
+    BsonDocument document = toDocument(user);
+    // MongoDB gives the document an `_id` if it doesn't have one yet
+    userDocuments.withDocumentClass(BsonDocument.class).insertOne(document);
+    user._id = document.getObjectId(ID_KEY).getValue().toHexString();
+  }
+
+  /**
+   * Turn a (new) user into the document we store for it: the document
+   * MongoJack makes for it, plus the normalized company.
+   */
+  private BsonDocument toDocument(User user) {
+    BsonDocument document = new BsonDocument();
+    userCodec.encode(new BsonDocumentWriter(document), user, EncoderContext.builder().build());
+    if (document.isNull(ID_KEY)) {
+      document.remove(ID_KEY);
+    }
+    String normalized = UserRepository.normalizeCompany(user.company);
+    document.put(COMPANY_NORMALIZED_KEY, normalized == null ? BsonNull.VALUE : new BsonString(normalized));
+    return document;
+  }
+
+  @Override
+  public boolean delete(String id) {
+    // We should have deleted 1 or 0 users, depending on whether `id` is a valid user ID.
+    return userCollection.deleteOne(eq("_id", new ObjectId(id))).getDeletedCount() == 1;
+  }
+
+  @Override
+  public List<UserByCompany> groupedByCompany(String sortBy, boolean descending) {
+    // Convert the results of the aggregation pipeline to UserByCompany objects.
+    // It is necessary to have a Java type to convert the results to, and the
+    // JacksonMongoCollection will do this for us.
+    return userCollection
+      .aggregate(groupByCompanyPipeline(sortingOrder(sortBy, descending)), UserByCompany.class)
+      .into(new ArrayList<>());
+  }
+
+  /**
+   * Construct a Bson filter document to use in the `find` method from a query.
+   *
+   * @param query the query, whose (non-`null`) age, company, and role
+   *   the users have to match
+   * @return a Bson filter document that can be used in the `find` method
+   *   to filter the database collection of users
+   */
+  static Bson filter(UserQuery query) {
+    List<Bson> filters = new ArrayList<>(); // start with an empty list of filters
+
+    if (query.age() != null) {
+      filters.add(eq(UserController.AGE_KEY, query.age()));
+    }
+    if (query.company() != null) {
+      filters.add(companyFilter(UserRepository.normalizeCompany(query.company()), query.companyMatch()));
+    }
+    if (query.role() != null) {
+      filters.add(eq(UserController.ROLE_KEY, query.role()));
+    }
+
+    // Combine the list of filters into a single filtering document.
+    return filters.isEmpty() ? new Document() : and(filters);
+  }
+
+  /**
+   * Construct a Bson filter document for the users whose (normalized)
+   * company matches the given text. An exact match is a single key of the
+   * index on the normalized companies, and a prefix is a single range of it
+   * (from the prefix up to, but not including, the next string after
+   * everything starting with it). Only "contains" has to look at every key,
+   * though that's still the index, not the users themselves, and without
+   * having to ignore case.
+   *
+   * @param normalized the normalized text to look for
+   * @param match how the companies have to match it
+   * @return a Bson filter document
+   */
+  static Bson companyFilter(String normalized, UserQuery.CompanyMatch match) {
+    return switch (match) {
+      case EXACT -> eq(COMPANY_NORMALIZED_KEY, normalized);
+      case PREFIX -> prefixFilter(normalized);
+      default -> regex(COMPANY_NORMALIZED_KEY, Pattern.compile(Pattern.quote(normalized)));
+    };
+  }
+
+  private static Bson prefixFilter(String prefix) {
+    if (prefix.isEmpty()) {
+      return exists(COMPANY_NORMALIZED_KEY);
+    }
+    String successor = successor(prefix);
+    if (successor == null) {
+      // Nothing comes after it, but MongoDB can still use the index for a
+      // regex that's anchored at the start (and is case-sensitive)
+      return regex(COMPANY_NORMALIZED_KEY, "^" + Pattern.quote(prefix));
+    }
+    return and(gte(COMPANY_NORMALIZED_KEY, prefix), lt(COMPANY_NORMALIZED_KEY, successor));
+  }
+
+  // The first string after all the strings that start with the given
+  // (non-empty) prefix: the prefix with its last code point incremented
+  // (MongoDB compares strings by their UTF-8 bytes, which is the same as
+  // comparing their code points), or `null` if there's no next code point
+  // (or the prefix ends in half of a surrogate pair)
+  private static String successor(String prefix) {
+    int last = prefix.offsetByCodePoints(prefix.length(), -1);
+    int codePoint = prefix.codePointAt(last);
+    if (codePoint == Character.MAX_CODE_POINT
+        || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+      return null;
+    }
+    // Surrogates aren't code points of their own, so skip over them
+    int next = codePoint + 1 == Character.MIN_SURROGATE ? Character.MAX_SURROGATE + 1 : codePoint + 1;
+    return prefix.substring(0, last) + Character.toString(next);
+  }
+
+  /**
+   * Construct a Bson sorting document.
+   *
+   * @param sortBy the field to sort by
+   * @param descending whether to sort in descending order
+   * @return a Bson sorting document that can be used in the `sort` method
+   */
+  static Bson sortingOrder(String sortBy, boolean descending) {
+    return descending ? Sorts.descending(sortBy) : Sorts.ascending(sortBy);
+  }
+
+  /**
+   * Construct a Bson sorting document that sorts by the given field, and
+   * then by `_id` (in the same direction), so there are never any ties.
+   * Without that, users with the same value could come back in a different
+   * order each time, and a page could end in the middle of them.
+   *
+   * The sorting documents are built ahead of time, and only for the fields
+   * in `UserQuery.SORT_KEYS` (which all have indexes), so a request can't
+   * make MongoDB sort every user in memory.
+   *
+   * @param sortBy the field to sort by
+   * @param descending whether to sort in descending order
+   * @return a Bson sorting document that can be used in the `sort` method
+   * @throws IllegalArgumentException if users can't be sorted by `sortBy`
+   */
+  static Bson keysetOrder(String sortBy, boolean descending) {
+    Bson order = (descending ? DESCENDING_ORDERS : ASCENDING_ORDERS).get(sortBy);
+    if (order == null) {
+      throw new IllegalArgumentException("Users can't be sorted by " + sortBy);
+    }
+    return order;
+  }
+
+  private static Map<String, Bson> keysetOrders(boolean descending) {
+    return UserQuery.SORT_KEYS.stream().collect(Collectors.toUnmodifiableMap(Function.identity(),
+        sortBy -> Sorts.orderBy(sortingOrder(sortBy, descending), sortingOrder(ID_KEY, descending))
+            .toBsonDocument()));
+  }
+
+  /**
+   * Construct a Bson filter document for the users that come after the
+   * given one, in the order given by `keysetOrder`. With an index on the
+   * field being sorted by (and `_id`), MongoDB can go straight to them.
+   *
+   * @param sortBy the field being sorted by
+   * @param descending whether it's being sorted in descending order
+   * @param value the value of that field for the last user on the previous page
+   * @param id the id of that user
+   * @return a Bson filter document
+   */
+  static Bson after(String sortBy, boolean descending, Object value, ObjectId id) {
+    Bson sameValueLaterId = and(eq(sortBy, value), descending ? lt(ID_KEY, id) : gt(ID_KEY, id));
+    // MongoDB sorts users without the field (or with `null` in it) before everybody
+    // else, but comparisons like `$gt` never match them, so they're handled separately.
+    if (value == null) {
+      return descending ? sameValueLaterId : or(sameValueLaterId, ne(sortBy, null));
+    }
+    if (descending) {
+      return or(lt(sortBy, value), sameValueLaterId, eq(sortBy, null));
+    }
+    return or(gt(sortBy, value), sameValueLaterId);
+  }
+
+  /**
+   * The aggregation pipeline that groups users by company.
+   *
+   * The `UserByCompany` class is a simple class that has fields for the company
+   * name, the number of users in that company, and a list of user names and IDs
+   * (using the `UserIdName` class to store the user names and IDs).
+   * We're going to use the aggregation pipeline to group users by company, and
+   * then count the number of users in each company. We'll also collect the user
+   * names and IDs for each user in each company.
+   *
+   * @param sortingOrder how to sort the groups
+   * @return the stages of the pipeline
+   */
+  static List<Document> groupByCompanyPipeline(Bson sortingOrder) {
+    return List.of(
+      // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
+      new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
+      // Group the users by company, and count the number of users in each company
+      new Document("$group", new Document("_id", "$company")
+        // Count the number of users in each company
+        .append("count", new Document("$sum", 1))
+        // Collect the user names and IDs for each user in each company
+        .append("users", new Document("$push", new Document("_id", "$_id").append("name", "$name")))),
+      // Sort the results. Use the `sortby` query param (default "company")
+      // as the field to sort by, and the query param `sortorder` (default
+      // "asc") to specify the sort order.
+      new Document("$sort", sortingOrder)
+    );
+  }
+}
@@ -3,6 +3,8 @@ package umm3601.user;
 import org.mongojack.Id;
 import org.mongojack.ObjectId;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
 // There are two examples of suppressing CheckStyle
 // warnings in this class. If you create new classes
 // that mirror data in MongoDB and that will be managed
@@ -19,6 +21,9 @@ import org.mongojack.ObjectId;
 // check in CheckStyle so that we don't get a failed
 // build when Gradle runs CheckStyle.
 @SuppressWarnings({"VisibilityModifier"})
+// The user documents in MongoDB also have the (indexed) normalized company
+// (see `MongoUserRepository`), which is only for searching.
+@JsonIgnoreProperties({"companyNormalized"})
 public class User {
 
   @ObjectId @Id
@@ -1,27 +1,18 @@
 package umm3601.user;
 
-import static com.mongodb.client.model.Filters.and;
-import static com.mongodb.client.model.Filters.eq;
-import static com.mongodb.client.model.Filters.regex;
-
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.regex.Pattern;
-
-import org.bson.Document;
-import org.bson.UuidRepresentation;
-import org.bson.conversions.Bson;
-import org.bson.types.ObjectId;
-import org.mongojack.JacksonMongoCollection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import com.mongodb.client.MongoDatabase;
-import com.mongodb.client.model.Sorts;
-import com.mongodb.client.result.DeleteResult;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
@@ -37,16 +28,39 @@ public class UserController implements Controller {
 
   private static final String API_USERS = "/api/users";
   private static final String API_USER_BY_ID = "/api/users/{id}";
+  private static final String API_USERS_BY_COMPANY = "/api/usersByCompany";
+  private static final String API_USERS_IN_COMPANY = "/api/usersByCompany/{company}";
   static final String AGE_KEY = "age";
   static final String COMPANY_KEY = "company";
+  static final String COMPANY_MATCH_KEY = "companymatch";
   static final String ROLE_KEY = "role";
   static final String SORT_ORDER_KEY = "sortorder";
+  static final String LIMIT_KEY = "limit";
+  static final String AFTER_KEY = "after";
+  // The response header with the cursor for the next page of users
+  static final String NEXT_PAGE_HEADER = "X-Next-Page";
+  static final String STREAM_KEY = "stream";
+  static final String OFFSET_KEY = "offset";
+  static final String USER_LIMIT_KEY = "userLimit";
 
   private static final int REASONABLE_AGE_LIMIT = 150;
+  // The biggest page of users anybody can ask for at once
+  static final int MAX_PAGE_SIZE = 1000;
   private static final String ROLE_REGEX = "^(admin|editor|viewer)$";
+  private static final String COMPANY_MATCH_REGEX = "^(contains|prefix|exact)$";
   public static final String EMAIL_REGEX = "^[a-zA-Z0-9_!#$%&'*+/=?`{|}~^.-]+@[a-zA-Z0-9.-]+$";
 
-  private final JacksonMongoCollection<User> userCollection;
+  // Grouping every user by company is slow enough that it shouldn't tie up
+  // a request thread, so it gets a (virtual) thread of its own
+  private static final Executor FILL_COMPANY_GROUPS = runnable -> Thread.ofVirtual()
+    .name("fill-company-groups")
+    .start(runnable);
+
+  private final UserRepository users;
+  // The users grouped by company, which is filled in (from `users`)
+  // the first time anybody asks for them
+  private final CompanyGroups companyGroups = new CompanyGroups();
+  private CompletableFuture<CompanyGroups> filledCompanyGroups;
 
   /**
    * Construct a controller for users.
@@ -54,11 +68,16 @@ public class UserController implements Controller {
    * @param database the database containing user data
    */
   public UserController(MongoDatabase database) {
-    userCollection = JacksonMongoCollection.builder().build(
-        database,
-        "users",
-        User.class,
-        UuidRepresentation.STANDARD);
+    this(new MongoUserRepository(database));
+  }
+
+  /**
+   * Construct a controller for the users in the given repository.
+   *
+   * @param users where the users are kept
+   */
+  public UserController(UserRepository users) {
+    this.users = users;
   }
 
   /**
@@ -72,7 +91,7 @@ public class UserController implements Controller {
     User user;
 
     try {
-      user = userCollection.find(eq("_id", new ObjectId(id))).first();
+      user = users.findById(id);
     } catch (IllegalArgumentException e) {
       throw new BadRequestResponse("The requested user id wasn't a legal Mongo Object ID.");
     }
@@ -88,20 +107,36 @@ public class UserController implements Controller {
    * Set the JSON body of the response to be a list of all the users returned from the database
    * that match any requested filters and ordering
    *
+   * With the `limit` query parameter, this is (at most) that many users. A full
+   * page comes with an (opaque) cursor in the `X-Next-Page` response header;
+   * to get the next page, ask again (with the same filters and sort) with
+   * `after` set to that. A page with fewer than `limit` users is the last one.
+   *
+   * With `stream=true`, the users are written to the response one at a time
+   * as they come back from the database, instead of all being collected (and
+   * turned into one big JSON string) first, so it takes the same (small)
+   * amount of memory however many users there are. (There's no cursor for
+   * the next page, though, since the headers are sent before the users.)
+   *
    * @param ctx a Javalin HTTP context
    */
   public void getUsers(Context ctx) {
-    Bson combinedFilter = constructFilter(ctx);
-    Bson sortingOrder = constructSortingOrder(ctx);
-
-    // All three of the find, sort, and into steps happen "in parallel" inside the
-    // database system. So MongoDB is going to find the users with the specified
-    // properties, return those sorted in the specified manner, and put the
-    // results into an initially empty ArrayList.
-    ArrayList<User> matchingUsers = userCollection
-      .find(combinedFilter)
-      .sort(sortingOrder)
-      .into(new ArrayList<>());
+    UserQuery query = constructQuery(ctx);
+
+    if (Boolean.parseBoolean(ctx.queryParam(STREAM_KEY))) {
+      ctx.status(HttpStatus.OK);
+      try (Stream<User> matchingUsers = users.stream(query)) {
+        // This writes a JSON array, one user at a time, straight to the response
+        ctx.writeJsonStream(matchingUsers);
+      }
+      return;
+    }
+
+    List<User> matchingUsers = users.find(query);
+    if (query.limit() > 0 && matchingUsers.size() == query.limit()) {
+      User last = matchingUsers.get(matchingUsers.size() - 1);
+      ctx.header(NEXT_PAGE_HEADER, UserCursor.after(last, query.sortBy()).encode());
+    }
 
     // Set the JSON body of the response to be the list of users returned by the database.
     // According to the Javalin documentation (https://javalin.io/documentation#context),
@@ -113,69 +148,76 @@ public class UserController implements Controller {
   }
 
   /**
-   * Construct a Bson filter document to use in the `find` method based on the
-   * query parameters from the context.
+   * Construct the query to give the repository, based on the query
+   * parameters from the context.
    *
    * This checks for the presence of the `age`, `company`, and `role` query
-   * parameters and constructs a filter document that will match users with
-   * the specified values for those fields.
+   * parameters, which the users have to match, and of the `companymatch`
+   * query parameter, which says whether the company has to contain the given
+   * text (the default), start with it (`prefix`), or be it (`exact`), ignoring
+   * case either way. It also checks for the `sortby` and
+   * `sortorder` query parameters, which say how to sort them. If the `sortby`
+   * query parameter is not present, it defaults to "name"; it has to be one of
+   * `UserQuery.SORT_KEYS` (which are all indexed). If the `sortorder`
+   * query parameter is not present, it defaults to "asc". The `limit` and
+   * `after` query parameters (both optional) say which page of users to get;
+   * `after` has to be the cursor from a page sorted the same way.
    *
    * @param ctx a Javalin HTTP context, which contains the query parameters
-   *    used to construct the filter
-   * @return a Bson filter document that can be used in the `find` method
-   *   to filter the database collection of users
+   *    used to construct the query
+   * @return the query
    */
-  private Bson constructFilter(Context ctx) {
-    List<Bson> filters = new ArrayList<>(); // start with an empty list of filters
-
+  private UserQuery constructQuery(Context ctx) {
+    Integer targetAge = null;
     if (ctx.queryParamMap().containsKey(AGE_KEY)) {
-      int targetAge = ctx.queryParamAsClass(AGE_KEY, Integer.class)
+      targetAge = ctx.queryParamAsClass(AGE_KEY, Integer.class)
         .check(it -> it > 0, "User's age must be greater than zero; you provided " + ctx.queryParam(AGE_KEY))
         .check(it -> it < REASONABLE_AGE_LIMIT,
           "User's age must be less than " + REASONABLE_AGE_LIMIT + "; you provided " + ctx.queryParam(AGE_KEY))
         .get();
-      filters.add(eq(AGE_KEY, targetAge));
     }
-    if (ctx.queryParamMap().containsKey(COMPANY_KEY)) {
-      Pattern pattern = Pattern.compile(Pattern.quote(ctx.queryParam(COMPANY_KEY)), Pattern.CASE_INSENSITIVE);
-      filters.add(regex(COMPANY_KEY, pattern));
+    String company = ctx.queryParamMap().containsKey(COMPANY_KEY) ? ctx.queryParam(COMPANY_KEY) : null;
+    UserQuery.CompanyMatch companyMatch = UserQuery.CompanyMatch.CONTAINS;
+    if (ctx.queryParamMap().containsKey(COMPANY_MATCH_KEY)) {
+      companyMatch = UserQuery.CompanyMatch.valueOf(ctx.queryParamAsClass(COMPANY_MATCH_KEY, String.class)
+        .check(it -> it.matches(COMPANY_MATCH_REGEX), "The company match must be contains, prefix, or exact")
+        .get()
+        .toUpperCase(Locale.ROOT));
     }
+    String role = null;
     if (ctx.queryParamMap().containsKey(ROLE_KEY)) {
-      String role = ctx.queryParamAsClass(ROLE_KEY, String.class)
+      role = ctx.queryParamAsClass(ROLE_KEY, String.class)
         .check(it -> it.matches(ROLE_REGEX), "User must have a legal user role")
         .get();
-      filters.add(eq(ROLE_KEY, role));
     }
 
-    // Combine the list of filters into a single filtering document.
-    Bson combinedFilter = filters.isEmpty() ? new Document() : and(filters);
-
-    return combinedFilter;
-  }
-
-  /**
-   * Construct a Bson sorting document to use in the `sort` method based on the
-   * query parameters from the context.
-   *
-   * This checks for the presence of the `sortby` and `sortorder` query
-   * parameters and constructs a sorting document that will sort users by
-   * the specified field in the specified order. If the `sortby` query
-   * parameter is not present, it defaults to "name". If the `sortorder`
-   * query parameter is not present, it defaults to "asc".
-   *
-   * @param ctx a Javalin HTTP context, which contains the query parameters
-   *   used to construct the sorting order
-   * @return a Bson sorting document that can be used in the `sort` method
-   *  to sort the database collection of users
-   */
-  private Bson constructSortingOrder(Context ctx) {
     // Sort the results. Use the `sortby` query param (default "name")
     // as the field to sort by, and the query param `sortorder` (default
     // "asc") to specify the sort order.
     String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
+    if (!UserQuery.SORT_KEYS.contains(sortBy)) {
+      throw new BadRequestResponse("Users can only be sorted by " + String.join(", ", UserQuery.SORT_KEYS)
+        + "; you asked for " + sortBy);
+    }
     String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortorder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-    return sortingOrder;
+
+    int limit = 0;
+    if (ctx.queryParamMap().containsKey(LIMIT_KEY)) {
+      limit = ctx.queryParamAsClass(LIMIT_KEY, Integer.class)
+        .check(it -> it > 0, "The limit must be greater than zero; you provided " + ctx.queryParam(LIMIT_KEY))
+        .check(it -> it <= MAX_PAGE_SIZE,
+          "The limit can be at most " + MAX_PAGE_SIZE + "; you provided " + ctx.queryParam(LIMIT_KEY))
+        .get();
+    }
+    try {
+      UserCursor after = ctx.queryParamMap().containsKey(AFTER_KEY)
+        ? UserCursor.decode(ctx.queryParam(AFTER_KEY))
+        : null;
+      return new UserQuery(targetAge, company, companyMatch, role, sortBy, sortOrder.equals("desc"), after, limit);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("The requested `after` wasn't the cursor for a page of these users: "
+        + ctx.queryParam(AFTER_KEY));
+    }
   }
 
   /**
@@ -187,57 +229,101 @@ public class UserController implements Controller {
    * and the company name, the number of users in that company, and the list of user
    * names and IDs are stored in `UserByCompany` objects.
    *
+   * The groups are kept in memory (see `CompanyGroups`), so this doesn't
+   * group every user in the database each time; only the first request
+   * does, to fill them in.
+   *
    * @param ctx a Javalin HTTP context that provides the query parameters
    *   used to sort the results. We support either sorting by company name
    *   (in either `asc` or `desc` order) or by the number of users in the
-   *   company (`count`, also in either `asc` or `desc` order).
+   *   company (`count`, also in either `asc` or `desc` order). The `limit`
+   *   and `offset` query parameters (both optional) say which page of
+   *   companies to get, and `userLimit` the most users to list for each.
    */
   public void getUsersGroupedByCompany(Context ctx) {
     // We'll support sorting the results either by company name (in either `asc` or `desc` order)
     // or by the number of users in the company (`count`, also in either `asc` or `desc` order).
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "_id");
-    if (sortBy.equals("company")) {
-      sortBy = "_id";
-    }
+    String requestedSortBy = Objects.requireNonNullElse(ctx.queryParam("sortBy"), "_id");
+    String sortBy = requestedSortBy.equals("company") ? "_id" : requestedSortBy;
     String sortOrder = Objects.requireNonNullElse(ctx.queryParam("sortOrder"), "asc");
-    Bson sortingOrder = sortOrder.equals("desc") ?  Sorts.descending(sortBy) : Sorts.ascending(sortBy);
-
-    // The `UserByCompany` class is a simple class that has fields for the company
-    // name, the number of users in that company, and a list of user names and IDs
-    // (using the `UserIdName` class to store the user names and IDs).
-    // We're going to use the aggregation pipeline to group users by company, and
-    // then count the number of users in each company. We'll also collect the user
-    // names and IDs for each user in each company. We'll then convert the results
-    // of the aggregation pipeline to `UserByCompany` objects.
-
-    ArrayList<UserByCompany> matchingUsers = userCollection
-      // The following aggregation pipeline groups users by company, and
-      // then counts the number of users in each company. It also collects
-      // the user names and IDs for each user in each company.
-      .aggregate(
-        List.of(
-          // Project the fields we want to use in the next step, i.e., the _id, name, and company fields
-          new Document("$project", new Document("_id", 1).append("name", 1).append("company", 1)),
-          // Group the users by company, and count the number of users in each company
-          new Document("$group", new Document("_id", "$company")
-            // Count the number of users in each company
-            .append("count", new Document("$sum", 1))
-            // Collect the user names and IDs for each user in each company
-            .append("users", new Document("$push", new Document("_id", "$_id").append("name", "$name")))),
-          // Sort the results. Use the `sortby` query param (default "company")
-          // as the field to sort by, and the query param `sortorder` (default
-          // "asc") to specify the sort order.
-          new Document("$sort", sortingOrder)
-        ),
-        // Convert the results of the aggregation pipeline to UserGroupResult objects
-        // (i.e., a list of UserGroupResult objects). It is necessary to have a Java type
-        // to convert the results to, and the JacksonMongoCollection will do this for us.
-        UserByCompany.class
-      )
-      .into(new ArrayList<>());
+    boolean descending = sortOrder.equals("desc");
+    int offset = countParam(ctx, OFFSET_KEY, 0);
+    int limit = countParam(ctx, LIMIT_KEY, 1);
+    int usersPerGroup = countParam(ctx, USER_LIMIT_KEY, 1);
 
-    ctx.json(matchingUsers);
-    ctx.status(HttpStatus.OK);
+    respondWithCompanyGroups(ctx, groups -> groups.page(sortBy, descending, offset, limit, usersPerGroup));
+  }
+
+  /**
+   * Set the JSON body of the response to be the names and IDs of (a page of)
+   * the users in the company specified by the `company` parameter in the
+   * request. The `limit` and `after` query parameters (both optional) say
+   * which page of its users to get.
+   *
+   * @param ctx a Javalin HTTP context
+   */
+  public void getUsersInCompany(Context ctx) {
+    String company = ctx.pathParam("company");
+    String after = ctx.queryParamMap().containsKey(AFTER_KEY) ? ctx.queryParam(AFTER_KEY) : null;
+    int limit = countParam(ctx, LIMIT_KEY, 1);
+
+    respondWithCompanyGroups(ctx, groups -> {
+      UserByCompany group = groups.company(company, after, limit);
+      if (group == null) {
+        throw new NotFoundResponse("There are no users in the company " + company);
+      }
+      return group;
+    });
+  }
+
+  /**
+   * Respond with (some of) the groups of users by company. Once they've
+   * been filled in, that's straight from memory. Until then, this request
+   * doesn't hold on to its thread while they're filled in; Javalin sends
+   * the response once the future completes.
+   */
+  private void respondWithCompanyGroups(Context ctx, Function<CompanyGroups, Object> read) {
+    CompletableFuture<CompanyGroups> filled = whenCompanyGroupsFilled();
+    if (filled.isDone() && !filled.isCompletedExceptionally()) {
+      ctx.json(read.apply(filled.join()));
+      ctx.status(HttpStatus.OK);
+      return;
+    }
+
+    ctx.future(() -> filled.thenAccept(groups -> {
+      ctx.json(read.apply(groups));
+      ctx.status(HttpStatus.OK);
+    }));
+  }
+
+  // The groups of users by company, once they've been filled in. This only
+  // groups the users in the database the first time (or if that failed).
+  private synchronized CompletableFuture<CompanyGroups> whenCompanyGroupsFilled() {
+    if (filledCompanyGroups == null || filledCompanyGroups.isCompletedExceptionally()) {
+      filledCompanyGroups = CompletableFuture.supplyAsync(() -> {
+        companyGroups.fill(users.groupedByCompany("_id", false));
+        return companyGroups;
+      }, FILL_COMPANY_GROUPS);
+    }
+    return filledCompanyGroups;
+  }
+
+  // Whether the company groups have been (or are being) filled in, so they
+  // need to hear about users being added and deleted. Until then there's no
+  // need: filling them in will find the users as they are by then.
+  private synchronized boolean companyGroupsStarted() {
+    return filledCompanyGroups != null;
+  }
+
+  // The value of an optional query parameter that counts something (like
+  // the size of a page), which has to be at least `min`
+  private static int countParam(Context ctx, String key, int min) {
+    if (!ctx.queryParamMap().containsKey(key)) {
+      return 0;
+    }
+    return ctx.queryParamAsClass(key, Integer.class)
+      .check(it -> it >= min, "The " + key + " must be at least " + min + "; you provided " + ctx.queryParam(key))
+      .get();
   }
 
   /**
@@ -282,7 +368,10 @@ public class UserController implements Controller {
     newUser.avatar = generateAvatar(newUser.email);
 
     // Add the new user to the database
-    userCollection.insertOne(newUser);
+    users.insert(newUser);
+    if (companyGroupsStarted()) {
+      companyGroups.add(newUser._id, newUser.name, newUser.company);
+    }
 
     // Set the JSON response to be the `_id` of the newly created user.
     // This gives the client the opportunity to know the ID of the new user,
@@ -303,15 +392,16 @@ public class UserController implements Controller {
    */
   public void deleteUser(Context ctx) {
     String id = ctx.pathParam("id");
-    DeleteResult deleteResult = userCollection.deleteOne(eq("_id", new ObjectId(id)));
-    // We should have deleted 1 or 0 users, depending on whether `id` is a valid user ID.
-    if (deleteResult.getDeletedCount() != 1) {
+    if (!users.delete(id)) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new NotFoundResponse(
         "Was unable to delete ID "
           + id
           + "; perhaps illegal ID or an ID for an item not in the system?");
     }
+    if (companyGroupsStarted()) {
+      companyGroups.remove(id);
+    }
     ctx.status(HttpStatus.OK);
   }
 
@@ -367,8 +457,13 @@ public class UserController implements Controller {
    *   - `GET /api/users?age=NUMBER&company=STRING&name=STRING`
    *      - List users, filtered using query parameters
    *      - `age`, `company`, and `name` are optional query parameters
+   *      - So are `limit` and `after` (for a page of users) and `stream`
    *   - `GET /api/usersByCompany`
    *     - Get user names and IDs, possibly filtered, grouped by company
+   *     - `limit`, `offset`, and `userLimit` are optional query parameters
+   *   - `GET /api/usersByCompany/:company`
+   *     - Get the user names and IDs in one company
+   *     - `limit` and `after` are optional query parameters
    *   - `DELETE /api/users/:id`
    *      - Delete the specified user
    *   - `POST /api/users`
@@ -393,7 +488,10 @@ public class UserController implements Controller {
     server.get(API_USERS, this::getUsers);
 
     // Get the users, possibly filtered, grouped by company
-    server.get("/api/usersByCompany", this::getUsersGroupedByCompany);
+    server.get(API_USERS_BY_COMPANY, this::getUsersGroupedByCompany);
+
+    // Get (a page of) the users in one company
+    server.get(API_USERS_IN_COMPANY, this::getUsersInCompany);
 
     // Add new user with the user info being in the JSON body
     // of the HTTP request
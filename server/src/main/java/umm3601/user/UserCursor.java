@@ -0,0 +1,93 @@
+package umm3601.user;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+
+/**
+ * Where a page of users ends, so the next page can start right after it:
+ * the value of the field the users are sorted by, and the `_id`, of the
+ * last user on the page (see `UserQuery`).
+ *
+ * Clients get these as opaque strings (URL-safe base64 of a little JSON
+ * document), and just hand them back to get the next page. Since the
+ * cursor carries the sort value itself, getting the next page is a single
+ * query, and still works if that last user has been deleted in the meantime.
+ *
+ * @param sortBy the field the users are sorted by (one of `UserQuery.SORT_KEYS`)
+ * @param value the value of that field for the last user on the page
+ * @param id the id of the last user on the page
+ */
+public record UserCursor(String sortBy, Object value, String id) {
+
+  private static final String SORT_BY_KEY = "by";
+  private static final String VALUE_KEY = "value";
+  private static final String ID_KEY = "id";
+
+  /**
+   * The cursor for the page that ends with the given user.
+   *
+   * @param user the last user on the page
+   * @param sortBy the field the users are sorted by
+   * @return the cursor
+   * @throws IllegalArgumentException if users can't be sorted by `sortBy`
+   */
+  public static UserCursor after(User user, String sortBy) {
+    return new UserCursor(sortBy, sortValue(user, sortBy), user._id);
+  }
+
+  /**
+   * The value of the field we're sorting by for the given user.
+   *
+   * @throws IllegalArgumentException if users can't be sorted by `sortBy`
+   */
+  static Object sortValue(User user, String sortBy) {
+    return switch (sortBy) {
+      case "name" -> user.name;
+      case "age" -> user.age;
+      case "company" -> user.company;
+      case "email" -> user.email;
+      case "role" -> user.role;
+      default -> throw new IllegalArgumentException("Users can't be sorted by " + sortBy);
+    };
+  }
+
+  /**
+   * Turn this into the (opaque) string that clients hand back.
+   *
+   * @return the encoded cursor
+   */
+  public String encode() {
+    String json = new Document(SORT_BY_KEY, sortBy).append(VALUE_KEY, value).append(ID_KEY, id).toJson();
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Turn a string from `encode` back into a cursor.
+   *
+   * @param encoded the encoded cursor
+   * @return the cursor
+   * @throws IllegalArgumentException if that isn't a cursor we made
+   */
+  public static UserCursor decode(String encoded) {
+    Document cursor;
+    try {
+      cursor = Document.parse(new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8));
+    } catch (IllegalArgumentException | JsonParseException e) {
+      throw new IllegalArgumentException("Not a cursor for a page of users: " + encoded, e);
+    }
+    Object sortBy = cursor.get(SORT_BY_KEY);
+    Object value = cursor.get(VALUE_KEY);
+    Object id = cursor.get(ID_KEY);
+    // The value has to be the kind of thing that's in the field being sorted by
+    boolean legalValue = "age".equals(sortBy) ? value instanceof Integer : value == null || value instanceof String;
+    if (!(sortBy instanceof String key) || !UserQuery.SORT_KEYS.contains(key) || !legalValue
+        || !(id instanceof String hex) || !ObjectId.isValid(hex)) {
+      throw new IllegalArgumentException("Not a cursor for a page of users: " + encoded);
+    }
+    return new UserCursor(key, value, hex);
+  }
+}
@@ -0,0 +1,148 @@
+package umm3601.user;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mongodb.ExplainVerbosity;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.Indexes;
+
+/**
+ * The indexes on the `users` collection, and the shapes of the queries
+ * they're for. `MongoUserRepository` creates all of them when it starts
+ * (which does nothing for the ones that are already there), so adding a
+ * new way to filter or sort users should come with a new index here.
+ *
+ * Every query sorts by some field and then by `_id` (see
+ * `MongoUserRepository.keysetOrder`), so every index ends with `_id`.
+ * MongoDB can walk an index backwards, so the same indexes serve both
+ * sort orders.
+ */
+final class UserIndexes {
+
+  private static final Logger LOG = LoggerFactory.getLogger(UserIndexes.class);
+
+  // The fields users can be filtered on exactly; each gets an index with
+  // the default sort (by name) after it
+  static final List<String> FILTER_KEYS = List.of(
+      UserController.AGE_KEY, UserController.ROLE_KEY, MongoUserRepository.COMPANY_NORMALIZED_KEY);
+
+  private static final String DEFAULT_SORT_KEY = "name";
+  // Any (legal) values will do for the query shapes; only the fields matter
+  private static final int SAMPLE_AGE = 25;
+  private static final String SAMPLE_ROLE = "viewer";
+  private static final String SAMPLE_COMPANY = "umm";
+
+  static final List<IndexModel> INDEXES = indexes();
+  // Indexes we used to create, which the ones above have made redundant (the
+  // one on just the normalized company is the start of the one with the name)
+  static final List<String> OBSOLETE_INDEXES = List.of(MongoUserRepository.COMPANY_NORMALIZED_KEY + "_1");
+  static final List<UserQuery> QUERY_SHAPES = queryShapes();
+
+  private UserIndexes() {
+  }
+
+  private static List<IndexModel> indexes() {
+    List<IndexModel> indexes = new ArrayList<>();
+    // Sorting by any one field, with or without a filter on some other field
+    for (String key : UserQuery.SORT_KEYS) {
+      indexes.add(new IndexModel(Indexes.ascending(key, MongoUserRepository.ID_KEY)));
+    }
+    // Filtering on one field and sorting by name, so the matching users
+    // are next to each other in the index, and already sorted
+    for (String key : FILTER_KEYS) {
+      indexes.add(new IndexModel(Indexes.ascending(key, DEFAULT_SORT_KEY, MongoUserRepository.ID_KEY)));
+    }
+    return List.copyOf(indexes);
+  }
+
+  private static List<UserQuery> queryShapes() {
+    List<UserQuery> shapes = new ArrayList<>();
+    for (String key : UserQuery.SORT_KEYS) {
+      shapes.add(new UserQuery(null, null, null, key, false));
+    }
+    shapes.add(new UserQuery(SAMPLE_AGE, null, null, DEFAULT_SORT_KEY, false));
+    shapes.add(new UserQuery(null, null, null, SAMPLE_ROLE, DEFAULT_SORT_KEY, false, null, 0));
+    for (UserQuery.CompanyMatch match : UserQuery.CompanyMatch.values()) {
+      shapes.add(new UserQuery(null, SAMPLE_COMPANY, match, null, DEFAULT_SORT_KEY, false, null, 0));
+    }
+    return List.copyOf(shapes);
+  }
+
+  /**
+   * Create all the indexes on the given collection of users, and drop the
+   * obsolete ones (which MongoDB would otherwise keep up to date on every
+   * write, for nothing).
+   *
+   * @param users the `users` collection
+   */
+  static void create(MongoCollection<Document> users) {
+    users.createIndexes(INDEXES);
+    for (Document index : users.listIndexes()) {
+      if (OBSOLETE_INDEXES.contains(index.getString("name"))) {
+        users.dropIndex(index.getString("name"));
+      }
+    }
+  }
+
+  /**
+   * Ask MongoDB how it would run each of the query shapes (without actually
+   * running them), and summarize each of its plans as the list of its stages,
+   * from the top down (with the index for index scans), like
+   * `[FETCH, IXSCAN name_1__id_1]`.
+   *
+   * @param users the `users` collection
+   * @return the stages of the plan for each query shape
+   */
+  static Map<UserQuery, List<String>> explain(MongoCollection<Document> users) {
+    Map<UserQuery, List<String>> plans = new LinkedHashMap<>();
+    for (UserQuery shape : QUERY_SHAPES) {
+      Document explanation = users
+        .find(MongoUserRepository.filter(shape))
+        .sort(MongoUserRepository.keysetOrder(shape.sortBy(), shape.descending()))
+        .explain(ExplainVerbosity.QUERY_PLANNER);
+      Document winningPlan = explanation.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+      List<String> stages = new ArrayList<>();
+      addStages(winningPlan, stages);
+      plans.put(shape, stages);
+    }
+    return plans;
+  }
+
+  /**
+   * Log the plan for each of the query shapes, with a warning for any that
+   * would scan the whole collection, or sort the users in memory.
+   *
+   * @param users the `users` collection
+   */
+  static void logPlans(MongoCollection<Document> users) {
+    explain(users).forEach((shape, stages) -> {
+      if (stages.contains("COLLSCAN") || stages.contains("SORT")) {
+        LOG.warn("Query {} has no index to use: {}", shape, stages);
+      } else {
+        LOG.info("Query {}: {}", shape, stages);
+      }
+    });
+  }
+
+  // Depending on the version of MongoDB, the stages can be nested in different
+  // places (like `inputStage`, `inputStages`, or `queryPlan`), so this just
+  // looks everywhere.
+  private static void addStages(Object plan, List<String> stages) {
+    if (plan instanceof Document document) {
+      if (document.get("stage") instanceof String stage) {
+        stages.add(document.containsKey("indexName") ? stage + " " + document.getString("indexName") : stage);
+      }
+      document.values().forEach(value -> addStages(value, stages));
+    } else if (plan instanceof List<?> list) {
+      list.forEach(value -> addStages(value, stages));
+    }
+  }
+}
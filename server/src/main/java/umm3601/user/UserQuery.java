@@ -0,0 +1,92 @@
+package umm3601.user;
+
+import java.util.List;
+
+/**
+ * What to look for when listing users, how to sort them, and which page
+ * of them to get. Each of the filters is optional (`null` means "any").
+ *
+ * Pages are found by "keyset" (rather than by skipping some number of users):
+ * the next page is the users that come after the last user on the previous
+ * page, in the sort order (with ties broken by `_id`). So getting page 1000
+ * costs the same as getting page 1, and users added or deleted in the
+ * meantime don't make pages skip or repeat anybody.
+ *
+ * @param age only users of exactly this age
+ * @param company only users whose company matches this (ignoring case, and
+ *   spaces at either end), as `companyMatch` says
+ * @param companyMatch how the users' companies have to match `company`
+ * @param role only users with this role
+ * @param sortBy the field to sort by (one of `SORT_KEYS`)
+ * @param descending whether to sort in descending (rather than ascending) order
+ * @param after only users that come after where this cursor says the
+ *   previous page ended, or `null` to start at the beginning
+ * @param limit the most users to get, or 0 for all of them
+ */
+public record UserQuery(Integer age, String company, CompanyMatch companyMatch, String role, String sortBy,
+    boolean descending, UserCursor after, int limit) {
+
+  /**
+   * A query for the given page of users.
+   *
+   * @throws IllegalArgumentException if `after` is from a page sorted by some other field
+   */
+  public UserQuery {
+    if (after != null && !after.sortBy().equals(sortBy)) {
+      throw new IllegalArgumentException("The cursor is for users sorted by " + after.sortBy() + ", not " + sortBy);
+    }
+  }
+
+  /**
+   * The fields users can be sorted by. There's an index for each of them
+   * (see `UserIndexes`), so MongoDB never has to sort the users itself;
+   * sorting by anything else is an `IllegalArgumentException`.
+   */
+  public static final List<String> SORT_KEYS = List.of(
+      "name", UserController.AGE_KEY, UserController.COMPANY_KEY, "email", UserController.ROLE_KEY);
+
+  /**
+   * How a user's company has to match the company in a query. Only
+   * `CONTAINS` has to look at every company; the others are a single
+   * range of the index on (normalized) companies.
+   */
+  public enum CompanyMatch {
+    /** The company contains the text anywhere. */
+    CONTAINS,
+    /** The company starts with the text. */
+    PREFIX,
+    /** The company is the text. */
+    EXACT
+  }
+
+  /**
+   * A page of the matching users, where the company only has to contain
+   * the text in the query.
+   *
+   * @param age only users of exactly this age
+   * @param company only users whose company contains this (ignoring case)
+   * @param role only users with this role
+   * @param sortBy the field to sort by
+   * @param descending whether to sort in descending (rather than ascending) order
+   * @param after only users that come after where this cursor says the previous page ended, or `null`
+   * @param limit the most users to get, or 0 for all of them
+   */
+  public UserQuery(Integer age, String company, String role, String sortBy, boolean descending,
+      UserCursor after, int limit) {
+    this(age, company, CompanyMatch.CONTAINS, role, sortBy, descending, after, limit);
+  }
+
+  /**
+   * A query for all the matching users, without paging, where the company
+   * only has to contain the text in the query.
+   *
+   * @param age only users of exactly this age
+   * @param company only users whose company contains this (ignoring case)
+   * @param role only users with this role
+   * @param sortBy the field to sort by
+   * @param descending whether to sort in descending (rather than ascending) order
+   */
+  public UserQuery(Integer age, String company, String role, String sortBy, boolean descending) {
+    this(age, company, CompanyMatch.CONTAINS, role, sortBy, descending, null, 0);
+  }
+}
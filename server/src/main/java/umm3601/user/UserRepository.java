@@ -0,0 +1,81 @@
+package umm3601.user;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Where the users are kept. `MongoUserRepository` keeps them in MongoDB;
+ * `InMemoryUserRepository` keeps them in memory, so the server (and its
+ * tests and benchmarks) can run without a database, and we can tell how
+ * much of the time goes to the controller and how much to MongoDB.
+ *
+ * User ids are Mongo Object IDs (as hex strings) either way, and the
+ * methods that take an id throw `IllegalArgumentException` if it isn't one.
+ */
+public interface UserRepository {
+
+  /**
+   * Get the user with the given id.
+   *
+   * @param id the id of the user
+   * @return the user, or `null` if there is no such user
+   */
+  User findById(String id);
+
+  /**
+   * Get the users matching a query, in the order it asks for.
+   *
+   * @param query the filters, sort order, and page
+   * @return the matching users
+   * @throws IllegalArgumentException if users can't be sorted by the query's `sortBy`
+   */
+  List<User> find(UserQuery query);
+
+  /**
+   * Get the users matching a query, in the order it asks for, one at a
+   * time (so they never all have to be in memory at once). The stream
+   * has to be closed once we're done with it.
+   *
+   * @param query the filters, sort order, and page
+   * @return the matching users
+   * @throws IllegalArgumentException if users can't be sorted by the query's `sortBy`
+   */
+  Stream<User> stream(UserQuery query);
+
+  /**
+   * Add a new user. This sets the user's `_id`.
+   *
+   * @param user the new user
+   */
+  void insert(User user);
+
+  /**
+   * Delete the user with the given id.
+   *
+   * @param id the id of the user
+   * @return whether there was such a user to delete
+   */
+  boolean delete(String id);
+
+  /**
+   * Get the names and ids of all the users, grouped by company.
+   *
+   * @param sortBy what to sort the groups by: `_id` (the company) or `count`
+   * @param descending whether to sort in descending (rather than ascending) order
+   * @return the groups
+   */
+  List<UserByCompany> groupedByCompany(String sortBy, boolean descending);
+
+  /**
+   * Normalize a company (or some text to look for in companies), so that
+   * searches for it can ignore case, and spaces at either end. Companies
+   * are compared, and indexed, in this form.
+   *
+   * @param company the company, or `null`
+   * @return the normalized company, or `null` if there wasn't one
+   */
+  static String normalizeCompany(String company) {
+    return company == null ? null : company.strip().toLowerCase(Locale.ROOT);
+  }
+}
@@ -0,0 +1,59 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.javalin.websocket.WsContext;
+import umm3601.game.Game;
+import umm3601.game.GameEvent;
+
+class GameEventBroadcasterSpec {
+
+  private static final String GAME_ONE = "game-one";
+  private static final String GAME_TWO = "game-two";
+  private static final int QUEUE_CAPACITY = 4;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private GameEventBroadcaster broadcaster;
+  private WsContext kristin;
+  private WsContext nic;
+
+  @BeforeEach
+  void setupEach() {
+    GameRooms gameRooms = new GameRooms(QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.DROP_OLDEST, Runnable::run,
+      new WebSocketMetrics());
+    broadcaster = new GameEventBroadcaster(gameRooms, mapper);
+    kristin = mock(WsContext.class);
+    nic = mock(WsContext.class);
+    gameRooms.subscribe(GAME_ONE, kristin);
+    gameRooms.subscribe(GAME_TWO, nic);
+  }
+
+  @Test
+  void publishSendsTheEventAsJsonToThatGame() throws Exception {
+    Game game = new Game();
+    game._id = GAME_ONE;
+    game.players = new String[]{"Kristin", "Jeff"};
+    game.version = 2;
+    broadcaster.publish(GameEvent.playerJoined(game, "Jeff"));
+
+    List<String> sent = OutboundQueueSpec.sentTo(kristin);
+    assertEquals(1, sent.size());
+    JsonNode event = mapper.readTree(sent.get(0));
+    assertEquals("PLAYER_JOINED", event.get("type").asText());
+    assertEquals(GAME_ONE, event.get("gameId").asText());
+    assertEquals(2, event.get("version").asLong());
+    assertEquals("Jeff", event.get("data").get("player").asText());
+    assertEquals("/players/-", event.get("patch").get(0).get("path").asText());
+    assertTrue(OutboundQueueSpec.sentTo(nic).isEmpty());
+  }
+}
@@ -0,0 +1,139 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.websocket.WsContext;
+
+class GameRoomsSpec {
+
+  private static final String GAME_ONE = "game-one";
+  private static final String GAME_TWO = "game-two";
+  private static final int QUEUE_CAPACITY = 4;
+
+  private GameRooms gameRooms;
+  private WsContext kristin;
+  private WsContext jeff;
+  private WsContext nic;
+
+  @BeforeEach
+  void setupEach() {
+    // Running the senders' tasks right away (rather than on another thread)
+    // lets us check what was sent as soon as `broadcast` returns.
+    gameRooms = new GameRooms(QUEUE_CAPACITY, OutboundQueue.OverflowPolicy.DROP_OLDEST, Runnable::run,
+      new WebSocketMetrics());
+    kristin = mock(WsContext.class);
+    jeff = mock(WsContext.class);
+    nic = mock(WsContext.class);
+  }
+
+  @Test
+  void broadcastOnlyReachesMembersOfThatGame() {
+    gameRooms.subscribe(GAME_ONE, kristin);
+    gameRooms.subscribe(GAME_ONE, jeff);
+    gameRooms.subscribe(GAME_TWO, nic);
+
+    gameRooms.broadcast(GAME_ONE, "hello");
+
+    assertEquals(List.of("hello"), OutboundQueueSpec.sentTo(kristin));
+    assertEquals(List.of("hello"), OutboundQueueSpec.sentTo(jeff));
+    assertTrue(OutboundQueueSpec.sentTo(nic).isEmpty());
+  }
+
+  @Test
+  void broadcastToGameWithNoFollowersSendsNothing() {
+    gameRooms.subscribe(GAME_ONE, kristin);
+
+    gameRooms.broadcast(GAME_TWO, "hello");
+
+    assertTrue(OutboundQueueSpec.sentTo(kristin).isEmpty());
+    assertTrue(gameRooms.members(GAME_TWO).isEmpty());
+  }
+
+  @Test
+  void subscribingToAnotherGameMovesTheClient() {
+    gameRooms.subscribe(GAME_ONE, kristin);
+    gameRooms.subscribe(GAME_TWO, kristin);
+
+    assertTrue(gameRooms.members(GAME_ONE).isEmpty());
+    assertEquals(1, gameRooms.members(GAME_TWO).size());
+    // The now empty room for the first game should be gone
+    assertEquals(1, gameRooms.roomCount());
+  }
+
+  @Test
+  void subscribingTwiceToTheSameGameIsHarmless() {
+    gameRooms.subscribe(GAME_ONE, kristin);
+    gameRooms.subscribe(GAME_ONE, kristin);
+
+    assertEquals(1, gameRooms.members(GAME_ONE).size());
+  }
+
+  @Test
+  void unsubscribeRemovesClientAndEmptyRoom() {
+    gameRooms.subscribe(GAME_ONE, kristin);
+    gameRooms.subscribe(GAME_ONE, jeff);
+
+    gameRooms.unsubscribe(kristin);
+    assertEquals(1, gameRooms.members(GAME_ONE).size());
+    assertEquals(1, gameRooms.roomCount());
+
+    gameRooms.unsubscribe(jeff);
+    assertTrue(gameRooms.members(GAME_ONE).isEmpty());
+    assertEquals(0, gameRooms.roomCount());
+  }
+
+  @Test
+  void movingToAnotherGameKeepsTheClientsQueue() {
+    gameRooms.subscribe(GAME_ONE, kristin);
+    gameRooms.subscribe(GAME_TWO, kristin);
+
+    gameRooms.broadcast(GAME_TWO, "hello");
+
+    assertEquals(List.of("hello"), OutboundQueueSpec.sentTo(kristin));
+  }
+
+  @Test
+  void unsubscribedClientsGetNoMoreMessages() {
+    gameRooms.subscribe(GAME_ONE, kristin);
+    gameRooms.unsubscribe(kristin);
+
+    gameRooms.broadcast(GAME_ONE, "hello");
+
+    assertTrue(OutboundQueueSpec.sentTo(kristin).isEmpty());
+  }
+
+  @Test
+  void broadcastIsEncodedOnceForAllMembers() {
+    gameRooms.subscribe(GAME_ONE, kristin);
+    gameRooms.subscribe(GAME_ONE, jeff);
+
+    gameRooms.broadcast(GAME_ONE, "hello");
+
+    ArgumentCaptor<ByteBuffer> toKristin = ArgumentCaptor.forClass(ByteBuffer.class);
+    ArgumentCaptor<ByteBuffer> toJeff = ArgumentCaptor.forClass(ByteBuffer.class);
+    verify(kristin).send(toKristin.capture());
+    verify(jeff).send(toJeff.capture());
+    // Each recipient gets its own read-only view of the same bytes
+    assertTrue(toKristin.getValue().isReadOnly());
+    assertTrue(toKristin.getValue().equals(toJeff.getValue()));
+  }
+
+  @Test
+  void unsubscribeOfUnknownClientIsHarmless() {
+    gameRooms.subscribe(GAME_ONE, kristin);
+
+    gameRooms.unsubscribe(nic);
+
+    assertEquals(1, gameRooms.members(GAME_ONE).size());
+  }
+}
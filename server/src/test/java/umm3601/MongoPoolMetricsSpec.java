@@ -0,0 +1,80 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionClosedEvent;
+import com.mongodb.event.ConnectionCreatedEvent;
+
+@SuppressWarnings({ "MagicNumber" })
+class MongoPoolMetricsSpec {
+
+  private static ConnectionCheckedOutEvent checkedOutAfter(long micros) {
+    ConnectionCheckedOutEvent event = mock(ConnectionCheckedOutEvent.class);
+    when(event.getElapsedTime(TimeUnit.MICROSECONDS)).thenReturn(micros);
+    return event;
+  }
+
+  private static ConnectionCheckOutFailedEvent failedAfter(long micros, ConnectionCheckOutFailedEvent.Reason reason) {
+    ConnectionCheckOutFailedEvent event = mock(ConnectionCheckOutFailedEvent.class);
+    when(event.getElapsedTime(TimeUnit.MICROSECONDS)).thenReturn(micros);
+    when(event.getReason()).thenReturn(reason);
+    return event;
+  }
+
+  @Test
+  void countersStartAtZero() {
+    Map<String, Long> snapshot = new MongoPoolMetrics().snapshot();
+
+    snapshot.values().forEach(value -> assertEquals(0L, value));
+  }
+
+  @Test
+  void tracksConnectionsInUseAndHowLongCheckOutsWait() {
+    MongoPoolMetrics metrics = new MongoPoolMetrics();
+    metrics.connectionCreated(mock(ConnectionCreatedEvent.class));
+    metrics.connectionCreated(mock(ConnectionCreatedEvent.class));
+    for (int i = 0; i < 4; i++) {
+      metrics.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+    }
+    metrics.connectionCheckedOut(checkedOutAfter(10));
+    metrics.connectionCheckedOut(checkedOutAfter(30));
+    metrics.connectionCheckedIn(mock(ConnectionCheckedInEvent.class));
+    // One check out is still waiting, and one gave up
+    metrics.connectionCheckOutFailed(failedAfter(200, ConnectionCheckOutFailedEvent.Reason.TIMEOUT));
+    metrics.connectionClosed(mock(ConnectionClosedEvent.class));
+
+    Map<String, Long> snapshot = metrics.snapshot();
+    assertEquals(1L, snapshot.get("connectionsOpen"));
+    assertEquals(4L, snapshot.get("checkOutsStarted"));
+    assertEquals(2L, snapshot.get("checkedOut"));
+    assertEquals(1L, snapshot.get("checkOutsFailed"));
+    assertEquals(1L, snapshot.get("checkOutTimeouts"));
+    assertEquals(1L, snapshot.get("waiting"));
+    assertEquals(1L, snapshot.get("inUse"));
+    assertEquals(2L, snapshot.get("maxInUse"));
+    assertEquals(240L, snapshot.get("waitMicrosTotal"));
+    assertEquals(200L, snapshot.get("waitMicrosMax"));
+    assertEquals(80L, snapshot.get("waitMicrosAverage"));
+  }
+
+  @Test
+  void onlyTimeoutsCountAsTimeouts() {
+    MongoPoolMetrics metrics = new MongoPoolMetrics();
+    metrics.connectionCheckOutStarted(mock(ConnectionCheckOutStartedEvent.class));
+    metrics.connectionCheckOutFailed(failedAfter(5, ConnectionCheckOutFailedEvent.Reason.CONNECTION_ERROR));
+
+    assertEquals(1L, metrics.snapshot().get("checkOutsFailed"));
+    assertEquals(0L, metrics.snapshot().get("checkOutTimeouts"));
+  }
+}
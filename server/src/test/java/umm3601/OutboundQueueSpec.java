@@ -0,0 +1,191 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import io.javalin.websocket.WsContext;
+
+@SuppressWarnings({ "MagicNumber" })
+class OutboundQueueSpec {
+
+  private WsContext client;
+  private WebSocketMetrics metrics;
+
+  // Tasks handed to our "executor". Holding on to them (rather than
+  // running them right away) lets us pretend the client is stalled
+  // and let the queue fill up.
+  private List<Runnable> tasks;
+
+  @BeforeEach
+  void setupEach() {
+    client = mock(WsContext.class);
+    metrics = new WebSocketMetrics();
+    tasks = new ArrayList<>();
+  }
+
+  private OutboundQueue queueWith(int capacity, OutboundQueue.OverflowPolicy policy) {
+    return new OutboundQueue(client, capacity, policy, tasks::add, metrics);
+  }
+
+  private void runTasks() {
+    List<Runnable> toRun = new ArrayList<>(tasks);
+    tasks.clear();
+    toRun.forEach(Runnable::run);
+  }
+
+  /**
+   * Decode everything that was sent to the (mock) client, in order.
+   */
+  static List<String> sentTo(WsContext client) {
+    ArgumentCaptor<ByteBuffer> sent = ArgumentCaptor.forClass(ByteBuffer.class);
+    verify(client, atLeast(0)).send(sent.capture());
+    return sent.getAllValues().stream()
+      .map(buffer -> StandardCharsets.UTF_8.decode(buffer.duplicate()).toString())
+      .toList();
+  }
+
+  @Test
+  void sendsMessagesInOrder() {
+    OutboundQueue queue = queueWith(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    queue.offer(GameRooms.encode("one"));
+    queue.offer(GameRooms.encode("two"));
+    queue.offer(GameRooms.encode("three"));
+
+    // Only one drain should be scheduled no matter how many messages are offered
+    assertEquals(1, tasks.size());
+    runTasks();
+
+    assertEquals(List.of("one", "two", "three"), sentTo(client));
+    assertEquals(0, queue.size());
+    assertEquals(3L, metrics.snapshot().get("framesOut"));
+  }
+
+  @Test
+  void offerDoesNotSendOnTheCallingThread() {
+    OutboundQueue queue = queueWith(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    queue.offer(GameRooms.encode("one"));
+
+    verify(client, never()).send(any(ByteBuffer.class));
+    assertEquals(1, queue.size());
+  }
+
+  @Test
+  void sendingDoesNotConsumeTheSharedBuffer() {
+    ByteBuffer shared = GameRooms.encode("one");
+    OutboundQueue queue = queueWith(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    queue.offer(shared);
+    runTasks();
+
+    ArgumentCaptor<ByteBuffer> sent = ArgumentCaptor.forClass(ByteBuffer.class);
+    verify(client).send(sent.capture());
+    // Sending a buffer moves its position, so the client must get
+    // its own view of the bytes rather than the shared buffer itself.
+    assertTrue(sent.getValue() != shared);
+    assertTrue(sent.getValue().isReadOnly());
+    assertEquals(0, shared.position());
+  }
+
+  @Test
+  void schedulesANewDrainAfterTheLastOneFinishes() {
+    OutboundQueue queue = queueWith(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    queue.offer(GameRooms.encode("one"));
+    runTasks();
+    queue.offer(GameRooms.encode("two"));
+    runTasks();
+
+    assertEquals(List.of("one", "two"), sentTo(client));
+  }
+
+  @Test
+  void dropOldestKeepsTheNewestMessages() {
+    OutboundQueue queue = queueWith(2, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    queue.offer(GameRooms.encode("one"));
+    queue.offer(GameRooms.encode("two"));
+    queue.offer(GameRooms.encode("three"));
+    runTasks();
+
+    assertEquals(List.of("two", "three"), sentTo(client));
+    assertEquals(1L, metrics.snapshot().get("framesDropped"));
+  }
+
+  @Test
+  void coalesceKeepsOnlyTheNewestMessage() {
+    OutboundQueue queue = queueWith(2, OutboundQueue.OverflowPolicy.COALESCE);
+    queue.offer(GameRooms.encode("one"));
+    queue.offer(GameRooms.encode("two"));
+    queue.offer(GameRooms.encode("three"));
+    runTasks();
+
+    assertEquals(List.of("three"), sentTo(client));
+    assertEquals(2L, metrics.snapshot().get("framesDropped"));
+  }
+
+  @Test
+  void disconnectClosesTheClient() {
+    OutboundQueue queue = queueWith(2, OutboundQueue.OverflowPolicy.DISCONNECT);
+    queue.offer(GameRooms.encode("one"));
+    queue.offer(GameRooms.encode("two"));
+    queue.offer(GameRooms.encode("three"));
+
+    verify(client).closeSession(OutboundQueue.POLICY_VIOLATION_CODE, "Client fell too far behind");
+    assertTrue(queue.isClosed());
+
+    queue.offer(GameRooms.encode("four"));
+    runTasks();
+    assertTrue(sentTo(client).isEmpty());
+    assertEquals(4L, metrics.snapshot().get("framesDropped"));
+  }
+
+  @Test
+  void failedSendClosesTheQueue() {
+    doThrow(new IllegalStateException("Connection closed")).when(client).send(any(ByteBuffer.class));
+    OutboundQueue queue = queueWith(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    queue.offer(GameRooms.encode("one"));
+    queue.offer(GameRooms.encode("two"));
+    runTasks();
+
+    assertTrue(queue.isClosed());
+    assertEquals(List.of("one"), sentTo(client));
+  }
+
+  @Test
+  void closedQueueDropsEverything() {
+    OutboundQueue queue = queueWith(4, OutboundQueue.OverflowPolicy.DROP_OLDEST);
+    queue.offer(GameRooms.encode("one"));
+    queue.close();
+    runTasks();
+    queue.offer(GameRooms.encode("two"));
+
+    assertTrue(sentTo(client).isEmpty());
+    assertEquals(0, queue.size());
+    assertTrue(tasks.isEmpty());
+  }
+
+  @Test
+  void newQueueIsOpen() {
+    assertFalse(queueWith(1, OutboundQueue.OverflowPolicy.DROP_OLDEST).isClosed());
+  }
+
+  @Test
+  void capacityMustBePositive() {
+    assertThrows(IllegalArgumentException.class,
+      () -> queueWith(0, OutboundQueue.OverflowPolicy.DROP_OLDEST));
+  }
+}
@@ -0,0 +1,37 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class WebSocketMetricsSpec {
+
+  @Test
+  void countersStartAtZero() {
+    Map<String, Long> snapshot = new WebSocketMetrics().snapshot();
+
+    snapshot.values().forEach(value -> assertEquals(0L, value));
+  }
+
+  @Test
+  void countsConnectionsAndTraffic() {
+    WebSocketMetrics metrics = new WebSocketMetrics();
+    metrics.clientConnected();
+    metrics.clientConnected();
+    metrics.clientDisconnected();
+    metrics.messageReceived();
+    metrics.frameSent();
+    metrics.frameSent();
+    metrics.frameDropped();
+
+    Map<String, Long> snapshot = metrics.snapshot();
+    assertEquals(2L, snapshot.get("connects"));
+    assertEquals(1L, snapshot.get("disconnects"));
+    assertEquals(1L, snapshot.get("connected"));
+    assertEquals(1L, snapshot.get("messagesIn"));
+    assertEquals(2L, snapshot.get("framesOut"));
+    assertEquals(1L, snapshot.get("framesDropped"));
+  }
+}
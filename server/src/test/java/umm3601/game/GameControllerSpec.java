@@ -6,6 +6,7 @@ import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -39,12 +40,17 @@ import com.mongodb.client.MongoDatabase;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
 import io.javalin.validation.BodyValidator;
+import io.javalin.validation.Validation;
+import io.javalin.validation.ValidationException;
+import io.javalin.validation.Validator;
 
+@SuppressWarnings({ "MagicNumber" })
 class GameControllerSpec {
 
   private GameController gameController;
@@ -66,6 +72,12 @@ class GameControllerSpec {
   @Captor
   private ArgumentCaptor<Map<String, String>> mapCaptor;
 
+  @Captor
+  private ArgumentCaptor<Map<String, Object>> responseCaptor;
+
+  @Captor
+  private ArgumentCaptor<List<Object>> roundsCaptor;
+
   @BeforeAll
   static void setupAll() {
     String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
@@ -92,6 +104,8 @@ class GameControllerSpec {
     // Setup database
     MongoCollection<Document> gameDocuments = db.getCollection("games");
     gameDocuments.drop();
+    db.getCollection("rounds").drop();
+    db.getCollection("responses").drop();
     List<Document> testGames = new ArrayList<>();
     testGames.add(
         new Document()
@@ -168,13 +182,13 @@ class GameControllerSpec {
   void addGame() throws IOException {
     // Create a new game to add
     Game newGame = new Game();
-    newGame.joincode = "1234";
+    newGame.joincode = "4321";
 
     // Use `javalinJackson` to convert the `Game` object to a JSON string representing that game.
     // This would be equivalent to:
     //   String newGame = """
     //       {
-    //         "joincode": "1234",
+    //         "joincode": "4321",
     //       }
     //       """;
     // but using `javalinJackson` to generate the JSON avoids repeating all the field values,
@@ -209,22 +223,420 @@ class GameControllerSpec {
     assertEquals(newGame.joincode, addedGame.get(GameController.JOINCODE_KEY));
   }
 
+  @Test
+  void addGameWithJoincodeInUse() throws IOException {
+    Game newGame = new Game();
+    // This join code already belongs to one of the test games
+    newGame.joincode = "1234";
+    String newGameJson = javalinJackson.toJsonString(newGame, Game.class);
+    when(ctx.bodyValidator(Game.class))
+      .thenReturn(new BodyValidator<Game>(newGameJson, Game.class,
+                    () -> javalinJackson.fromJsonString(newGameJson, Game.class)));
+
+    Throwable exception = assertThrows(ConflictResponse.class, () -> {
+      gameController.addNewGame(ctx);
+    });
+
+    assertEquals("The join code 1234 is already in use", exception.getMessage());
+    assertEquals(1, db.getCollection("games").countDocuments(eq(GameController.JOINCODE_KEY, "1234")));
+  }
+
+  @Test
+  void addGameWithoutJoincode() throws IOException {
+    String newGameJson = "{}";
+    when(ctx.bodyValidator(Game.class))
+      .thenReturn(new BodyValidator<Game>(newGameJson, Game.class,
+                    () -> javalinJackson.fromJsonString(newGameJson, Game.class)));
+
+    gameController.addNewGame(ctx);
+    verify(ctx).json(mapCaptor.capture());
+    verify(ctx).status(HttpStatus.CREATED);
+
+    // The server should have chosen a join code, and told us what it is
+    String joincode = mapCaptor.getValue().get(GameController.JOINCODE_KEY);
+    assertEquals(JoincodeAllocator.DEFAULT_CODE_LENGTH, joincode.length());
+    Document addedGame = db.getCollection("games")
+        .find(eq("_id", new ObjectId(mapCaptor.getValue().get("id")))).first();
+    assertEquals(joincode, addedGame.get(GameController.JOINCODE_KEY));
+  }
+
+  @Test
+  void addGameWithBlankJoincode() throws IOException {
+    String newGameJson = "{\"joincode\": \"  \"}";
+    when(ctx.body()).thenReturn(newGameJson);
+    when(ctx.bodyValidator(Game.class))
+      .thenReturn(new BodyValidator<Game>(newGameJson, Game.class,
+                    () -> javalinJackson.fromJsonString(newGameJson, Game.class)));
+
+    assertThrows(ValidationException.class, () -> {
+      gameController.addNewGame(ctx);
+    });
+  }
+
+  @Test
+  void addGameWithJoincodeThatsPartOfOurUrls() throws IOException {
+    // `/api/games/by-joincode/deltas` would get this game's "deltas" instead
+    for (String joincode : GameController.RESERVED_JOINCODES) {
+      String newGameJson = "{\"joincode\": \"" + joincode + "\"}";
+      when(ctx.bodyValidator(Game.class))
+        .thenReturn(new BodyValidator<Game>(newGameJson, Game.class,
+                      () -> javalinJackson.fromJsonString(newGameJson, Game.class)));
+
+      assertThrows(ValidationException.class, () -> {
+        gameController.addNewGame(ctx);
+      });
+    }
+  }
+
+  @Test
+  void addGameWithJoincodeAlreadyHandedOut() throws IOException {
+    String newGameJson = "{\"joincode\": \"ABCDE\"}";
+    when(ctx.bodyValidator(Game.class))
+      .thenReturn(new BodyValidator<Game>(newGameJson, Game.class,
+                    () -> javalinJackson.fromJsonString(newGameJson, Game.class)));
+
+    gameController.addNewGame(ctx);
+    // The allocator knows "ABCDE" is now taken, so the second try is
+    // turned down without even asking the database.
+    assertThrows(ConflictResponse.class, () -> {
+      gameController.addNewGame(ctx);
+    });
+  }
+
+  @Test
+  void joincodesAreIndexed() {
+    boolean hasUniqueJoincodeIndex = false;
+    for (Document index : db.getCollection("games").listIndexes()) {
+      Document key = index.get("key", Document.class);
+      if (key.containsKey(GameController.JOINCODE_KEY) && index.getBoolean("unique", false)) {
+        hasUniqueJoincodeIndex = true;
+      }
+    }
+    assertTrue(hasUniqueJoincodeIndex);
+  }
+
+  @Test
+  void getGameByJoincode() {
+    when(ctx.pathParam("code")).thenReturn("0000");
+
+    gameController.getGameByJoincode(ctx);
+
+    verify(ctx).json(gameCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(gameId.toHexString(), gameCaptor.getValue()._id);
+  }
+
+  @Test
+  void getGameByUnknownJoincode() {
+    when(ctx.pathParam("code")).thenReturn("nope");
+
+    Throwable exception = assertThrows(NotFoundResponse.class, () -> {
+      gameController.getGameByJoincode(ctx);
+    });
+
+    assertEquals("There is no game with the join code nope", exception.getMessage());
+  }
+
   @Test
   void addPlayerToGame() {
     String id = gameId.toHexString();
     // What should the test pretend are the values in the path parameters?
     when(ctx.pathParam("id")).thenReturn(id);
-    when(ctx.pathParam("playerName")).thenReturn("Nic");
+    when(ctx.pathParam("player")).thenReturn("Nic");
 
     gameController.addPlayerToGame(ctx);
 
-    // capture the game returned from this put request
-    verify(ctx).json(gameCaptor.capture());
+    // The response is just the game's id and new version, rather than the whole game
+    verify(ctx).json(responseCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
-    assertEquals(gameId.toHexString(), gameCaptor.getValue()._id);
-    assertEquals("0000", gameCaptor.getValue().joincode);
-    assertEquals(0, gameCaptor.getValue().currentRound);
-    assertTrue(gameCaptor.getValue().players[0].equals("Kristin"));
+    assertEquals(Map.of("_id", id, "version", 1L), responseCaptor.getValue());
+    Document stored = db.getCollection("games").find(eq("_id", gameId)).first();
+    assertEquals(List.of("Kristin", "Jeff", "Nic"), stored.getList("players", String.class));
+  }
+
+  @Test
+  void addPlayerToGamePublishesPlayerJoined() {
+    List<GameEvent> published = new ArrayList<>();
+    gameController = new GameController(db, published::add,
+        GameController.DEFAULT_CACHE_TIME_TO_LIVE, GameController.DEFAULT_CACHE_MAX_GAMES);
+    String id = gameId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+    when(ctx.pathParam("player")).thenReturn("Nic");
+
+    gameController.addPlayerToGame(ctx);
+
+    assertEquals(1, published.size());
+    GameEvent event = published.get(0);
+    assertEquals(GameEvent.Type.PLAYER_JOINED, event.type);
+    assertEquals(id, event.gameId);
+    assertEquals("Nic", event.data.get("player"));
+    assertEquals(1, event.version);
+    assertEquals(List.of(Map.of("op", "add", "path", "/players/-", "value", "Nic")), event.patch);
+  }
+
+  @Test
+  void addPlayerAlreadyInGamePublishesNothing() {
+    List<GameEvent> published = new ArrayList<>();
+    gameController = new GameController(db, published::add,
+        GameController.DEFAULT_CACHE_TIME_TO_LIVE, GameController.DEFAULT_CACHE_MAX_GAMES);
+    when(ctx.pathParam("id")).thenReturn(gameId.toHexString());
+    when(ctx.pathParam("player")).thenReturn("Jeff");
+
+    gameController.addPlayerToGame(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    assertTrue(published.isEmpty());
+  }
+
+  @Test
+  void addPlayerToNonexistentGamePublishesNothing() {
+    List<GameEvent> published = new ArrayList<>();
+    gameController = new GameController(db, published::add,
+        GameController.DEFAULT_CACHE_TIME_TO_LIVE, GameController.DEFAULT_CACHE_MAX_GAMES);
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    when(ctx.pathParam("player")).thenReturn("Nic");
+
+    assertThrows(NotFoundResponse.class, () -> gameController.addPlayerToGame(ctx));
+    assertTrue(published.isEmpty());
+  }
+
+  private void askForDeltasSince(String id, String since) {
+    when(ctx.pathParam("id")).thenReturn(id);
+    when(ctx.queryParam(GameController.SINCE_KEY)).thenReturn(since);
+    Validator<Long> validator = new Validation().validator(GameController.SINCE_KEY, Long.class, since);
+    when(ctx.queryParamAsClass(GameController.SINCE_KEY, Long.class)).thenReturn(validator);
+  }
+
+  private void join(String player) {
+    join(gameController, player);
+  }
+
+  private void join(GameController controller, String player) {
+    Context joinCtx = mock(Context.class);
+    when(joinCtx.pathParam("id")).thenReturn(gameId.toHexString());
+    when(joinCtx.pathParam("player")).thenReturn(player);
+    controller.addPlayerToGame(joinCtx);
+  }
+
+  @Test
+  void getGameDeltasSinceEarlierVersion() {
+    join("Nic");
+    join("Mary");
+    join("Ada");
+    askForDeltasSince(gameId.toHexString(), "1");
+
+    gameController.getGameDeltas(ctx);
+
+    verify(ctx).json(responseCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    assertEquals(3L, responseCaptor.getValue().get("version"));
+    @SuppressWarnings("unchecked")
+    List<GameEvent> deltas = (List<GameEvent>) responseCaptor.getValue().get("deltas");
+    assertEquals(2, deltas.size());
+    assertEquals(2, deltas.get(0).version);
+    assertEquals("Mary", deltas.get(0).data.get("player"));
+    assertEquals(3, deltas.get(1).version);
+    assertEquals("Ada", deltas.get(1).data.get("player"));
+  }
+
+  @Test
+  void getGameDeltasWhenUpToDate() {
+    join("Nic");
+    askForDeltasSince(gameId.toHexString(), "1");
+
+    gameController.getGameDeltas(ctx);
+
+    verify(ctx).json(responseCaptor.capture());
+    assertEquals(Map.of("version", 1L, "deltas", List.of()), responseCaptor.getValue());
+  }
+
+  @Test
+  void getGameDeltasWeNoLongerHaveSendsTheWholeGame() {
+    // This change was made before this controller (e.g., before the server restarted)
+    join(new GameController(db), "Nic");
+    join("Mary");
+    askForDeltasSince(gameId.toHexString(), "0");
+
+    gameController.getGameDeltas(ctx);
+
+    verify(ctx).json(responseCaptor.capture());
+    assertEquals(2L, responseCaptor.getValue().get("version"));
+    Game game = (Game) responseCaptor.getValue().get("game");
+    assertEquals(gameId.toHexString(), game._id);
+    assertEquals(2, game.version);
+  }
+
+  @Test
+  void getGameDeltasWithNegativeVersion() {
+    askForDeltasSince(gameId.toHexString(), "-1");
+
+    assertThrows(ValidationException.class, () -> gameController.getGameDeltas(ctx));
+  }
+
+  @Test
+  void getGameDeltasWithBadId() {
+    askForDeltasSince("bad", "0");
+
+    assertThrows(BadRequestResponse.class, () -> gameController.getGameDeltas(ctx));
+  }
+
+  @Test
+  void getGameDeltasWithNonexistentId() {
+    askForDeltasSince(new ObjectId().toHexString(), "0");
+
+    assertThrows(NotFoundResponse.class, () -> gameController.getGameDeltas(ctx));
+  }
+
+  private <T> void withBody(Class<T> type, String json) {
+    when(ctx.body()).thenReturn(json);
+    when(ctx.bodyValidator(type))
+      .thenReturn(new BodyValidator<T>(json, type, () -> javalinJackson.fromJsonString(json, type)));
+  }
+
+  @Test
+  void playARoundThroughTheController() {
+    List<GameEvent> published = new ArrayList<>();
+    gameController = new GameController(db, published::add,
+        GameController.DEFAULT_CACHE_TIME_TO_LIVE, GameController.DEFAULT_CACHE_MAX_GAMES);
+    String id = gameId.toHexString();
+    when(ctx.pathParam("id")).thenReturn(id);
+
+    withBody(Round.class, "{\"prompt\": \"Why?\"}");
+    gameController.startRound(ctx);
+    verify(ctx).status(HttpStatus.CREATED);
+
+    withBody(Response.class, "{\"player\": \"Jeff\", \"text\": \"Because\"}");
+    gameController.submitResponse(ctx);
+    verify(ctx, atLeastOnce()).json(mapCaptor.capture());
+    String responseId = mapCaptor.getValue().get("id");
+
+    gameController.lockRound(ctx);
+
+    withBody(Round.class, "{\"judge\": \"Kristin\", \"winningResponse\": {\"_id\": \"" + responseId + "\"}}");
+    gameController.chooseWinner(ctx);
+
+    assertEquals(List.of(GameEvent.Type.ROUND_STARTED, GameEvent.Type.RESPONSE_SUBMITTED,
+        GameEvent.Type.ROUND_LOCKED, GameEvent.Type.WINNER_CHOSEN),
+        published.stream().map(event -> event.type).toList());
+    Document stored = db.getCollection("games").find(eq("_id", gameId)).first();
+    Document round = stored.get("round", Document.class);
+    assertEquals("JUDGED", round.getString("state"));
+    assertEquals("Jeff", round.get("winningResponse", Document.class).getString("player"));
+
+    // The round changes are logged too, so clients can catch up on them
+    askForDeltasSince(id, "0");
+    gameController.getGameDeltas(ctx);
+    verify(ctx, atLeastOnce()).json(responseCaptor.capture());
+    assertEquals(3, ((List<?>) responseCaptor.getValue().get("deltas")).size());
+
+    // And the round (and its response) are in the game's history
+    gameController.getRounds(ctx);
+    verify(ctx, atLeastOnce()).json(roundsCaptor.capture());
+    assertEquals(1, roundsCaptor.getValue().size());
+    assertEquals("Why?", ((Round) roundsCaptor.getValue().get(0)).prompt);
+
+    when(ctx.pathParamAsClass("number", Integer.class))
+      .thenReturn(new Validation().validator("number", Integer.class, "0"));
+    when(ctx.pathParam("number")).thenReturn("0");
+    gameController.getRoundResponses(ctx);
+    verify(ctx, atLeastOnce()).json(roundsCaptor.capture());
+    assertEquals("Because", ((Response) roundsCaptor.getValue().get(0)).text);
+  }
+
+  @Test
+  void getRoundResponsesForNegativeRound() {
+    when(ctx.pathParam("id")).thenReturn(gameId.toHexString());
+    when(ctx.pathParam("number")).thenReturn("-1");
+    when(ctx.pathParamAsClass("number", Integer.class))
+      .thenReturn(new Validation().validator("number", Integer.class, "-1"));
+
+    assertThrows(ValidationException.class, () -> gameController.getRoundResponses(ctx));
+  }
+
+  @Test
+  void getRoundsWithBadId() {
+    when(ctx.pathParam("id")).thenReturn("bad");
+
+    assertThrows(BadRequestResponse.class, () -> gameController.getRounds(ctx));
+  }
+
+  @Test
+  void getRoundsWithNonexistentId() {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    assertThrows(NotFoundResponse.class, () -> gameController.getRounds(ctx));
+  }
+
+  @Test
+  void getRoundResponsesWithBadId() {
+    when(ctx.pathParam("id")).thenReturn("bad");
+    when(ctx.pathParamAsClass("number", Integer.class))
+      .thenReturn(new Validation().validator("number", Integer.class, "0"));
+
+    assertThrows(BadRequestResponse.class, () -> gameController.getRoundResponses(ctx));
+  }
+
+  @Test
+  void getRoundResponsesWithNonexistentId() {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    when(ctx.pathParamAsClass("number", Integer.class))
+      .thenReturn(new Validation().validator("number", Integer.class, "0"));
+
+    assertThrows(NotFoundResponse.class, () -> gameController.getRoundResponses(ctx));
+  }
+
+  @Test
+  void startRoundWithoutPrompt() {
+    when(ctx.pathParam("id")).thenReturn(gameId.toHexString());
+    withBody(Round.class, "{\"judge\": \"Kristin\"}");
+
+    assertThrows(ValidationException.class, () -> gameController.startRound(ctx));
+  }
+
+  @Test
+  void startRoundWithBadId() {
+    when(ctx.pathParam("id")).thenReturn("bad");
+    withBody(Round.class, "{\"prompt\": \"Why?\"}");
+
+    assertThrows(BadRequestResponse.class, () -> gameController.startRound(ctx));
+  }
+
+  @Test
+  void startRoundForNonexistentGame() {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    withBody(Round.class, "{\"prompt\": \"Why?\"}");
+
+    assertThrows(NotFoundResponse.class, () -> gameController.startRound(ctx));
+  }
+
+  @Test
+  void startRoundWithJudgeWhoIsntPlaying() {
+    when(ctx.pathParam("id")).thenReturn(gameId.toHexString());
+    withBody(Round.class, "{\"prompt\": \"Why?\", \"judge\": \"Mary\"}");
+
+    assertThrows(BadRequestResponse.class, () -> gameController.startRound(ctx));
+  }
+
+  @Test
+  void lockRoundThatHasntStarted() {
+    when(ctx.pathParam("id")).thenReturn(gameId.toHexString());
+
+    assertThrows(ConflictResponse.class, () -> gameController.lockRound(ctx));
+  }
+
+  @Test
+  void submitResponseWithoutText() {
+    when(ctx.pathParam("id")).thenReturn(gameId.toHexString());
+    withBody(Response.class, "{\"player\": \"Jeff\"}");
+
+    assertThrows(ValidationException.class, () -> gameController.submitResponse(ctx));
+  }
+
+  @Test
+  void chooseWinnerWithoutChoosing() {
+    when(ctx.pathParam("id")).thenReturn(gameId.toHexString());
+    withBody(Round.class, "{\"judge\": \"Kristin\"}");
 
+    assertThrows(ValidationException.class, () -> gameController.chooseWinner(ctx));
   }
 }
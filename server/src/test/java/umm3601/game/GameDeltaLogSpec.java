@@ -0,0 +1,92 @@
+package umm3601.game;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({ "MagicNumber" })
+class GameDeltaLogSpec {
+
+  private static final String GAME = "game";
+
+  private static GameEvent joined(String gameId, long version, String player) {
+    return new GameEvent(GameEvent.Type.PLAYER_JOINED, gameId, version).with("player", player);
+  }
+
+  private static List<Long> versions(List<GameEvent> events) {
+    return events.stream().map(event -> event.version).toList();
+  }
+
+  @Test
+  void sinceReturnsTheMissedChangesInOrder() {
+    GameDeltaLog log = new GameDeltaLog(10);
+    log.append(joined(GAME, 1, "Kristin"));
+    // Changes can be logged slightly out of order
+    log.append(joined(GAME, 3, "Nic"));
+    log.append(joined(GAME, 2, "Jeff"));
+
+    assertEquals(List.of(2L, 3L), versions(log.since(GAME, 1, 3)));
+    assertEquals(List.of(1L, 2L, 3L), versions(log.since(GAME, 0, 3)));
+  }
+
+  @Test
+  void sinceTheCurrentVersionIsEmpty() {
+    GameDeltaLog log = new GameDeltaLog(10);
+    log.append(joined(GAME, 1, "Kristin"));
+
+    assertTrue(log.since(GAME, 1, 1).isEmpty());
+    assertTrue(log.since("unknown", 0, 0).isEmpty());
+  }
+
+  @Test
+  void gamesHaveSeparateLogs() {
+    GameDeltaLog log = new GameDeltaLog(10);
+    log.append(joined(GAME, 1, "Kristin"));
+    log.append(joined("other", 1, "Jeff"));
+
+    assertEquals("Kristin", log.since(GAME, 0, 1).get(0).data.get("player"));
+    assertNull(log.since("unknown", 0, 1));
+  }
+
+  @Test
+  void forgottenGamesCantBeReplayed() {
+    GameDeltaLog log = new GameDeltaLog(10);
+    log.append(joined(GAME, 1, "Kristin"));
+    log.append(joined("other", 1, "Jeff"));
+    log.forget(GAME);
+
+    assertNull(log.since(GAME, 0, 1));
+    assertEquals(List.of(1L), versions(log.since("other", 0, 1)));
+  }
+
+  @Test
+  void changesThatFellOffTheLogCantBeReplayed() {
+    GameDeltaLog log = new GameDeltaLog(2);
+    log.append(joined(GAME, 1, "Kristin"));
+    log.append(joined(GAME, 2, "Jeff"));
+    log.append(joined(GAME, 3, "Nic"));
+
+    assertNull(log.since(GAME, 0, 3));
+    assertEquals(List.of(2L, 3L), versions(log.since(GAME, 1, 3)));
+  }
+
+  @Test
+  void changesThatAreStillBeingLoggedCantBeReplayed() {
+    GameDeltaLog log = new GameDeltaLog(10);
+    log.append(joined(GAME, 1, "Kristin"));
+    log.append(joined(GAME, 3, "Nic"));
+
+    assertNull(log.since(GAME, 0, 3));
+    assertNull(log.since(GAME, 1, 3));
+  }
+
+  @Test
+  void logMustKeepSomething() {
+    assertThrows(IllegalArgumentException.class, () -> new GameDeltaLog(0));
+  }
+}
@@ -0,0 +1,418 @@
+package umm3601.game;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+/**
+ * Tests the in-memory store of games. Like the controller specs, these
+ * use a real (test) database, so we can check what does and doesn't
+ * make it through to MongoDB.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class GameStoreSpec {
+
+  private static final Duration TIME_TO_LIVE = Duration.ofMinutes(10);
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  // The names of the commands sent to MongoDB, so we can check how
+  // many round trips an operation takes.
+  private static List<String> commands = Collections.synchronizedList(new ArrayList<>());
+
+  private MongoCollection<Document> gameDocuments;
+  private GameStore gameStore;
+  // A fake clock, so we can make time pass as fast as we like
+  private AtomicLong now;
+  private ObjectId gameId;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .addCommandListener(new CommandListener() {
+              @Override
+              public void commandStarted(CommandStartedEvent event) {
+                commands.add(event.getCommandName());
+              }
+            })
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    gameDocuments = db.getCollection("games");
+    gameDocuments.drop();
+    gameId = new ObjectId();
+    gameDocuments.insertOne(new Document()
+        .append("_id", gameId)
+        .append("joincode", "0000")
+        .append("players", Arrays.asList("Kristin", "Jeff"))
+        .append("currentRound", 0));
+
+    now = new AtomicLong(0);
+    gameStore = storeHolding(3);
+    commands.clear();
+  }
+
+  private GameStore storeHolding(int maxGames) {
+    JacksonMongoCollection<Game> gameCollection = JacksonMongoCollection.builder().build(
+        db, "games", Game.class, UuidRepresentation.STANDARD);
+    return new GameStore(new MongoGameRepository(gameCollection), TIME_TO_LIVE, maxGames, now::get);
+  }
+
+  private Game newGame(String joincode) {
+    Game game = new Game();
+    game.joincode = joincode;
+    return game;
+  }
+
+  @Test
+  void readsGamesFromTheDatabase() {
+    Game game = gameStore.findById(gameId.toHexString());
+
+    assertEquals("0000", game.joincode);
+    assertEquals(1, gameStore.size());
+  }
+
+  @Test
+  void serveRepeatReadsFromMemory() {
+    Game first = gameStore.findById(gameId.toHexString());
+    // If the second read went to the database it wouldn't find anything
+    gameDocuments.drop();
+    Game second = gameStore.findById(gameId.toHexString());
+
+    assertSame(first, second);
+  }
+
+  @Test
+  void missingGameIsNull() {
+    assertNull(gameStore.findById(new ObjectId().toHexString()));
+    assertEquals(0, gameStore.size());
+  }
+
+  @Test
+  void illegalIdIsRejected() {
+    assertThrows(IllegalArgumentException.class, () -> gameStore.findById("bad"));
+  }
+
+  @Test
+  void insertWritesThroughToTheDatabase() {
+    Game game = newGame("1234");
+    gameStore.insert(game);
+
+    assertNotNull(game._id);
+    assertEquals(1, gameDocuments.countDocuments(new Document("joincode", "1234")));
+    assertSame(game, gameStore.findById(game._id));
+  }
+
+  @Test
+  void addPlayerWritesThroughToTheDatabase() {
+    GameStore.PlayerAdded result = gameStore.addPlayer(gameId.toHexString(), "Nic");
+
+    assertTrue(result.added());
+    assertArrayEquals(new String[]{"Kristin", "Jeff", "Nic"}, result.game().players);
+    Document stored = gameDocuments.find(new Document("_id", gameId)).first();
+    assertEquals(Arrays.asList("Kristin", "Jeff", "Nic"), stored.getList("players", String.class));
+  }
+
+  @Test
+  void addPlayerIsASingleRoundTrip() {
+    gameStore.addPlayer(gameId.toHexString(), "Nic");
+
+    assertEquals(List.of("findAndModify"), commands);
+  }
+
+  @Test
+  void addPlayerUpdatesTheInMemoryCopy() {
+    gameStore.findById(gameId.toHexString());
+    gameStore.addPlayer(gameId.toHexString(), "Nic");
+    commands.clear();
+
+    Game game = gameStore.findById(gameId.toHexString());
+
+    assertArrayEquals(new String[]{"Kristin", "Jeff", "Nic"}, game.players);
+    assertTrue(commands.isEmpty());
+  }
+
+  @Test
+  void simultaneousJoinsAreNotLost() throws Exception {
+    int joiners = 50;
+    String id = gameId.toHexString();
+    ExecutorService executor = Executors.newFixedThreadPool(joiners);
+    // Hold everybody at the starting line so they all join at (nearly) the same moment
+    CountDownLatch startingLine = new CountDownLatch(1);
+    List<Future<GameStore.PlayerAdded>> joins = new ArrayList<>();
+    for (int i = 0; i < joiners; i++) {
+      String player = "Player " + i;
+      joins.add(executor.submit(() -> {
+        startingLine.await();
+        return gameStore.addPlayer(id, player);
+      }));
+    }
+    startingLine.countDown();
+    for (Future<GameStore.PlayerAdded> join : joins) {
+      assertTrue(join.get().added());
+    }
+    executor.shutdown();
+
+    Document stored = gameDocuments.find(new Document("_id", gameId)).first();
+    List<String> storedPlayers = stored.getList("players", String.class);
+    // Everybody made it in, and nobody made it in twice
+    assertEquals(joiners + 2, storedPlayers.size());
+    assertEquals(joiners + 2, new HashSet<>(storedPlayers).size());
+    // The in-memory copy should have caught up with all of them as well
+    assertEquals(joiners + 2, gameStore.findById(id).players.length);
+    // And every join got its own version
+    assertEquals(joiners, stored.getLong("version"));
+    assertEquals(joiners, gameStore.findById(id).version);
+  }
+
+  @Test
+  void addPlayerWithDollarSignInName() {
+    Game game = gameStore.addPlayer(gameId.toHexString(), "$players").game();
+
+    assertEquals("$players", game.players[2]);
+  }
+
+  @Test
+  void addPlayerTwiceOnlyAddsThemOnce() {
+    gameStore.addPlayer(gameId.toHexString(), "Nic");
+    GameStore.PlayerAdded result = gameStore.addPlayer(gameId.toHexString(), "Nic");
+
+    assertFalse(result.added());
+    assertEquals(3, result.game().players.length);
+    assertEquals(1, result.game().version);
+  }
+
+  @Test
+  void addPlayerBumpsTheVersion() {
+    assertEquals(1, gameStore.addPlayer(gameId.toHexString(), "Nic").game().version);
+    assertEquals(2, gameStore.addPlayer(gameId.toHexString(), "Mary").game().version);
+  }
+
+  @Test
+  void addPlayerToGameWithNoPlayers() {
+    Game game = newGame("1234");
+    gameStore.insert(game);
+
+    Game updated = gameStore.addPlayer(game._id, "Nic").game();
+
+    assertArrayEquals(new String[]{"Nic"}, updated.players);
+  }
+
+  @Test
+  void findsGamesByJoincode() {
+    Game game = gameStore.findByJoincode("0000");
+
+    assertEquals(gameId.toHexString(), game._id);
+  }
+
+  @Test
+  void repeatJoincodeLookupsAreServedFromMemory() {
+    gameStore.findByJoincode("0000");
+    commands.clear();
+
+    Game game = gameStore.findByJoincode("0000");
+
+    assertEquals(gameId.toHexString(), game._id);
+    assertTrue(commands.isEmpty());
+  }
+
+  @Test
+  void newGamesCanBeFoundByJoincodeWithoutTheDatabase() {
+    Game game = newGame("1234");
+    gameStore.insert(game);
+    commands.clear();
+
+    assertSame(game, gameStore.findByJoincode("1234"));
+    assertTrue(commands.isEmpty());
+  }
+
+  @Test
+  void unknownJoincodeIsNull() {
+    assertNull(gameStore.findByJoincode("nope"));
+  }
+
+  @Test
+  void evictedGamesCanStillBeFoundByJoincode() {
+    gameStore.findByJoincode("0000");
+    gameStore.evict(gameId.toHexString());
+
+    assertEquals(gameId.toHexString(), gameStore.findByJoincode("0000")._id);
+  }
+
+  @Test
+  void addPlayerToMissingGameIsNull() {
+    assertNull(gameStore.addPlayer(new ObjectId().toHexString(), "Nic"));
+  }
+
+  @Test
+  void idleGamesAreReloaded() {
+    Game first = gameStore.findById(gameId.toHexString());
+    now.addAndGet(TIME_TO_LIVE.toMillis() + 1);
+    Game second = gameStore.findById(gameId.toHexString());
+
+    // A new copy was read from the database
+    assertEquals(first, second);
+    assertNotSame(first, second);
+  }
+
+  @Test
+  void leastRecentlyUsedGamesAreEvictedWhenFull() {
+    Game oldest = newGame("1");
+    gameStore.insert(oldest);
+    for (int i = 2; i <= 4; i++) {
+      now.incrementAndGet();
+      gameStore.insert(newGame(Integer.toString(i)));
+    }
+
+    // We were over the limit of three, so we should be back under it
+    // with the oldest game gone (but still in the database).
+    assertEquals(2, gameStore.size());
+    gameDocuments.deleteOne(new Document("joincode", "1"));
+    assertNull(gameStore.findById(oldest._id));
+  }
+
+  @Test
+  void evictForgetsAGame() {
+    Game first = gameStore.findById(gameId.toHexString());
+    gameStore.evict(gameId.toHexString());
+
+    assertEquals(0, gameStore.size());
+    assertNotSame(first, gameStore.findById(gameId.toHexString()));
+  }
+
+  @Test
+  void slowReadsDontReplaceNewerCopies() {
+    AtomicReference<GameStore> store = new AtomicReference<>();
+    GameRepository repository = new InMemoryGameRepository() {
+      private boolean raced;
+
+      @Override
+      public Game findById(String id) {
+        Game stale = super.findById(id);
+        if (!raced) {
+          // Somebody joins the game between this read and it being cached
+          raced = true;
+          store.get().addPlayer(id, "Nic");
+        }
+        return stale;
+      }
+    };
+    store.set(new GameStore(repository, TIME_TO_LIVE, 3, now::get));
+    Game game = newGame("1");
+    store.get().insert(game);
+    store.get().evict(game._id);
+
+    Game found = store.get().findById(game._id);
+    assertEquals(List.of("Nic"), Arrays.asList(found.players));
+    assertSame(found, store.get().findById(game._id));
+  }
+
+  private static Round round(int number, String prompt) {
+    Round round = new Round();
+    round._id = new ObjectId().toHexString();
+    round.number = number;
+    round.players = new String[]{"Kristin", "Jeff"};
+    round.judge = "Kristin";
+    round.prompt = prompt;
+    round.state = Round.State.OPEN;
+    return round;
+  }
+
+  @Test
+  void saveRoundIsASingleRoundTrip() {
+    Game game = gameStore.saveRound(gameId.toHexString(), round(0, "Why?"));
+
+    assertEquals(List.of("findAndModify"), commands);
+    assertEquals(1, game.version);
+    assertEquals(0, game.currentRound);
+    assertEquals("Why?", game.round.prompt);
+    assertEquals(Round.State.OPEN, game.round.state);
+  }
+
+  @Test
+  void saveRoundReplacesTheCurrentRound() {
+    String id = gameId.toHexString();
+    Round first = round(0, "Why?");
+    gameStore.saveRound(id, first);
+    Response response = new Response();
+    response._id = "r1";
+    response.player = "Jeff";
+    response.text = "Because";
+    first.state = Round.State.JUDGED;
+    first.responses = new Response[]{response};
+    first.winningResponse = response;
+    gameStore.saveRound(id, first);
+    Game afterFirst = gameStore.findById(id);
+    assertEquals(Round.State.JUDGED, afterFirst.round.state);
+    assertEquals("Because", afterFirst.round.winningResponse.text);
+
+    gameStore.saveRound(id, round(1, "How?"));
+    commands.clear();
+    Game game = gameStore.findById(id);
+
+    // That came from memory, and matches what's in the database
+    assertTrue(commands.isEmpty());
+    assertEquals(3, game.version);
+    assertEquals(1, game.currentRound);
+    assertEquals("How?", game.round.prompt);
+    Document stored = gameDocuments.find(new Document("_id", gameId)).first();
+    assertEquals("How?", stored.get("round", Document.class).getString("prompt"));
+    assertEquals(1, stored.getInteger("currentRound"));
+  }
+
+  @Test
+  void saveRoundForMissingGame() {
+    assertNull(gameStore.saveRound(new ObjectId().toHexString(), round(0, "Why?")));
+  }
+}
@@ -0,0 +1,112 @@
+package umm3601.game;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the in-memory games behave the way the ones in MongoDB do
+ * (see `GameStoreSpec`), including never changing a game in place.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class InMemoryGameRepositorySpec {
+
+  private InMemoryGameRepository games;
+  private Game game;
+
+  @BeforeEach
+  void setupEach() {
+    games = new InMemoryGameRepository();
+    game = new Game();
+    game.joincode = "1234";
+    game.players = new String[] {"Kristin"};
+    assertTrue(games.insert(game));
+  }
+
+  @Test
+  void insertGivesGamesAnId() {
+    assertTrue(ObjectId.isValid(game._id));
+    assertEquals(game._id, games.findById(game._id)._id);
+    assertEquals(game._id, games.findByJoincode("1234")._id);
+    assertEquals(List.of("1234"), games.joincodes());
+  }
+
+  @Test
+  void joincodesAreUnique() {
+    Game other = new Game();
+    other.joincode = "1234";
+    assertFalse(games.insert(other));
+    assertNull(other._id);
+  }
+
+  @Test
+  void missingGamesAreNull() {
+    String missing = new ObjectId().toHexString();
+    assertNull(games.findById(missing));
+    assertNull(games.findByJoincode("9999"));
+    assertNull(games.addPlayer(missing, "Jeff"));
+    assertNull(games.saveRound(missing, new Round()));
+  }
+
+  @Test
+  void illegalIdsThrow() {
+    assertThrows(IllegalArgumentException.class, () -> games.findById("bad"));
+    assertThrows(IllegalArgumentException.class, () -> games.addPlayer("bad", "Jeff"));
+  }
+
+  @Test
+  void addPlayerReturnsAnUpdatedCopy() {
+    Game before = games.findById(game._id);
+    Game after = games.addPlayer(game._id, "Jeff");
+
+    assertNotSame(before, after);
+    assertArrayEquals(new String[] {"Kristin"}, before.players);
+    assertArrayEquals(new String[] {"Kristin", "Jeff"}, after.players);
+    assertEquals(before.version + 1, after.version);
+    // Somebody who's already playing isn't added again
+    assertNull(games.addPlayer(game._id, "Jeff"));
+  }
+
+  @Test
+  void playersJoiningAtOnceAreAllAdded() {
+    try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < 50; i++) {
+        String player = "Player " + i;
+        threads.submit(() -> games.addPlayer(game._id, player));
+      }
+    }
+    Game after = games.findById(game._id);
+    assertEquals(51, after.players.length);
+    assertEquals(50, after.version);
+  }
+
+  @Test
+  void saveRoundMakesItTheCurrentRound() {
+    Round round = new Round();
+    round._id = new ObjectId().toHexString();
+    round.number = 2;
+    round.state = Round.State.OPEN;
+    Game after = games.saveRound(game._id, round);
+
+    assertEquals(round, after.round);
+    assertEquals(2, after.currentRound);
+    assertEquals(1, after.version);
+
+    // The game keeps its own copy, like one stored in MongoDB would
+    assertNotSame(round, after.round);
+    round.state = Round.State.LOCKED;
+    assertEquals(Round.State.OPEN, games.findById(game._id).round.state);
+  }
+}
@@ -0,0 +1,83 @@
+package umm3601.game;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the in-memory history of rounds behaves the way the one
+ * in MongoDB does (see `RoundStoreSpec`).
+ */
+@SuppressWarnings({ "MagicNumber" })
+class InMemoryRoundStoreSpec {
+
+  private InMemoryRoundStore roundStore;
+
+  @BeforeEach
+  void setupEach() {
+    roundStore = new InMemoryRoundStore();
+  }
+
+  private static Round round(String gameId, int number) {
+    Round round = new Round();
+    round._id = gameId + "-round-" + number;
+    round.gameId = gameId;
+    round.number = number;
+    round.state = Round.State.OPEN;
+    return round;
+  }
+
+  private static Response response(String gameId, int round, String player) {
+    Response response = new Response();
+    response._id = gameId + "-" + round + "-" + player;
+    response.gameId = gameId;
+    response.round = round;
+    response.player = player;
+    response.text = "Hi from " + player;
+    return response;
+  }
+
+  @Test
+  void roundsComeBackInOrderWithoutTheirResponses() {
+    Round second = round("game", 2);
+    second.responses = new Response[] {response("game", 2, "Jeff")};
+    roundStore.save(second);
+    roundStore.save(round("game", 1));
+    roundStore.save(round("other", 1));
+
+    List<Round> rounds = roundStore.roundsOf("game");
+    assertEquals(List.of(1, 2), rounds.stream().map(round -> round.number).toList());
+    assertNull(rounds.get(1).responses);
+    // The round that was saved is left alone
+    assertEquals(1, second.responses.length);
+  }
+
+  @Test
+  void savingARoundAgainReplacesIt() {
+    Round round = round("game", 1);
+    roundStore.save(round);
+    round.state = Round.State.LOCKED;
+    roundStore.save(round);
+
+    List<Round> rounds = roundStore.roundsOf("game");
+    assertEquals(1, rounds.size());
+    assertEquals(Round.State.LOCKED, rounds.get(0).state);
+  }
+
+  @Test
+  void savingResponsesAgainDoesNotDuplicateThem() {
+    Response[] responses = {response("game", 1, "Kristin"), response("game", 1, "Jeff")};
+    roundStore.saveResponses(responses);
+    roundStore.saveResponses(responses);
+    roundStore.saveResponses(null);
+
+    assertEquals(2, roundStore.responsesTo("game", 1).size());
+    assertTrue(roundStore.responsesTo("game", 2).isEmpty());
+    assertTrue(roundStore.roundsOf("other").isEmpty());
+  }
+}
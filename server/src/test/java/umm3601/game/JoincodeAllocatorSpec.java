@@ -0,0 +1,116 @@
+package umm3601.game;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({ "MagicNumber" })
+class JoincodeAllocatorSpec {
+
+  // With two character codes there are only 31 * 31 = 961 of them,
+  // which makes it easy to check what happens when they run out.
+  private static final int SMALL_CODE_COUNT = 961;
+
+  @Test
+  void codesAreShortAndFriendly() {
+    String code = new JoincodeAllocator().allocate();
+
+    assertEquals(JoincodeAllocator.DEFAULT_CODE_LENGTH, code.length());
+    for (char c : code.toCharArray()) {
+      assertTrue(JoincodeAllocator.ALPHABET.indexOf(c) >= 0, "Unexpected character in " + code);
+    }
+  }
+
+  @Test
+  void allocatedCodesAreInUse() {
+    JoincodeAllocator allocator = new JoincodeAllocator();
+    String code = allocator.allocate();
+
+    assertTrue(allocator.isInUse(code));
+    assertFalse(allocator.reserve(code));
+  }
+
+  @Test
+  void everyCodeCanBeHandedOutExactlyOnce() {
+    JoincodeAllocator allocator = new JoincodeAllocator(2);
+    Set<String> codes = new HashSet<>();
+    for (int i = 0; i < SMALL_CODE_COUNT; i++) {
+      assertTrue(codes.add(allocator.allocate()));
+    }
+
+    assertThrows(IllegalStateException.class, allocator::allocate);
+  }
+
+  @Test
+  void releasedCodesCanBeHandedOutAgain() {
+    JoincodeAllocator allocator = new JoincodeAllocator(2);
+    for (int i = 0; i < SMALL_CODE_COUNT; i++) {
+      allocator.allocate();
+    }
+    allocator.release("AB");
+
+    assertFalse(allocator.isInUse("AB"));
+    assertEquals("AB", allocator.allocate());
+  }
+
+  @Test
+  void reservedCodesAreNeverAllocated() {
+    JoincodeAllocator allocator = new JoincodeAllocator(2);
+    assertTrue(allocator.reserve("AB"));
+    for (int i = 0; i < SMALL_CODE_COUNT - 1; i++) {
+      assertFalse(allocator.allocate().equals("AB"));
+    }
+  }
+
+  @Test
+  void codesFromOutsideTheAlphabetAreNotTracked() {
+    JoincodeAllocator allocator = new JoincodeAllocator();
+
+    // Wrong length, and characters that are left out of the alphabet
+    assertTrue(allocator.reserve("1234"));
+    assertTrue(allocator.reserve("1234"));
+    assertTrue(allocator.reserve("OOOOO"));
+    assertTrue(allocator.reserve(null));
+    assertFalse(allocator.isInUse("1234"));
+    allocator.release("1234");
+  }
+
+  @Test
+  void concurrentAllocationsNeverCollide() throws Exception {
+    JoincodeAllocator allocator = new JoincodeAllocator(3);
+    Set<String> codes = ConcurrentHashMap.newKeySet();
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> workers = new ArrayList<>();
+    for (int worker = 0; worker < 8; worker++) {
+      workers.add(executor.submit(() -> {
+        for (int i = 0; i < 3000; i++) {
+          assertTrue(codes.add(allocator.allocate()));
+        }
+      }));
+    }
+    for (Future<?> worker : workers) {
+      worker.get();
+    }
+    executor.shutdown();
+
+    assertEquals(24_000, codes.size());
+  }
+
+  @Test
+  void unsupportedLengthsAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> new JoincodeAllocator(0));
+    assertThrows(IllegalArgumentException.class, () -> new JoincodeAllocator(10));
+  }
+}
@@ -0,0 +1,156 @@
+package umm3601.game;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({ "MagicNumber" })
+class ResponseAccumulatorSpec {
+
+  private static Response response(String player, String text) {
+    Response response = new Response();
+    response._id = player + "-" + text;
+    response.player = player;
+    response.text = text;
+    return response;
+  }
+
+  @Test
+  void countsEachPlayersResponseOnce() {
+    ResponseAccumulator accumulator = new ResponseAccumulator(new Round());
+
+    assertEquals(1, accumulator.submit(response("Jeff", "Because")));
+    assertEquals(2, accumulator.submit(response("Nic", "Why not?")));
+    assertThrows(IllegalStateException.class, () -> accumulator.submit(response("Jeff", "Again")));
+
+    assertEquals(2, accumulator.count());
+    List<Response> closed = accumulator.close();
+    assertEquals(Set.of("Because", "Why not?"), Set.copyOf(closed.stream().map(r -> r.text).toList()));
+  }
+
+  @Test
+  void closingStopsTheResponses() {
+    ResponseAccumulator accumulator = new ResponseAccumulator(new Round());
+    accumulator.submit(response("Jeff", "Because"));
+
+    assertEquals(1, accumulator.close().size());
+
+    assertTrue(accumulator.isClosed());
+    assertThrows(IllegalStateException.class, () -> accumulator.submit(response("Nic", "Why not?")));
+    // Closing again gives the same responses
+    assertEquals(1, accumulator.close().size());
+  }
+
+  @Test
+  void closingWaitsForResponsesToBeAnnounced() throws Exception {
+    ResponseAccumulator accumulator = new ResponseAccumulator(new Round());
+    List<String> happened = Collections.synchronizedList(new ArrayList<>());
+    ExecutorService closer = Executors.newSingleThreadExecutor();
+
+    accumulator.submit(response("Jeff", "Because"), count -> {
+      // The round is closed while this response is still being announced
+      closer.submit(() -> {
+        accumulator.close();
+        happened.add("closed");
+      });
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      happened.add("announced " + count);
+    });
+    closer.shutdown();
+    assertTrue(closer.awaitTermination(5, TimeUnit.SECONDS));
+
+    assertEquals(List.of("announced 1", "closed"), happened);
+  }
+
+  @Test
+  void everybodyRespondingAtOnce() throws Exception {
+    int players = 64;
+    ResponseAccumulator accumulator = new ResponseAccumulator(new Round());
+    Set<Integer> counts = ConcurrentHashMap.newKeySet();
+    CountDownLatch go = new CountDownLatch(1);
+
+    try (ExecutorService executor = Executors.newFixedThreadPool(players)) {
+      List<Future<Integer>> duplicates = new ArrayList<>();
+      for (int i = 0; i < players; i++) {
+        String player = "player" + i;
+        duplicates.add(executor.submit(() -> {
+          go.await();
+          int rejected = 0;
+          // Everybody submits twice; only the first should count
+          for (String text : List.of("first", "second")) {
+            try {
+              counts.add(accumulator.submit(response(player, text)));
+            } catch (IllegalStateException e) {
+              rejected++;
+            }
+          }
+          return rejected;
+        }));
+      }
+      go.countDown();
+      for (Future<Integer> rejected : duplicates) {
+        assertEquals(1, rejected.get());
+      }
+    }
+
+    List<Response> responses = accumulator.close();
+    assertEquals(players, responses.size());
+    assertEquals(players, accumulator.count());
+    assertTrue(responses.stream().allMatch(response -> response.text.equals("first")));
+    // Each submission got its own count, with none skipped or repeated
+    assertEquals(IntStream.rangeClosed(1, players).boxed().collect(Collectors.toSet()), counts);
+  }
+
+  @Test
+  void closingWhileResponsesArriveLosesNothing() throws Exception {
+    int players = 64;
+    ResponseAccumulator accumulator = new ResponseAccumulator(new Round());
+    Set<String> accepted = ConcurrentHashMap.newKeySet();
+    CountDownLatch go = new CountDownLatch(1);
+    List<Response> closed;
+
+    try (ExecutorService executor = Executors.newFixedThreadPool(players + 1)) {
+      for (int i = 0; i < players; i++) {
+        String player = "player" + i;
+        executor.submit(() -> {
+          go.await();
+          try {
+            accumulator.submit(response(player, "first"));
+            accepted.add(player);
+          } catch (IllegalStateException e) {
+            // Too late; the round closed first
+          }
+          return null;
+        });
+      }
+      Future<List<Response>> closing = executor.submit(() -> {
+        go.await();
+        return accumulator.close();
+      });
+      go.countDown();
+      closed = closing.get();
+    }
+
+    // Whatever was accepted was handed over when the round closed, and nothing else was
+    assertEquals(accepted, Set.copyOf(closed.stream().map(response -> response.player).toList()));
+  }
+}
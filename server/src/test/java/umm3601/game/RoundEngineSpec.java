@@ -0,0 +1,478 @@
+package umm3601.game;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Tests the round engine against a real (test) database, so we can
+ * check what it does (and doesn't) save along the way.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RoundEngineSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> gameDocuments;
+  private GameStore gameStore;
+  private RoundStore roundStore;
+  private RoundEngine roundEngine;
+  private List<GameEvent> published;
+  private String gameId;
+  private ScheduledThreadPoolExecutor scheduler;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    gameDocuments = db.getCollection("games");
+    gameDocuments.drop();
+    db.getCollection("rounds").drop();
+    db.getCollection("responses").drop();
+    ObjectId id = new ObjectId();
+    gameDocuments.insertOne(new Document()
+        .append("_id", id)
+        .append("joincode", "0000")
+        .append("players", Arrays.asList("Kristin", "Jeff", "Nic"))
+        .append("currentRound", 0));
+    gameId = id.toHexString();
+
+    gameStore = newGameStore();
+    roundStore = newRoundStore();
+    // Responses are published from whichever thread submitted them
+    published = Collections.synchronizedList(new ArrayList<>());
+    roundEngine = new RoundEngine(gameStore, roundStore, published::add);
+    scheduler = new ScheduledThreadPoolExecutor(1);
+    scheduler.setRemoveOnCancelPolicy(true);
+  }
+
+  @AfterEach
+  void teardownEach() {
+    scheduler.shutdownNow();
+  }
+
+  // An engine with deadlines, which counts down `latch` when it publishes an event of the given type
+  private RoundEngine engineWithDeadlines(RoundTimer timer, Duration responding, Duration judging,
+      GameEvent.Type awaited, CountDownLatch latch) {
+    return new RoundEngine(gameStore, roundStore, event -> {
+      published.add(event);
+      if (event.type == awaited) {
+        latch.countDown();
+      }
+    }, new RoundDeadlines(timer, responding, judging));
+  }
+
+  private static GameStore newGameStore() {
+    JacksonMongoCollection<Game> gameCollection = JacksonMongoCollection.builder().build(
+        db, "games", Game.class, UuidRepresentation.STANDARD);
+    return new GameStore(new MongoGameRepository(gameCollection), Duration.ofMinutes(10), 10,
+        System::currentTimeMillis);
+  }
+
+  private static RoundStore newRoundStore() {
+    return new MongoRoundStore(
+        JacksonMongoCollection.builder().build(db, "rounds", Round.class, UuidRepresentation.STANDARD),
+        JacksonMongoCollection.builder().build(db, "responses", Response.class, UuidRepresentation.STANDARD));
+  }
+
+  // The current round, as it's saved in the game
+  private Document storedRound() {
+    Document game = gameDocuments.find(new Document("_id", new ObjectId(gameId))).first();
+    return game.get("round", Document.class);
+  }
+
+  private List<GameEvent.Type> publishedTypes() {
+    return published.stream().map(event -> event.type).toList();
+  }
+
+  @Test
+  void playsAWholeRound() {
+    Round started = roundEngine.startRound(gameId, null, "Why?");
+    Response jeffs = roundEngine.submitResponse(gameId, "Jeff", "Because");
+    roundEngine.submitResponse(gameId, "Nic", "Why not?");
+    Round locked = roundEngine.lock(gameId);
+    Round judged = roundEngine.chooseWinner(gameId, "Kristin", jeffs._id);
+
+    // The players take turns judging, starting with the first to join
+    assertEquals("Kristin", started.judge);
+    assertEquals(0, started.number);
+    assertEquals(Round.State.LOCKED, locked.state);
+    assertEquals(2, locked.responses.length);
+    assertEquals(Round.State.JUDGED, judged.state);
+    assertEquals("Jeff", judged.winningResponse.player);
+    assertEquals(List.of(GameEvent.Type.ROUND_STARTED, GameEvent.Type.RESPONSE_SUBMITTED,
+        GameEvent.Type.RESPONSE_SUBMITTED, GameEvent.Type.ROUND_LOCKED, GameEvent.Type.WINNER_CHOSEN),
+        publishedTypes());
+
+    Document stored = storedRound();
+    assertEquals("JUDGED", stored.getString("state"));
+    assertEquals("Because", stored.get("winningResponse", Document.class).getString("text"));
+    // The round's history was kept up to date as well
+    List<Round> history = roundStore.roundsOf(gameId);
+    assertEquals(1, history.size());
+    assertEquals(Round.State.JUDGED, history.get(0).state);
+  }
+
+  @Test
+  void responsesAreSavedTogetherWhenTheRoundIsLocked() {
+    roundEngine.startRound(gameId, null, "Why?");
+    roundEngine.submitResponse(gameId, "Jeff", "Because");
+    roundEngine.submitResponse(gameId, "Nic", "Why not?");
+
+    assertNull(storedRound().get("responses"));
+    assertTrue(roundStore.responsesTo(gameId, 0).isEmpty());
+    // Each response bumps the count, but not the version (the game itself hasn't changed yet)
+    GameEvent second = published.get(2);
+    assertEquals(2, second.data.get("responses"));
+    assertEquals(1, second.version);
+    assertTrue(second.patch.isEmpty());
+
+    roundEngine.lock(gameId);
+
+    assertEquals(2, storedRound().getList("responses", Document.class).size());
+    assertEquals(2, roundStore.responsesTo(gameId, 0).size());
+  }
+
+  @Test
+  void everybodyRespondingAtOnce() throws Exception {
+    int players = 40;
+    List<String> names = IntStream.range(0, players).mapToObj(i -> "player" + i).toList();
+    ObjectId id = new ObjectId();
+    gameDocuments.insertOne(new Document("_id", id).append("joincode", "1111").append("players", names));
+    String bigGame = id.toHexString();
+    roundEngine.startRound(bigGame, "player0", "Why?");
+    CountDownLatch go = new CountDownLatch(1);
+
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (String player : names.subList(1, players)) {
+        // Everybody (but the judge) tries to respond twice, all at the same time
+        for (int attempt = 0; attempt < 2; attempt++) {
+          executor.submit(() -> {
+            go.await();
+            return roundEngine.submitResponse(bigGame, player, player + " says because");
+          });
+        }
+      }
+      go.countDown();
+    }
+    Round locked = roundEngine.lock(bigGame);
+
+    // One response from each of them, none lost and none twice
+    assertEquals(players - 1, locked.responses.length);
+    assertEquals(players - 1, Arrays.stream(locked.responses).map(r -> r.player).distinct().count());
+    assertEquals(players - 1, roundStore.responsesTo(bigGame, 0).size());
+    List<Object> counts = published.stream()
+        .filter(event -> event.type == GameEvent.Type.RESPONSE_SUBMITTED)
+        .map(event -> event.data.get("responses"))
+        .toList();
+    assertEquals(players - 1, counts.size());
+    assertEquals(players - 1, counts.stream().distinct().count());
+  }
+
+  @Test
+  void roundsThatRunOutOfTimeAreLocked() throws InterruptedException {
+    CountDownLatch locked = new CountDownLatch(1);
+    RoundEngine engine = engineWithDeadlines(new RoundTimer(scheduler, Runnable::run),
+        Duration.ofMillis(50), null, GameEvent.Type.ROUND_LOCKED, locked);
+    engine.startRound(gameId, null, "Why?");
+    engine.submitResponse(gameId, "Jeff", "Because");
+
+    assertTrue(locked.await(5, TimeUnit.SECONDS));
+    assertEquals("LOCKED", storedRound().getString("state"));
+    assertEquals(1, roundStore.responsesTo(gameId, 0).size());
+    // Too late now
+    assertThrows(IllegalStateException.class, () -> engine.submitResponse(gameId, "Nic", "Why not?"));
+  }
+
+  @Test
+  void judgesWhoRunOutOfTimeAreSkipped() throws InterruptedException {
+    CountDownLatch skipped = new CountDownLatch(1);
+    RoundEngine engine = engineWithDeadlines(new RoundTimer(scheduler, Runnable::run),
+        null, Duration.ofMillis(50), GameEvent.Type.JUDGE_SKIPPED, skipped);
+    engine.startRound(gameId, null, "Why?");
+    engine.submitResponse(gameId, "Jeff", "Because");
+    engine.lock(gameId);
+
+    assertTrue(skipped.await(5, TimeUnit.SECONDS));
+    Document stored = storedRound();
+    assertEquals("JUDGED", stored.getString("state"));
+    assertNull(stored.get("winningResponse"));
+    // The game moves on to the next judge
+    assertEquals("Jeff", engine.startRound(gameId, null, "How?").judge);
+  }
+
+  @Test
+  void deadlinesFollowTheRound() {
+    RoundTimer timer = new RoundTimer(scheduler, Runnable::run);
+    RoundEngine engine = engineWithDeadlines(timer, Duration.ofMinutes(10), Duration.ofMinutes(10),
+        GameEvent.Type.JUDGE_SKIPPED, new CountDownLatch(1));
+
+    engine.startRound(gameId, null, "Why?");
+    Response response = engine.submitResponse(gameId, "Jeff", "Because");
+    assertEquals(1, timer.size());
+    engine.lock(gameId);
+    // The deadline for responding was swapped for the one for judging
+    assertEquals(1, timer.size());
+    assertEquals(1, scheduler.getQueue().size());
+    engine.chooseWinner(gameId, "Kristin", response._id);
+
+    assertEquals(0, timer.size());
+  }
+
+  @Test
+  void eachChangeOfStateGetsTheNextVersion() {
+    roundEngine.startRound(gameId, null, "Why?");
+    Response response = roundEngine.submitResponse(gameId, "Jeff", "Because");
+    roundEngine.lock(gameId);
+    roundEngine.chooseWinner(gameId, "Kristin", response._id);
+
+    List<Long> versions = published.stream()
+        .filter(event -> !event.patch.isEmpty())
+        .map(event -> event.version)
+        .toList();
+    assertEquals(List.of(1L, 2L, 3L), versions);
+  }
+
+  @Test
+  void nextRoundAdvancesTheGame() {
+    roundEngine.startRound(gameId, null, "Why?");
+    Response response = roundEngine.submitResponse(gameId, "Jeff", "Because");
+    roundEngine.lock(gameId);
+    roundEngine.chooseWinner(gameId, "Kristin", response._id);
+
+    Round next = roundEngine.startRound(gameId, null, "How?");
+
+    assertEquals(1, next.number);
+    assertEquals("Jeff", next.judge);
+    Game game = gameStore.findById(gameId);
+    assertEquals(1, game.currentRound);
+    assertEquals("How?", game.round.prompt);
+    assertEquals(Round.State.OPEN, game.round.state);
+    // The game only holds the current round; the earlier ones are in the history
+    assertEquals(List.of(0, 1), roundStore.roundsOf(gameId).stream().map(round -> round.number).toList());
+    assertEquals(List.of("Because"), roundStore.responsesTo(gameId, 0).stream().map(r -> r.text).toList());
+  }
+
+  @Test
+  void cantStartARoundBeforeTheLastOneIsJudged() {
+    roundEngine.startRound(gameId, null, "Why?");
+
+    assertThrows(IllegalStateException.class, () -> roundEngine.startRound(gameId, null, "How?"));
+  }
+
+  @Test
+  void judgeMustBePlaying() {
+    assertThrows(IllegalArgumentException.class, () -> roundEngine.startRound(gameId, "Mary", "Why?"));
+  }
+
+  @Test
+  void cantStartARoundWithoutPlayers() {
+    ObjectId empty = new ObjectId();
+    gameDocuments.insertOne(new Document("_id", empty).append("joincode", "1111"));
+
+    assertThrows(IllegalStateException.class,
+        () -> roundEngine.startRound(empty.toHexString(), null, "Why?"));
+  }
+
+  @Test
+  void eachPlayerRespondsOnce() {
+    roundEngine.startRound(gameId, null, "Why?");
+    roundEngine.submitResponse(gameId, "Jeff", "Because");
+
+    assertThrows(IllegalStateException.class, () -> roundEngine.submitResponse(gameId, "Jeff", "Again"));
+  }
+
+  @Test
+  void judgeDoesntRespond() {
+    roundEngine.startRound(gameId, "Nic", "Why?");
+
+    assertThrows(IllegalArgumentException.class, () -> roundEngine.submitResponse(gameId, "Nic", "Because"));
+    assertThrows(IllegalArgumentException.class, () -> roundEngine.submitResponse(gameId, "Mary", "Because"));
+  }
+
+  @Test
+  void cantRespondOnceTheRoundIsLocked() {
+    roundEngine.startRound(gameId, null, "Why?");
+    roundEngine.lock(gameId);
+
+    assertThrows(IllegalStateException.class, () -> roundEngine.submitResponse(gameId, "Jeff", "Because"));
+    assertThrows(IllegalStateException.class, () -> roundEngine.lock(gameId));
+  }
+
+  @Test
+  void roundsNobodyRespondedToEndWithoutAWinner() {
+    roundEngine.startRound(gameId, null, "Why?");
+    Round ended = roundEngine.lock(gameId);
+
+    // There's nothing to judge, so it doesn't wait for the judge
+    assertEquals(Round.State.JUDGED, ended.state);
+    assertNull(ended.winningResponse);
+    assertEquals(List.of(GameEvent.Type.ROUND_STARTED, GameEvent.Type.JUDGE_SKIPPED), publishedTypes());
+    assertEquals("Jeff", roundEngine.startRound(gameId, null, "How?").judge);
+  }
+
+  @Test
+  void roundsThatFailToLockKeepTakingResponses() {
+    RoundStore failsOnce = new RoundStore() {
+      private boolean failed;
+
+      @Override
+      public void save(Round round) {
+        roundStore.save(round);
+      }
+
+      @Override
+      public void saveResponses(Response[] responses) {
+        if (!failed) {
+          failed = true;
+          throw new IllegalStateException("The database went away");
+        }
+        roundStore.saveResponses(responses);
+      }
+
+      @Override
+      public List<Round> roundsOf(String id) {
+        return roundStore.roundsOf(id);
+      }
+
+      @Override
+      public List<Response> responsesTo(String id, int number) {
+        return roundStore.responsesTo(id, number);
+      }
+    };
+    RoundEngine engine = new RoundEngine(gameStore, failsOnce, published::add);
+    engine.startRound(gameId, null, "Why?");
+    engine.submitResponse(gameId, "Jeff", "Because");
+
+    assertThrows(IllegalStateException.class, () -> engine.lock(gameId));
+    // It's still open, and still has Jeff's response
+    engine.submitResponse(gameId, "Nic", "Why not?");
+    Round locked = engine.lock(gameId);
+    assertEquals(Round.State.LOCKED, locked.state);
+    assertEquals(2, locked.responses.length);
+  }
+
+  @Test
+  void onlyTheJudgeChoosesAnExistingResponse() {
+    roundEngine.startRound(gameId, null, "Why?");
+    Response response = roundEngine.submitResponse(gameId, "Jeff", "Because");
+
+    // Not locked yet
+    assertThrows(IllegalStateException.class, () -> roundEngine.chooseWinner(gameId, "Kristin", response._id));
+    roundEngine.lock(gameId);
+    assertThrows(IllegalArgumentException.class, () -> roundEngine.chooseWinner(gameId, "Jeff", response._id));
+    assertThrows(IllegalArgumentException.class, () -> roundEngine.chooseWinner(gameId, "Kristin", "nope"));
+  }
+
+  @Test
+  void picksUpWhereItLeftOff() {
+    roundEngine.startRound(gameId, null, "Why?");
+    Response response = roundEngine.submitResponse(gameId, "Jeff", "Because");
+    roundEngine.lock(gameId);
+
+    // A new engine (e.g., after the server restarts) loads the current round from the database
+    RoundEngine restarted = new RoundEngine(newGameStore(), newRoundStore(), GameEventPublisher.NONE);
+    Round judged = restarted.chooseWinner(gameId, "Kristin", response._id);
+
+    assertEquals("Because", judged.winningResponse.text);
+  }
+
+  @Test
+  void evictedGamesAreDroppedAndReloaded() {
+    RoundTimer timer = new RoundTimer(scheduler, Runnable::run);
+    RoundEngine engine = engineWithDeadlines(timer, Duration.ofMinutes(10), Duration.ofMinutes(10),
+        GameEvent.Type.JUDGE_SKIPPED, new CountDownLatch(1));
+    engine.startRound(gameId, null, "Why?");
+    Response response = engine.submitResponse(gameId, "Jeff", "Because");
+    engine.lock(gameId);
+    assertEquals(1, engine.size());
+
+    gameStore.evict(gameId);
+    // Along with its deadline
+    assertEquals(0, engine.size());
+    assertEquals(0, timer.size());
+
+    // It's loaded again (from the database) the next time it's used
+    Round judged = engine.chooseWinner(gameId, "Kristin", response._id);
+    assertEquals("Because", judged.winningResponse.text);
+  }
+
+  @Test
+  void judgedRoundsAreDropped() {
+    Round started = roundEngine.startRound(gameId, null, "Why?");
+    Response response = roundEngine.submitResponse(gameId, "Jeff", "Because");
+    roundEngine.lock(gameId);
+    roundEngine.chooseWinner(gameId, "Kristin", response._id);
+
+    assertEquals(0, roundEngine.size());
+    assertEquals(started.number + 1, roundEngine.startRound(gameId, null, "How?").number);
+    assertEquals(1, roundEngine.size());
+  }
+
+  @Test
+  void roundsTakingResponsesArentDropped() {
+    roundEngine.startRound(gameId, null, "Why?");
+    roundEngine.submitResponse(gameId, "Jeff", "Because");
+
+    // The response is only in memory until the round is locked, so it has to stay
+    gameStore.evict(gameId);
+    assertEquals(1, roundEngine.size());
+    assertEquals(1, roundEngine.lock(gameId).responses.length);
+  }
+
+  @Test
+  void missingGames() {
+    String missing = new ObjectId().toHexString();
+
+    assertNull(roundEngine.startRound(missing, null, "Why?"));
+    assertNull(roundEngine.submitResponse(missing, "Jeff", "Because"));
+    assertNull(roundEngine.lock(missing));
+    assertNull(roundEngine.chooseWinner(missing, "Kristin", "nope"));
+  }
+}
@@ -0,0 +1,130 @@
+package umm3601.game;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+@SuppressWarnings({ "MagicNumber" })
+class RoundStoreSpec {
+
+  private static final String GAME_ID = "game";
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private RoundStore roundStore;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    db.getCollection("rounds").drop();
+    db.getCollection("responses").drop();
+    roundStore = new MongoRoundStore(
+        JacksonMongoCollection.builder().build(db, "rounds", Round.class, UuidRepresentation.STANDARD),
+        JacksonMongoCollection.builder().build(db, "responses", Response.class, UuidRepresentation.STANDARD));
+  }
+
+  private static Round round(String gameId, int number) {
+    Round round = new Round();
+    round._id = new ObjectId().toHexString();
+    round.gameId = gameId;
+    round.number = number;
+    round.players = new String[]{"Kristin", "Jeff"};
+    round.judge = "Kristin";
+    round.prompt = "Prompt " + number;
+    round.state = Round.State.OPEN;
+    return round;
+  }
+
+  private static Response response(String id, int round, String player) {
+    Response response = new Response();
+    response._id = id;
+    response.gameId = GAME_ID;
+    response.round = round;
+    response.player = player;
+    response.text = player + " says hi";
+    return response;
+  }
+
+  @Test
+  void roundsComeBackInOrderForTheirGameOnly() {
+    roundStore.save(round(GAME_ID, 1));
+    roundStore.save(round(GAME_ID, 0));
+    roundStore.save(round("other", 0));
+
+    List<Round> rounds = roundStore.roundsOf(GAME_ID);
+
+    assertEquals(List.of(0, 1), rounds.stream().map(round -> round.number).toList());
+  }
+
+  @Test
+  void savingARoundAgainUpdatesIt() {
+    Round round = round(GAME_ID, 0);
+    roundStore.save(round);
+    round.state = Round.State.LOCKED;
+    round.responses = new Response[]{response("r1", 0, "Jeff")};
+    roundStore.save(round);
+
+    List<Round> rounds = roundStore.roundsOf(GAME_ID);
+
+    assertEquals(1, rounds.size());
+    assertEquals(Round.State.LOCKED, rounds.get(0).state);
+    // The responses are kept separately, not in the round
+    assertNull(rounds.get(0).responses);
+    Document stored = db.getCollection("rounds").find().first();
+    assertNull(stored.get("responses"));
+  }
+
+  @Test
+  void responsesAreSavedOnceEvenIfSavedTwice() {
+    Response[] responses = {response("r1", 0, "Jeff"), response("r2", 0, "Nic"), response("r3", 1, "Jeff")};
+    roundStore.saveResponses(responses);
+    roundStore.saveResponses(responses);
+
+    assertEquals(3, db.getCollection("responses").countDocuments());
+    assertEquals(2, roundStore.responsesTo(GAME_ID, 0).size());
+    assertEquals("Jeff says hi", roundStore.responsesTo(GAME_ID, 1).get(0).text);
+  }
+
+  @Test
+  void savingNoResponsesDoesNothing() {
+    roundStore.saveResponses(new Response[0]);
+    roundStore.saveResponses(null);
+
+    assertTrue(roundStore.responsesTo(GAME_ID, 0).isEmpty());
+  }
+}
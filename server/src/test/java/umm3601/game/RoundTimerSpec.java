@@ -0,0 +1,101 @@
+package umm3601.game;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({ "MagicNumber" })
+class RoundTimerSpec {
+
+  private static final Duration SOON = Duration.ofMillis(20);
+  private static final Duration LATER = Duration.ofMinutes(10);
+
+  private ScheduledThreadPoolExecutor scheduler;
+  private RoundTimer timer;
+  private List<String> fired;
+
+  @BeforeEach
+  void setupEach() {
+    scheduler = new ScheduledThreadPoolExecutor(1);
+    scheduler.setRemoveOnCancelPolicy(true);
+    // Run the actions right on the scheduler thread, to keep things simple
+    timer = new RoundTimer(scheduler, Runnable::run);
+    fired = new CopyOnWriteArrayList<>();
+  }
+
+  @AfterEach
+  void teardownEach() {
+    scheduler.shutdownNow();
+  }
+
+  @Test
+  void firesWhenTheDeadlineIsUp() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(1);
+    timer.schedule("game", SOON, () -> {
+      fired.add("game");
+      done.countDown();
+    });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(List.of("game"), fired);
+    assertEquals(0, timer.size());
+  }
+
+  @Test
+  void aNewDeadlineReplacesTheOldOne() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(1);
+    timer.schedule("game", SOON, () -> fired.add("old"));
+    timer.schedule("game", SOON, () -> {
+      fired.add("new");
+      done.countDown();
+    });
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    // Give the old one a chance to (wrongly) go off
+    Thread.sleep(SOON.toMillis() * 2);
+    assertEquals(List.of("new"), fired);
+  }
+
+  @Test
+  void cancelledDeadlinesDontFireOrHangAround() {
+    for (int i = 0; i < 1000; i++) {
+      timer.schedule("game" + i, LATER, () -> fired.add("nope"));
+    }
+    // Moving every deadline around, then cancelling them all
+    for (int i = 0; i < 1000; i++) {
+      timer.schedule("game" + i, LATER, () -> fired.add("nope"));
+    }
+    assertEquals(1000, timer.size());
+    assertEquals(1000, scheduler.getQueue().size());
+    for (int i = 0; i < 1000; i++) {
+      timer.cancel("game" + i);
+    }
+
+    assertEquals(0, timer.size());
+    assertTrue(scheduler.getQueue().isEmpty());
+    assertTrue(fired.isEmpty());
+  }
+
+  @Test
+  void failingActionsDontStopTheTimer() throws InterruptedException {
+    CountDownLatch done = new CountDownLatch(1);
+    timer.schedule("broken", SOON, () -> {
+      throw new IllegalStateException("Oops");
+    });
+    timer.schedule("game", SOON.multipliedBy(2), done::countDown);
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertFalse(scheduler.isShutdown());
+  }
+}
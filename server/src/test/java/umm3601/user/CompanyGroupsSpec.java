@@ -0,0 +1,115 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({ "MagicNumber" })
+class CompanyGroupsSpec {
+
+  private CompanyGroups groups;
+  private String chrisId;
+  private String jamieId;
+  private String samId;
+
+  @BeforeEach
+  void setupEach() {
+    // Object IDs made later come later, like the users' would
+    chrisId = new ObjectId().toHexString();
+    jamieId = new ObjectId().toHexString();
+    samId = new ObjectId().toHexString();
+    groups = new CompanyGroups();
+    groups.fill(List.of(
+        group("UMM", idName(chrisId, "Chris")),
+        group("OHMNET", idName(jamieId, "Jamie"), idName(samId, "Sam"))));
+  }
+
+  private static UserIdName idName(String id, String name) {
+    UserIdName idName = new UserIdName();
+    idName._id = id;
+    idName.name = name;
+    return idName;
+  }
+
+  private static UserByCompany group(String company, UserIdName... users) {
+    UserByCompany group = new UserByCompany();
+    group._id = company;
+    group.count = users.length;
+    group.users = new ArrayList<>(List.of(users));
+    return group;
+  }
+
+  private static List<String> companies(List<UserByCompany> page) {
+    return page.stream().map(group -> group._id).toList();
+  }
+
+  private static List<String> names(UserByCompany group) {
+    return group.users.stream().map(user -> user.name).toList();
+  }
+
+  @Test
+  void sortsCompaniesByNameOrCount() {
+    assertEquals(List.of("OHMNET", "UMM"), companies(groups.page("_id", false, 0, 0, 0)));
+    assertEquals(List.of("UMM", "OHMNET"), companies(groups.page("_id", true, 0, 0, 0)));
+    assertEquals(List.of("UMM", "OHMNET"), companies(groups.page("count", false, 0, 0, 0)));
+    assertEquals(List.of("OHMNET", "UMM"), companies(groups.page("count", true, 0, 0, 0)));
+  }
+
+  @Test
+  void pagesThroughCompanies() {
+    groups.add(new ObjectId().toHexString(), "Pat", "IBM");
+    assertEquals(List.of("IBM", "OHMNET"), companies(groups.page("_id", false, 0, 2, 0)));
+    assertEquals(List.of("UMM"), companies(groups.page("_id", false, 2, 2, 0)));
+    assertEquals(List.of(), companies(groups.page("_id", false, 5, 2, 0)));
+  }
+
+  @Test
+  void limitsTheUsersInEachGroupButCountsThemAll() {
+    UserByCompany ohmnet = groups.page("_id", false, 0, 1, 1).get(0);
+    assertEquals(2, ohmnet.count);
+    assertEquals(List.of("Jamie"), names(ohmnet));
+  }
+
+  @Test
+  void pagesThroughTheUsersInACompany() {
+    assertEquals(List.of("Jamie"), names(groups.company("OHMNET", null, 1)));
+    UserByCompany secondPage = groups.company("OHMNET", jamieId, 1);
+    assertEquals(2, secondPage.count);
+    assertEquals(List.of("Sam"), names(secondPage));
+    assertEquals(List.of(), names(groups.company("OHMNET", samId, 1)));
+    assertNull(groups.company("IBM", null, 0));
+  }
+
+  @Test
+  void keepsUpWithAddedAndDeletedUsers() {
+    String patId = new ObjectId().toHexString();
+    groups.add(patId, "Pat", "UMM");
+    assertEquals(List.of("Chris", "Pat"), names(groups.company("UMM", null, 0)));
+
+    groups.remove(chrisId);
+    groups.remove(patId);
+    assertNull(groups.company("UMM", null, 0));
+    assertEquals(List.of("OHMNET"), companies(groups.page("_id", false, 0, 0, 0)));
+    // Deleting somebody who isn't there does nothing
+    groups.remove(patId);
+  }
+
+  @Test
+  void changesBeforeItsFilledInAreKept() {
+    CompanyGroups unfilled = new CompanyGroups();
+    String patId = new ObjectId().toHexString();
+    unfilled.add(patId, "Pat", "IBM");
+    unfilled.remove(chrisId);
+    // The grouping was started before Pat was added, and Chris deleted
+    unfilled.fill(List.of(group("UMM", idName(chrisId, "Chris")), group("IBM", idName(patId, "Pat"))));
+
+    assertEquals(List.of("IBM"), companies(unfilled.page("_id", false, 0, 0, 0)));
+    assertEquals(1, unfilled.company("IBM", null, 0).count);
+  }
+}
@@ -0,0 +1,165 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the in-memory users behave the way the ones in MongoDB do
+ * (see `UserControllerSpec`), as far as the controller can tell.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class InMemoryUserRepositorySpec {
+
+  private InMemoryUserRepository users;
+  private User chris;
+
+  @BeforeEach
+  void setupEach() {
+    users = new InMemoryUserRepository();
+    chris = user("Chris", 25, "UMM", "admin");
+    users.insert(chris);
+    users.insert(user("Pat", 37, "IBM", "editor"));
+    users.insert(user("Jamie", 37, "OHMNET", "viewer"));
+  }
+
+  private static User user(String name, int age, String company, String role) {
+    User user = new User();
+    user.name = name;
+    user.age = age;
+    user.company = company;
+    user.email = name.toLowerCase() + "@example.com";
+    user.role = role;
+    return user;
+  }
+
+  private static List<String> names(List<User> found) {
+    return found.stream().map(user -> user.name).toList();
+  }
+
+  @Test
+  void insertGivesUsersAnId() {
+    assertTrue(ObjectId.isValid(chris._id));
+    assertEquals(chris, users.findById(chris._id));
+  }
+
+  @Test
+  void findByIdOfMissingUserIsNull() {
+    assertNull(users.findById(new ObjectId().toHexString()));
+  }
+
+  @Test
+  void findByIllegalIdThrows() {
+    assertThrows(IllegalArgumentException.class, () -> users.findById("bad"));
+    assertThrows(IllegalArgumentException.class, () -> users.delete("bad"));
+  }
+
+  @Test
+  void findsEverybodySortedByName() {
+    assertEquals(List.of("Chris", "Jamie", "Pat"), names(users.find(new UserQuery(null, null, null, "name", false))));
+    assertEquals(List.of("Pat", "Jamie", "Chris"), names(users.find(new UserQuery(null, null, null, "name", true))));
+  }
+
+  @Test
+  void filtersByAgeCompanyAndRole() {
+    assertEquals(List.of("Jamie", "Pat"), names(users.find(new UserQuery(37, null, null, "name", false))));
+    // Like the regex in MongoDB, the company only has to contain the text, in any case
+    assertEquals(List.of("Chris", "Jamie"), names(users.find(new UserQuery(null, "m", null, "name", false))));
+    assertEquals(List.of("Pat"), names(users.find(new UserQuery(37, null, "editor", "name", false))));
+  }
+
+  @Test
+  void matchesCompaniesByPrefixOrExactly() {
+    users.insert(user("Sam", 20, " Ohmnet Labs", "viewer"));
+
+    assertEquals(List.of("Jamie", "Sam"), withCompany("ohm", UserQuery.CompanyMatch.PREFIX));
+    assertEquals(List.of(), withCompany("net", UserQuery.CompanyMatch.PREFIX));
+    assertEquals(List.of("Sam"), withCompany("OHMNET LABS ", UserQuery.CompanyMatch.EXACT));
+    assertEquals(List.of(), withCompany("ohm", UserQuery.CompanyMatch.EXACT));
+  }
+
+  private List<String> withCompany(String company, UserQuery.CompanyMatch match) {
+    return names(users.find(new UserQuery(null, company, match, null, "name", false, null, 0)));
+  }
+
+  @Test
+  void sortingByAFieldWithoutAnIndexThrows() {
+    assertThrows(IllegalArgumentException.class, () -> users.find(new UserQuery(null, null, null, "shoeSize", false)));
+    assertThrows(IllegalArgumentException.class, () -> users.find(new UserQuery(null, null, null, "avatar", false)));
+  }
+
+  @Test
+  void deleteRemovesTheUser() {
+    assertTrue(users.delete(chris._id));
+    assertNull(users.findById(chris._id));
+    assertFalse(users.delete(chris._id));
+  }
+
+  @Test
+  void groupsUsersByCompany() {
+    users.insert(user("Sam", 20, "IBM", "viewer"));
+
+    List<UserByCompany> byCount = users.groupedByCompany("count", true);
+    assertEquals(3, byCount.size());
+    assertEquals("IBM", byCount.get(0)._id);
+    assertEquals(2, byCount.get(0).count);
+    assertEquals(2, byCount.get(0).users.size());
+
+    List<UserByCompany> byName = users.groupedByCompany("_id", false);
+    assertEquals(List.of("IBM", "OHMNET", "UMM"), byName.stream().map(group -> group._id).toList());
+    assertNotNull(byName.get(2).users.get(0)._id);
+    assertEquals("Chris", byName.get(2).users.get(0).name);
+  }
+
+  @Test
+  void findsUsersOnePageAtATime() {
+    List<User> firstPage = users.find(new UserQuery(null, null, null, "name", false, null, 2));
+    assertEquals(List.of("Chris", "Jamie"), names(firstPage));
+    List<User> secondPage = users.find(
+      new UserQuery(null, null, null, "name", false, UserCursor.after(firstPage.get(1), "name"), 2));
+    assertEquals(List.of("Pat"), names(secondPage));
+  }
+
+  @Test
+  void pagesBreakTiesById() {
+    // Pat and Jamie are both 37
+    List<String> names = new ArrayList<>();
+    UserCursor after = null;
+    List<User> page = users.find(new UserQuery(null, null, null, "age", true, after, 1));
+    while (!page.isEmpty()) {
+      names.add(page.get(0).name);
+      after = UserCursor.after(page.get(0), "age");
+      page = users.find(new UserQuery(null, null, null, "age", true, after, 1));
+    }
+    assertEquals(3, names.size());
+    assertEquals("Chris", names.get(2));
+  }
+
+  @Test
+  void pagesCarryOnAfterTheirLastUserIsDeleted() {
+    List<User> firstPage = users.find(new UserQuery(null, null, null, "name", false, null, 2));
+    users.delete(firstPage.get(1)._id);
+
+    List<User> secondPage = users.find(
+      new UserQuery(null, null, null, "name", false, UserCursor.after(firstPage.get(1), "name"), 2));
+    assertEquals(List.of("Pat"), names(secondPage));
+  }
+
+  @Test
+  void streamsMatchingUsersInOrder() {
+    try (Stream<User> streamed = users.stream(new UserQuery(37, null, null, "name", true))) {
+      assertEquals(List.of("Pat", "Jamie"), streamed.map(user -> user.name).toList());
+    }
+  }
+}
@@ -4,11 +4,14 @@ import static com.mongodb.client.model.Filters.eq;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -20,7 +23,11 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -133,6 +140,7 @@ class UserControllerSpec {
     // Reset our mock context and argument captor (declared with Mockito
     // annotations @Mock and @Captor)
     MockitoAnnotations.openMocks(this);
+    respondsOnceFuturesComplete(ctx);
 
     // Setup database
     MongoCollection<Document> userDocuments = db.getCollection("users");
@@ -531,6 +539,98 @@ class UserControllerSpec {
     }
   }
 
+  @Test
+  void usersWithoutANormalizedCompanyGetOne() {
+    // The users in `setupEach()` were inserted without one
+    Document chris = db.getCollection("users").find(eq("name", "Chris")).first();
+    assertEquals("umm", chris.get(MongoUserRepository.COMPANY_NORMALIZED_KEY));
+  }
+
+  @Test
+  void seededCompaniesAreNormalizedLikeSearchesAre() {
+    // Seeded (without a normalized company) after the controller was made
+    db.getCollection("users").insertOne(new Document("name", "Alex").append("company", " ÄRZTE "));
+    userController = new UserController(db);
+
+    Document alex = db.getCollection("users").find(eq("name", "Alex")).first();
+    assertEquals("ärzte", alex.get(MongoUserRepository.COMPANY_NORMALIZED_KEY));
+    assertEquals(List.of("Alex"), namesWithCompany("Ärzte", "exact"));
+    assertEquals(List.of("Alex"), namesWithCompany("är", "prefix"));
+  }
+
+  @Test
+  void companiesSeededWhileRunningAreFound() {
+    // Seeded (without a normalized company) while the controller is running
+    db.getCollection("users").insertOne(new Document("name", "Alex").append("company", " ÄRZTE "));
+
+    assertEquals(List.of("Alex"), namesWithCompany("Ärzte", "exact"));
+    Document alex = db.getCollection("users").find(eq("name", "Alex")).first();
+    assertEquals("ärzte", alex.get(MongoUserRepository.COMPANY_NORMALIZED_KEY));
+  }
+
+  @Test
+  void prefixesEndingInTheLastCharactersStillMatch() {
+    db.getCollection("users").insertOne(new Document("name", "Alex").append("company", "Zed\uffff Inc"));
+    // U+10FFFF, the very last code point
+    db.getCollection("users").insertOne(new Document("name", "Kim").append("company", "Last\uDBFF\uDFFF Co"));
+    userController = new UserController(db);
+
+    assertEquals(List.of("Alex"), namesWithCompany("zed\uffff", "prefix"));
+    assertEquals(List.of("Kim"), namesWithCompany("last\uDBFF\uDFFF", "prefix"));
+    assertEquals(List.of(), namesWithCompany("last\uD83D\uDE00", "prefix"));
+  }
+
+  private List<String> namesWithCompany(String company, String companyMatch) {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_KEY, Arrays.asList(new String[] {company}));
+    queryParams.put(UserController.COMPANY_MATCH_KEY, Arrays.asList(new String[] {companyMatch}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParam(UserController.COMPANY_KEY)).thenReturn(company);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.COMPANY_MATCH_KEY, String.class))
+      .thenReturn(validation.validator(UserController.COMPANY_MATCH_KEY, String.class, companyMatch));
+
+    userController.getUsers(ctx);
+
+    verify(ctx).json(userArrayListCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    // So the same test can ask again
+    Mockito.clearInvocations(ctx);
+    return userArrayListCaptor.getValue().stream().map(user -> user.name).toList();
+  }
+
+  @Test
+  void canGetUsersWhoseCompanyStartsWithSomething() {
+    assertEquals(List.of("Jamie", "Sam"), namesWithCompany(" Ohm", "prefix"));
+  }
+
+  @Test
+  void usersWhoseCompanyOnlyContainsSomethingDontMatchAPrefix() {
+    // "MN" is in "OHMNET", but isn't the start of it
+    assertEquals(List.of(), namesWithCompany("mn", "prefix"));
+    assertEquals(List.of("Jamie", "Sam"), namesWithCompany("mn", "contains"));
+  }
+
+  @Test
+  void canGetUsersWithExactlySomeCompany() {
+    assertEquals(List.of("Pat"), namesWithCompany("ibm", "exact"));
+    assertEquals(List.of(), namesWithCompany("ib", "exact"));
+  }
+
+  @Test
+  void companyMatchMustBeLegal() {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.COMPANY_MATCH_KEY, Arrays.asList(new String[] {"regex"}));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    Validation validation = new Validation();
+    when(ctx.queryParamAsClass(UserController.COMPANY_MATCH_KEY, String.class))
+      .thenReturn(validation.validator(UserController.COMPANY_MATCH_KEY, String.class, "regex"));
+
+    assertThrows(ValidationException.class, () -> {
+      userController.getUsers(ctx);
+    });
+  }
+
   @Test
   void getUsersByRole() throws IOException {
     Map<String, List<String>> queryParams = new HashMap<>();
@@ -723,6 +823,136 @@ class UserControllerSpec {
     assertEquals(2, ohmnet.count);
   }
 
+  @Captor
+  private ArgumentCaptor<Supplier<? extends CompletableFuture<?>>> futureCaptor;
+
+  @Test
+  void testGetUsersGroupedByCompanyWithoutBlocking() {
+    // A context that (unlike `ctx`) doesn't wait for the future itself
+    Context groupsCtx = mock(Context.class);
+    when(groupsCtx.queryParam("sortBy")).thenReturn("company");
+    when(groupsCtx.queryParam("sortOrder")).thenReturn("desc");
+    userController.getUsersGroupedByCompany(groupsCtx);
+
+    // The first request just hands Javalin a future (for the groups, which
+    // are being filled in on another thread), and doesn't respond itself
+    verify(groupsCtx).future(futureCaptor.capture());
+    verify(groupsCtx, never()).json(any());
+    futureCaptor.getValue().get().join();
+
+    verify(groupsCtx).json(userByCompanyListCaptor.capture());
+    verify(groupsCtx).status(HttpStatus.OK);
+    ArrayList<UserByCompany> result = userByCompanyListCaptor.getValue();
+    assertEquals(List.of("UMM", "OHMNET", "IBM"), result.stream().map(group -> group._id).toList());
+    assertEquals(List.of(1, 2, 1), result.stream().map(group -> group.count).toList());
+    UserByCompany ohmnet = result.get(1);
+    assertEquals(List.of("Jamie", "Sam"), ohmnet.users.stream().map(user -> user.name).sorted().toList());
+    assertTrue(ohmnet.users.stream().anyMatch(user -> user._id.equals(samsId.toHexString())));
+
+    // Once they're filled in, they come straight from memory
+    Context laterCtx = mock(Context.class);
+    userController.getUsersGroupedByCompany(laterCtx);
+    verify(laterCtx, never()).future(any());
+    verify(laterCtx).status(HttpStatus.OK);
+  }
+
+  /**
+   * Have a (mock) context do what Javalin does with a future handed to
+   * `ctx.future()`: wait for it, so whatever it responds with is there
+   * once the request has been handled.
+   */
+  @SuppressWarnings("unchecked")
+  private static void respondsOnceFuturesComplete(Context context) {
+    doAnswer(invocation -> ((Supplier<? extends CompletableFuture<?>>) invocation.getArgument(0)).get().join())
+        .when(context).future(any());
+  }
+
+  /**
+   * Ask for something about the users by company, with a fresh (mock)
+   * context with the given query (and path) parameters, and return what
+   * it responded with.
+   */
+  private Object getCompanyGroups(Consumer<Context> request, Map<String, String> params) {
+    Context groupsCtx = mock(Context.class);
+    Map<String, List<String>> queryParams = new HashMap<>();
+    params.forEach((key, value) -> {
+      queryParams.put(key, List.of(value));
+      when(groupsCtx.queryParam(key)).thenReturn(value);
+      when(groupsCtx.pathParam(key)).thenReturn(value);
+      when(groupsCtx.queryParamAsClass(key, Integer.class))
+          .thenReturn(new Validation().validator(key, Integer.class, value));
+    });
+    when(groupsCtx.queryParamMap()).thenReturn(queryParams);
+    respondsOnceFuturesComplete(groupsCtx);
+
+    request.accept(groupsCtx);
+
+    ArgumentCaptor<Object> response = ArgumentCaptor.forClass(Object.class);
+    verify(groupsCtx).json(response.capture());
+    verify(groupsCtx).status(HttpStatus.OK);
+    return response.getValue();
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<UserByCompany> getGroups(Map<String, String> params) {
+    return (List<UserByCompany>) getCompanyGroups(userController::getUsersGroupedByCompany, params);
+  }
+
+  @Test
+  void companiesComeInPages() {
+    List<UserByCompany> page = getGroups(Map.of(UserController.LIMIT_KEY, "2", UserController.OFFSET_KEY, "1"));
+    assertEquals(List.of("OHMNET", "UMM"), page.stream().map(group -> group._id).toList());
+
+    UserByCompany ohmnet = getGroups(Map.of(UserController.USER_LIMIT_KEY, "1")).get(1);
+    assertEquals(2, ohmnet.count);
+    assertEquals(1, ohmnet.users.size());
+
+    assertThrows(ValidationException.class, () -> getGroups(Map.of(UserController.LIMIT_KEY, "0")));
+    assertThrows(ValidationException.class, () -> getGroups(Map.of(UserController.OFFSET_KEY, "-1")));
+  }
+
+  @Test
+  void companyGroupsKeepUpWithAddedAndDeletedUsers() throws IOException {
+    // The first request fills in the groups from the database
+    assertEquals(3, getGroups(Map.of()).size());
+
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.deleteUser(ctx);
+    // Adding a user "behind the controller's back" doesn't change the groups
+    db.getCollection("users").insertOne(new Document("name", "Kim").append("company", "IBM"));
+
+    List<UserByCompany> groups = getGroups(Map.of());
+    assertEquals(List.of(1, 1, 1), groups.stream().map(group -> group.count).toList());
+    assertEquals("Jamie", groups.get(1).users.get(0).name);
+  }
+
+  @Test
+  void companyGroupsFilledInLaterFindTheUsersAsTheyAreThen() throws IOException {
+    // Nobody has asked for the groups yet, so this isn't tracked, just deleted
+    when(ctx.pathParam("id")).thenReturn(samsId.toHexString());
+    userController.deleteUser(ctx);
+
+    List<UserByCompany> groups = getGroups(Map.of());
+    assertEquals(List.of(1, 1, 1), groups.stream().map(group -> group.count).toList());
+  }
+
+  @Test
+  void canGetUsersInOneCompanyOnePageAtATime() {
+    UserByCompany firstPage = (UserByCompany) getCompanyGroups(userController::getUsersInCompany,
+        Map.of("company", "OHMNET", UserController.LIMIT_KEY, "1"));
+    assertEquals(2, firstPage.count);
+    assertEquals(1, firstPage.users.size());
+
+    UserByCompany secondPage = (UserByCompany) getCompanyGroups(userController::getUsersInCompany,
+        Map.of("company", "OHMNET", UserController.LIMIT_KEY, "1", UserController.AFTER_KEY,
+            firstPage.users.get(0)._id));
+    assertEquals(1, secondPage.users.size());
+    assertNotEquals(firstPage.users.get(0).name, secondPage.users.get(0).name);
+
+    assertThrows(NotFoundResponse.class,
+        () -> getCompanyGroups(userController::getUsersInCompany, Map.of("company", "Acme")));
+  }
+
   @Test
   void addUser() throws IOException {
     // Create a new user to add
@@ -779,6 +1009,8 @@ class UserControllerSpec {
     assertEquals(newUser.email, addedUser.get("email"));
     assertEquals(newUser.role, addedUser.get(UserController.ROLE_KEY));
     assertNotNull(addedUser.get("avatar"));
+    // It should also have the normalized company, for searching
+    assertEquals("testers", addedUser.get(MongoUserRepository.COMPANY_NORMALIZED_KEY));
   }
 
   @Test
@@ -1183,4 +1415,123 @@ class UserControllerSpec {
     // Assert
     assertEquals("https://gravatar.com/avatar/?d=mp", avatar);
   }
+
+  // The cursor for the next page, from the last call to `getPage` (if it had one)
+  private String nextPage;
+
+  /**
+   * Ask for one page of users, with a fresh (mock) context, and return
+   * the users on it. The cursor for the next page ends up in `nextPage`.
+   */
+  private List<User> getPage(String sortBy, String sortOrder, int limit, String after) {
+    Context pageCtx = mock(Context.class);
+    nextPage = null;
+    when(pageCtx.header(argThat(UserController.NEXT_PAGE_HEADER::equals), any())).thenAnswer(invocation -> {
+      nextPage = invocation.getArgument(1);
+      return pageCtx;
+    });
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put(UserController.LIMIT_KEY, List.of(Integer.toString(limit)));
+    when(pageCtx.queryParam("sortby")).thenReturn(sortBy);
+    when(pageCtx.queryParam("sortorder")).thenReturn(sortOrder);
+    if (after != null) {
+      queryParams.put(UserController.AFTER_KEY, List.of(after));
+      when(pageCtx.queryParam(UserController.AFTER_KEY)).thenReturn(after);
+    }
+    when(pageCtx.queryParamMap()).thenReturn(queryParams);
+    when(pageCtx.queryParamAsClass(UserController.LIMIT_KEY, Integer.class))
+        .thenReturn(new Validation().validator(UserController.LIMIT_KEY, Integer.class, Integer.toString(limit)));
+
+    userController.getUsers(pageCtx);
+
+    verify(pageCtx).json(userArrayListCaptor.capture());
+    verify(pageCtx).status(HttpStatus.OK);
+    return userArrayListCaptor.getValue();
+  }
+
+  @Test
+  void canGetUsersOnePageAtATime() {
+    List<User> firstPage = getPage("name", "asc", 2, null);
+    assertEquals(List.of("Chris", "Jamie"), firstPage.stream().map(user -> user.name).toList());
+
+    List<User> secondPage = getPage("name", "asc", 2, nextPage);
+    assertEquals(List.of("Pat", "Sam"), secondPage.stream().map(user -> user.name).toList());
+
+    assertTrue(getPage("name", "asc", 2, nextPage).isEmpty());
+    // An empty (or short) page is the last one
+    assertNull(nextPage);
+  }
+
+  @Test
+  void pagesCarryOnAfterTheirLastUserIsDeleted() {
+    List<User> firstPage = getPage("name", "asc", 2, null);
+    String after = nextPage;
+    db.getCollection("users").deleteOne(eq("_id", new ObjectId(firstPage.get(1)._id)));
+
+    List<User> secondPage = getPage("name", "asc", 2, after);
+    assertEquals(List.of("Pat", "Sam"), secondPage.stream().map(user -> user.name).toList());
+  }
+
+  @Test
+  void pagesDoNotSkipOrRepeatUsersWithTheSameSortKey() {
+    // Pat and Jamie are both 37, so paging one user at a time has to break the tie
+    List<String> names = new ArrayList<>();
+    String after = null;
+    List<User> page = getPage("age", "desc", 1, after);
+    while (!page.isEmpty()) {
+      names.add(page.get(0).name);
+      after = nextPage;
+      page = getPage("age", "desc", 1, after);
+    }
+
+    assertEquals(4, names.size());
+    assertEquals("Sam", names.get(0));
+    assertEquals("Chris", names.get(3));
+    assertTrue(names.containsAll(List.of("Pat", "Jamie")));
+  }
+
+  @Test
+  void pageAfterSomethingThatIsntACursorIsABadRequest() {
+    assertThrows(BadRequestResponse.class, () -> getPage("name", "asc", 2, new ObjectId().toHexString()));
+    assertThrows(BadRequestResponse.class, () -> getPage("name", "asc", 2, "not a cursor"));
+    // Nor is a cursor from users sorted some other way
+    getPage("age", "asc", 2, null);
+    String byAge = nextPage;
+    assertThrows(BadRequestResponse.class, () -> getPage("name", "asc", 2, byAge));
+  }
+
+  @Test
+  void pageLimitMustBeReasonable() {
+    assertThrows(ValidationException.class, () -> getPage("name", "asc", 0, null));
+    assertThrows(ValidationException.class, () -> getPage("name", "asc", UserController.MAX_PAGE_SIZE + 1, null));
+  }
+
+  @Test
+  void canOnlySortByIndexedFields() {
+    for (String sortBy : UserQuery.SORT_KEYS) {
+      assertEquals(4, getPage(sortBy, "desc", UserController.MAX_PAGE_SIZE, null).size());
+    }
+    // Sorting by these would make MongoDB sort every user in memory
+    BadRequestResponse exception = assertThrows(BadRequestResponse.class, () -> getPage("avatar", "asc", 2, null));
+    assertTrue(exception.getMessage().contains("avatar"));
+    assertThrows(BadRequestResponse.class, () -> getPage("shoeSize", "asc", 2, null));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void canStreamAllUsers() {
+    when(ctx.queryParamMap()).thenReturn(Collections.emptyMap());
+    when(ctx.queryParam(UserController.STREAM_KEY)).thenReturn("true");
+    // The stream is closed once the controller is done with it,
+    // so we have to read it while it's being "written"
+    List<User> streamed = new ArrayList<>();
+    doAnswer(invocation -> streamed.addAll(((Stream<User>) invocation.getArgument(0)).toList()))
+        .when(ctx).writeJsonStream(any());
+
+    userController.getUsers(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx, never()).json(any());
+    assertEquals(List.of("Chris", "Jamie", "Pat", "Sam"), streamed.stream().map(user -> user.name).toList());
+  }
 }
@@ -0,0 +1,56 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+@SuppressWarnings({ "MagicNumber" })
+class UserCursorSpec {
+
+  private static User user(String name, int age) {
+    User user = new User();
+    user._id = new ObjectId().toHexString();
+    user.name = name;
+    user.age = age;
+    return user;
+  }
+
+  private static String encoded(String json) {
+    return Base64.getUrlEncoder().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void cursorsComeBackTheWayTheyWent() {
+    User chris = user("Chris", 25);
+    for (String sortBy : UserQuery.SORT_KEYS) {
+      UserCursor cursor = UserCursor.after(chris, sortBy);
+      assertEquals(cursor, UserCursor.decode(cursor.encode()));
+    }
+    assertEquals(25, UserCursor.decode(UserCursor.after(chris, "age").encode()).value());
+    // Users without the field being sorted by have a cursor too
+    assertEquals(null, UserCursor.decode(UserCursor.after(chris, "company").encode()).value());
+  }
+
+  @Test
+  void onlyCursorsWeMakeAreCursors() {
+    String id = new ObjectId().toHexString();
+    assertThrows(IllegalArgumentException.class, () -> UserCursor.decode("not a cursor"));
+    assertThrows(IllegalArgumentException.class, () -> UserCursor.decode(encoded("not json")));
+    assertThrows(IllegalArgumentException.class,
+      () -> UserCursor.decode(encoded("{\"by\": \"avatar\", \"value\": \"x\", \"id\": \"" + id + "\"}")));
+    assertThrows(IllegalArgumentException.class,
+      () -> UserCursor.decode(encoded("{\"by\": \"age\", \"value\": \"old\", \"id\": \"" + id + "\"}")));
+    assertThrows(IllegalArgumentException.class,
+      () -> UserCursor.decode(encoded("{\"by\": \"name\", \"value\": \"Chris\", \"id\": \"nope\"}")));
+  }
+
+  @Test
+  void usersCantBeSortedByEverything() {
+    assertThrows(IllegalArgumentException.class, () -> UserCursor.after(user("Chris", 25), "avatar"));
+  }
+}
@@ -0,0 +1,116 @@
+package umm3601.user;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Indexes;
+
+/**
+ * Tests that the users collection gets the indexes in `UserIndexes`, and
+ * that MongoDB uses them for the kinds of queries we make.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class UserIndexesSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoUserRepository users;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    db.getCollection("users").drop();
+    db.getCollection("unindexed").drop();
+    db.getCollection("users").insertOne(new Document("name", "Chris").append("age", 25).append("company", "UMM"));
+    users = new MongoUserRepository(db);
+  }
+
+  @Test
+  void createsAllTheIndexes() {
+    List<String> names = db.getCollection("users").listIndexes()
+      .map(index -> index.getString("name")).into(new ArrayList<>());
+    // Plus the one on `_id` that every collection has
+    assertEquals(UserIndexes.INDEXES.size() + 1, names.size());
+    assertTrue(names.contains("name_1__id_1"));
+    assertTrue(names.contains("role_1_name_1__id_1"));
+    assertTrue(names.contains("companyNormalized_1_name_1__id_1"));
+  }
+
+  @Test
+  void dropsTheIndexesWeNoLongerUse() {
+    db.getCollection("users").createIndex(Indexes.ascending(MongoUserRepository.COMPANY_NORMALIZED_KEY));
+    new MongoUserRepository(db);
+    List<String> names = db.getCollection("users").listIndexes()
+      .map(index -> index.getString("name")).into(new ArrayList<>());
+    assertFalse(names.contains("companyNormalized_1"));
+    assertTrue(names.contains("companyNormalized_1_name_1__id_1"));
+  }
+
+  @Test
+  void creatingTheIndexesAgainDoesNothing() {
+    new MongoUserRepository(db);
+    assertEquals(UserIndexes.INDEXES.size() + 1,
+      db.getCollection("users").listIndexes().into(new ArrayList<>()).size());
+  }
+
+  @Test
+  void noQueryShapeScansTheWholeCollection() {
+    Map<UserQuery, List<String>> plans = UserIndexes.explain(db.getCollection("users"));
+    assertEquals(UserIndexes.QUERY_SHAPES.size(), plans.size());
+    plans.forEach((shape, stages) -> assertFalse(stages.contains("COLLSCAN"), shape + ": " + stages));
+  }
+
+  @Test
+  void sortingEveryUserByNameUsesTheIndex() {
+    List<String> stages = UserIndexes.explain(db.getCollection("users"))
+      .get(new UserQuery(null, null, null, "name", false));
+    assertTrue(stages.contains("IXSCAN name_1__id_1"), stages.toString());
+    assertFalse(stages.contains("SORT"), stages.toString());
+  }
+
+  @Test
+  void findsQueriesWithoutAnIndex() {
+    MongoCollection<Document> unindexed = db.getCollection("unindexed");
+    unindexed.insertOne(new Document("name", "Chris"));
+    UserIndexes.explain(unindexed)
+      .forEach((shape, stages) -> assertTrue(stages.contains("COLLSCAN"), shape + ": " + stages));
+    // These are just logged
+    UserIndexes.logPlans(unindexed);
+    users.logQueryPlans();
+  }
+}